@@ -0,0 +1,86 @@
+package de.adito.aditoweb.nbm.metrics.impl;
+
+import de.adito.aditoweb.nbm.metrics.impl.handlers.*;
+import lombok.NonNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.lang.annotation.*;
+import java.lang.reflect.Method;
+
+/**
+ * Metric annotations and handlers, that are used by the benchmarks.
+ * The handlers do nothing, so that only the costs of the dispatch get measured.
+ *
+ * @author agent, 17.10.2026
+ */
+public final class BenchmarkMetrics
+{
+
+  private BenchmarkMetrics()
+  {
+  }
+
+  @Retention(RetentionPolicy.RUNTIME)
+  @Target(ElementType.METHOD)
+  public @interface First
+  {
+    /**
+     * Instance object for this annotation, to register it dynamically
+     */
+    @SuppressWarnings("ClassExplicitlyAnnotation")
+    class Instance implements First
+    {
+      @Override
+      public Class<? extends Annotation> annotationType()
+      {
+        return First.class;
+      }
+    }
+  }
+
+  @Retention(RetentionPolicy.RUNTIME)
+  @Target(ElementType.METHOD)
+  public @interface Second
+  {
+  }
+
+  @Retention(RetentionPolicy.RUNTIME)
+  @Target(ElementType.METHOD)
+  public @interface Third
+  {
+  }
+
+  @MetricHandler(metric = First.class)
+  public static class FirstHandler implements IMetricHandler<First>
+  {
+    @Nullable
+    @Override
+    public Object beforeMethod(@NonNull First pAnnotation, @Nullable Object pObject, @NonNull Method pMethod, Object @NonNull [] pArgs)
+    {
+      return null;
+    }
+  }
+
+  @MetricHandler(metric = Second.class)
+  public static class SecondHandler implements IMetricHandler<Second>
+  {
+    @Nullable
+    @Override
+    public Object beforeMethod(@NonNull Second pAnnotation, @Nullable Object pObject, @NonNull Method pMethod, Object @NonNull [] pArgs)
+    {
+      return null;
+    }
+  }
+
+  @MetricHandler(metric = Third.class)
+  public static class ThirdHandler implements IMetricHandler<Third>
+  {
+    @Nullable
+    @Override
+    public Object beforeMethod(@NonNull Third pAnnotation, @Nullable Object pObject, @NonNull Method pMethod, Object @NonNull [] pArgs)
+    {
+      return null;
+    }
+  }
+
+}
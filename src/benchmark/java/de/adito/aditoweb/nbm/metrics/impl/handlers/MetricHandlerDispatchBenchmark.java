@@ -0,0 +1,77 @@
+package de.adito.aditoweb.nbm.metrics.impl.handlers;
+
+import de.adito.aditoweb.nbm.metrics.impl.BenchmarkMetrics;
+import org.openjdk.jmh.annotations.*;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the costs of {@link IMetricHandler.Accessor} to dispatch a single method call to 0, 1 or 3 handlers,
+ * with an open and a closed {@link MetricGate}. Sampling is disabled, so that every call reaches the handlers.
+ *
+ * @author agent, 17.10.2026
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Dadito.analytics.sampling.maxCallsPerSecond=0")
+public class MetricHandlerDispatchBenchmark
+{
+
+  private final IMetricHandler.Accessor accessor = new IMetricHandler.Accessor();
+  private final Object target = new Object();
+  private final Object[] arguments = IMetricHandler.Accessor.NO_ARGUMENTS;
+
+  @Param({"0", "1", "3"})
+  public int handlers;
+
+  @Param({"false", "true"})
+  public boolean gateClosed;
+
+  private Method method;
+  private MetricHandlerChain chain;
+
+  @Setup
+  public void setUp() throws Exception
+  {
+    method = MetricHandlerDispatchBenchmark.class.getDeclaredMethod("handlers" + handlers);
+    chain = accessor.getChain(method);
+    MetricGate.setClosedManually(gateClosed);
+  }
+
+  @TearDown
+  public void tearDown()
+  {
+    MetricGate.setClosedManually(false);
+  }
+
+  @Benchmark
+  public void dispatch()
+  {
+    Object hints = accessor.beforeMethodCall(target, method, chain, arguments);
+    accessor.afterMethodCall(target, method, chain, arguments, hints, null, null);
+  }
+
+  @SuppressWarnings("unused") // accessed via reflection
+  private void handlers0()
+  {
+  }
+
+  @BenchmarkMetrics.First
+  @SuppressWarnings("unused") // accessed via reflection
+  private void handlers1()
+  {
+  }
+
+  @BenchmarkMetrics.First
+  @BenchmarkMetrics.Second
+  @BenchmarkMetrics.Third
+  @SuppressWarnings("unused") // accessed via reflection
+  private void handlers3()
+  {
+  }
+
+}
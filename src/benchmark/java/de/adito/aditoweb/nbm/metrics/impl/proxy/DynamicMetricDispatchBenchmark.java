@@ -0,0 +1,63 @@
+package de.adito.aditoweb.nbm.metrics.impl.proxy;
+
+import de.adito.aditoweb.nbm.metrics.impl.proxy.bootstrap.DynamicMetricDispatcher;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.lang.invoke.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the per-call cost of the dispatch from an instrumented method into the analytics module.
+ * "reflectiveLookup" is the way the advice dispatched before (lookup of class and method on every call, followed by a reflective call),
+ * "callSite" is the way the advice dispatches now, via the bound {@link DynamicMetricDispatcher} call sites.
+ * The dispatch target does nothing, so only the dispatch itself gets measured.
+ *
+ * @author agent, 17.10.2026
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DynamicMetricDispatchBenchmark
+{
+
+  private static final String TARGET_CLASS = DynamicMetricDispatchBenchmark.class.getName();
+  private final Object target = new Object();
+  private final Object[] arguments = new Object[0];
+
+  @Setup
+  public void setUp() throws Exception
+  {
+    DynamicMetricDispatcher.ENTER_SITE.setTarget(MethodHandles.lookup().findStatic(DynamicMetricDispatchBenchmark.class, "sink",
+                                                                                  DynamicMetricDispatcher.ENTER_TYPE));
+    MutableCallSite.syncAll(new MutableCallSite[]{DynamicMetricDispatcher.ENTER_SITE});
+  }
+
+  @Benchmark
+  public void reflectiveLookup(Blackhole pBlackhole) throws Exception
+  {
+    pBlackhole.consume(getClass().getClassLoader()
+                           .loadClass(TARGET_CLASS)
+                           .getDeclaredMethod("sink", Object.class, Class.class, String.class, Object[].class)
+                           .invoke(null, target, Object.class, "toString()Ljava/lang/String;", arguments));
+  }
+
+  @Benchmark
+  public void callSite(Blackhole pBlackhole) throws Throwable
+  {
+    pBlackhole.consume((Object) DynamicMetricDispatcher.ENTER.invokeExact(target, (Class<?>) Object.class, "toString()Ljava/lang/String;", arguments));
+  }
+
+  /**
+   * Target of the dispatch, does nothing
+   */
+  @SuppressWarnings("unused") // called by benchmarks
+  public static Object sink(Object pTarget, Class<?> pType, String pMethod, Object[] pArguments)
+  {
+    return null;
+  }
+
+}
@@ -0,0 +1,69 @@
+package de.adito.aditoweb.nbm.metrics.impl.proxy;
+
+import de.adito.aditoweb.nbm.metrics.impl.BenchmarkMetrics;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the per-call cost of a method, that was retransformed by {@link DynamicMetricProxyLoaderImpl},
+ * with the same method on a class that was not retransformed.
+ * Sampling is disabled, so that every call reaches the (empty) handler.
+ *
+ * @author agent, 17.10.2026
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Dadito.analytics.sampling.maxCallsPerSecond=0")
+public class DynamicMetricInvocationBenchmark
+{
+
+  private final Plain plain = new Plain();
+  private final Retransformed retransformed = new Retransformed();
+
+  @Setup
+  public void setUp()
+  {
+    DynamicMetricProxyLoaderImpl loader = new DynamicMetricProxyLoaderImpl();
+    loader.loadDynamicProxy(Retransformed.class, new BenchmarkMetrics.First.Instance(), null);
+    loader.flush();
+  }
+
+  @Benchmark
+  public int direct()
+  {
+    return plain.add(1, 2);
+  }
+
+  @Benchmark
+  public int retransformed()
+  {
+    return retransformed.add(1, 2);
+  }
+
+  /**
+   * Class that does not get retransformed
+   */
+  public static class Plain
+  {
+    public int add(int pFirst, int pSecond)
+    {
+      return pFirst + pSecond;
+    }
+  }
+
+  /**
+   * Class that gets retransformed
+   */
+  public static class Retransformed
+  {
+    public int add(int pFirst, int pSecond)
+    {
+      return pFirst + pSecond;
+    }
+  }
+
+}
@@ -0,0 +1,74 @@
+package de.adito.aditoweb.nbm.metrics.impl.proxy;
+
+import de.adito.aditoweb.nbm.metrics.impl.BenchmarkMetrics;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the per-call cost of a method, that gets called on a proxy created by {@link MetricProxyFactoryImpl}.
+ * "direct" calls the method on the original object, the other benchmarks call it on a proxy created with the given {@link MetricProxyFactoryImpl.ProxyMode}.
+ * The method has a single metric annotation with an empty handler and sampling is disabled, so that every call gets dispatched.
+ *
+ * @author agent, 17.10.2026
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Dadito.analytics.sampling.maxCallsPerSecond=0")
+public class MetricProxyInvocationBenchmark
+{
+
+  private Target original;
+  private Target invocationHandlerProxy;
+  private Target directProxy;
+  private Target forwardingProxy;
+
+  @Setup
+  public void setUp()
+  {
+    original = new Target();
+    invocationHandlerProxy = new MetricProxyFactoryImpl(MetricProxyFactoryImpl.ProxyMode.INVOCATION_HANDLER).createProxy(original);
+    directProxy = new MetricProxyFactoryImpl(MetricProxyFactoryImpl.ProxyMode.DIRECT).createProxy(original);
+    forwardingProxy = new MetricProxyFactoryImpl(MetricProxyFactoryImpl.ProxyMode.FORWARDING).createProxy(original);
+  }
+
+  @Benchmark
+  public int direct()
+  {
+    return original.add(1, 2);
+  }
+
+  @Benchmark
+  public int invocationHandlerProxy()
+  {
+    return invocationHandlerProxy.add(1, 2);
+  }
+
+  @Benchmark
+  public int directProxy()
+  {
+    return directProxy.add(1, 2);
+  }
+
+  @Benchmark
+  public int forwardingProxy()
+  {
+    return forwardingProxy.add(1, 2);
+  }
+
+  /**
+   * Object that gets proxied
+   */
+  public static class Target
+  {
+    @BenchmarkMetrics.First
+    public int add(int pFirst, int pSecond)
+    {
+      return pFirst + pSecond;
+    }
+  }
+
+}
@@ -0,0 +1,55 @@
+package de.adito.aditoweb.nbm.metrics.impl.proxy;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.lang.invoke.*;
+import java.lang.reflect.InvocationHandler;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the cost to create a proxy via {@link InterceptableObjectFactory}, once the proxy type was generated.
+ * The proxied type has some fields, because their state has to be copied into every proxy.
+ *
+ * @author agent, 17.10.2026
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ProxyCreationBenchmark
+{
+
+  private final InterceptableObjectFactory factory = new InterceptableObjectFactory();
+  private final Target target = new Target();
+  private final InvocationHandler handler = (pProxy, pMethod, pArgs) -> null;
+  private final MethodHandle enterHook = MethodHandles.dropArguments(MethodHandles.constant(Object.class, null), 0,
+                                                                     Object.class, String.class, Object[].class);
+  private final MethodHandle exitHook = MethodHandles.empty(MethodType.methodType(void.class, Object.class, String.class, Object[].class,
+                                                                                  Object.class, Object.class, Throwable.class));
+
+  @Benchmark
+  public Object invocationHandlerProxy() throws Exception
+  {
+    return factory.createInterceptableProxy(target, handler);
+  }
+
+  @Benchmark
+  public Object delegatingProxy() throws Exception
+  {
+    return factory.createDelegatingProxy(target, enterHook, exitHook);
+  }
+
+  /**
+   * Object that gets proxied
+   */
+  public static class Target
+  {
+    private final String name = "target";
+    private final int count = 42;
+    private final long[] values = new long[8];
+    private Object reference = new Object();
+  }
+
+}
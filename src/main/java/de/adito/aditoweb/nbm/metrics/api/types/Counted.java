@@ -0,0 +1,19 @@
+package de.adito.aditoweb.nbm.metrics.api.types;
+
+import java.lang.annotation.*;
+
+/**
+ * The calls and failed calls of methods annotated with this annotation get counted.
+ * The counts get exported periodically per method, together with the latencies of {@link Timed} methods.
+ *
+ * Should be moved into our regular metrics-api package,
+ * but for backwards compatibility reasons we include it here temporarily(!)
+ *
+ * @author agent, 17.10.2026
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.METHOD)
+@MetricType
+public @interface Counted
+{
+}
@@ -0,0 +1,20 @@
+package de.adito.aditoweb.nbm.metrics.api.types;
+
+import java.lang.annotation.*;
+
+/**
+ * The latencies of methods annotated with this annotation get recorded into a histogram per method.
+ * This is much cheaper than {@link Traced}, because no transaction or span gets created - only the
+ * percentiles of the latencies get exported periodically.
+ *
+ * Should be moved into our regular metrics-api package,
+ * but for backwards compatibility reasons we include it here temporarily(!)
+ *
+ * @author agent, 17.10.2026
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.METHOD)
+@MetricType
+public @interface Timed
+{
+}
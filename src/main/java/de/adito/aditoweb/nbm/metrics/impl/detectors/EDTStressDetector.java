@@ -100,8 +100,15 @@ public class EDTStressDetector extends ARunnableDetector implements IEDTStressDe
       return false;
     }
 
+    /**
+     * Records the given stress value in the histogram metric.
+     * Must not be private, otherwise the metrics proxy could not intercept it.
+     *
+     * @param pStressPercentage Percentage of the last second, that the EDT was busy
+     * @return the given percentage, so that it gets recorded
+     */
     @Histogram(name = "EDTStressPercentage")
-    private double logStress(double pStressPercentage)
+    double logStress(double pStressPercentage)
     {
       return pStressPercentage;
     }
@@ -1,6 +1,7 @@
 package de.adito.aditoweb.nbm.metrics.impl.eventlogger;
 
 import de.adito.aditoweb.nbm.metrics.impl.bugreports.IBugReport;
+import de.adito.aditoweb.nbm.metrics.impl.handlers.*;
 import lombok.NonNull;
 import org.jetbrains.annotations.Nullable;
 import org.openide.util.Lookup;
@@ -44,6 +45,21 @@ public interface IEventLogger
    */
   void captureEDTStress(@NonNull ThreadInfo pThreadInfo, @NonNull Supplier<ThreadInfo[]> pAllThreadInfos);
 
+  /**
+   * Captures the values of a histogram metric, that were recorded within a time window
+   *
+   * @param pName     Name of the histogram
+   * @param pSnapshot Aggregate of the recorded values
+   */
+  void captureHistogram(@NonNull String pName, @NonNull HistogramSnapshot pSnapshot);
+
+  /**
+   * Captures the call counts and latencies of methods, that were recorded within an interval
+   *
+   * @param pStatistics Statistics of all methods, that were called within the interval
+   */
+  void captureMethodStatistics(@NonNull List<MethodStatistics> pStatistics);
+
   /**
    * Captured, that a bug report should be submitted.
    * Will be outputted to the given file and not submitted to the logger, if not null
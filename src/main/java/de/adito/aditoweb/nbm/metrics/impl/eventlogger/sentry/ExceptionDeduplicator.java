@@ -0,0 +1,170 @@
+package de.adito.aditoweb.nbm.metrics.impl.eventlogger.sentry;
+
+import lombok.NonNull;
+
+import java.util.*;
+import java.util.regex.Pattern;
+
+/**
+ * Deduplicates exceptions by their fingerprint, so that an exception storm (e.g. an exception in a paint loop)
+ * does not produce thousands of identical events. Only the first occurrence of a fingerprint should be sent immediately,
+ * all further occurrences get counted and should be sent as a summary periodically, see {@link #drainSummaries()}.
+ * The fingerprints are kept in a bounded LRU, the counts of evicted fingerprints get lost.
+ *
+ * @author agent, 17.10.2026
+ */
+final class ExceptionDeduplicator
+{
+
+  /**
+   * Count of frames, that are part of the fingerprint
+   */
+  private static final int FINGERPRINT_FRAMES = 5;
+
+  /**
+   * Parts of class names, that differ between sessions - see {@link #_append(StringBuilder, StackTraceElement)}
+   */
+  private static final Pattern _LAMBDA_SUFFIX = Pattern.compile("\\$\\$Lambda\\$\\d+.*");
+  private static final Pattern _COUNTER = Pattern.compile("\\$\\d+");
+
+  private final Map<String, _Occurrences> occurrences;
+
+  /**
+   * @param pMaxFingerprints Maximum count of fingerprints to remember
+   */
+  ExceptionDeduplicator(int pMaxFingerprints)
+  {
+    occurrences = new LinkedHashMap<>(16, 0.75f, true)
+    {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<String, _Occurrences> pEldest)
+      {
+        return size() > pMaxFingerprints;
+      }
+    };
+  }
+
+  /**
+   * Registers an occurrence of the given exception
+   *
+   * @param pException Exception that occurred
+   * @return true, if it is the first occurrence of its fingerprint and it should be sent immediately
+   */
+  synchronized boolean offer(@NonNull Throwable pException)
+  {
+    String fingerprint = fingerprint(pException);
+    _Occurrences existing = occurrences.get(fingerprint);
+    if (existing == null)
+    {
+      occurrences.put(fingerprint, new _Occurrences());
+      return true;
+    }
+
+    existing.count++;
+    existing.latest = pException;
+    return false;
+  }
+
+  /**
+   * Returns the summaries of all fingerprints, that occurred again since the previous call.
+   * Their counts get reset, but the fingerprints stay known - so they will not be sent immediately again.
+   *
+   * @return the summaries
+   */
+  @NonNull
+  synchronized List<Summary> drainSummaries()
+  {
+    List<Summary> summaries = new ArrayList<>();
+    for (Map.Entry<String, _Occurrences> entry : occurrences.entrySet())
+    {
+      _Occurrences value = entry.getValue();
+      if (value.count > 0)
+      {
+        summaries.add(new Summary(entry.getKey(), value.latest, value.count));
+        value.count = 0;
+        value.latest = null; // do not keep the exception (and everything it references) until the next occurrence
+      }
+    }
+    return summaries;
+  }
+
+  /**
+   * Creates the fingerprint of the given exception.
+   * It consists of the type of the exception and the top frames of our own code, without line numbers -
+   * so the same problem has the same fingerprint in every version and regardless of the message.
+   * If there is no frame of our own code, the top frames are used.
+   *
+   * @param pException Exception to create the fingerprint for
+   * @return the fingerprint
+   */
+  @NonNull
+  static String fingerprint(@NonNull Throwable pException)
+  {
+    StringBuilder fingerprint = new StringBuilder(pException.getClass().getName());
+    StackTraceElement[] stackTrace = pException.getStackTrace();
+    int frames = 0;
+    for (int i = 0; i < stackTrace.length && frames < FINGERPRINT_FRAMES; i++)
+      if (_isInApp(stackTrace[i]))
+      {
+        _append(fingerprint, stackTrace[i]);
+        frames++;
+      }
+
+    if (frames == 0)
+      for (int i = 0; i < Math.min(FINGERPRINT_FRAMES, stackTrace.length); i++)
+        _append(fingerprint, stackTrace[i]);
+
+    return fingerprint.toString();
+  }
+
+  /**
+   * @param pElement Frame to check
+   * @return true, if the frame belongs to our own code
+   */
+  private static boolean _isInApp(@NonNull StackTraceElement pElement)
+  {
+    return pElement.getClassName().toLowerCase(Locale.ROOT).contains("adito");
+  }
+
+  /**
+   * Appends the given frame to the fingerprint
+   *
+   * @param pFingerprint Fingerprint to append to
+   * @param pElement     Frame to append
+   */
+  private static void _append(@NonNull StringBuilder pFingerprint, @NonNull StackTraceElement pElement)
+  {
+    // lambdas and generated classes contain counters in their names, that differ between sessions
+    String className = pElement.getClassName();
+    if (className.indexOf('$') >= 0)
+      className = _COUNTER.matcher(_LAMBDA_SUFFIX.matcher(className).replaceAll("\\$\\$Lambda")).replaceAll("\\$");
+    pFingerprint.append('|').append(className).append('#').append(pElement.getMethodName());
+  }
+
+  /**
+   * Further occurrences of a fingerprint within an interval
+   */
+  static final class Summary
+  {
+    final String fingerprint;
+    final Throwable exception;
+    final int count;
+
+    Summary(@NonNull String pFingerprint, @NonNull Throwable pException, int pCount)
+    {
+      fingerprint = pFingerprint;
+      exception = pException;
+      count = pCount;
+    }
+  }
+
+  /**
+   * Occurrences of a single fingerprint
+   */
+  private static class _Occurrences
+  {
+    private int count;
+    private Throwable latest;
+  }
+
+}
@@ -1,10 +1,12 @@
 package de.adito.aditoweb.nbm.metrics.impl.eventlogger.sentry;
 
 import com.google.common.net.MediaType;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import de.adito.aditoweb.nbm.metrics.impl.InstallationID;
 import de.adito.aditoweb.nbm.metrics.impl.bugreports.IBugReport;
 import de.adito.aditoweb.nbm.metrics.impl.detectors.ThreadUtility;
 import de.adito.aditoweb.nbm.metrics.impl.eventlogger.IEventLogger;
+import de.adito.aditoweb.nbm.metrics.impl.handlers.*;
 import de.adito.aditoweb.nbm.metrics.impl.user.IUserAgreement;
 import io.reactivex.rxjava3.disposables.Disposable;
 import io.sentry.*;
@@ -20,6 +22,7 @@ import java.io.*;
 import java.lang.management.ThreadInfo;
 import java.nio.charset.StandardCharsets;
 import java.util.*;
+import java.util.concurrent.*;
 import java.util.function.Supplier;
 import java.util.logging.*;
 import java.util.stream.*;
@@ -42,6 +45,17 @@ public class SentryEventLogger implements IEventLogger
   private static final Set<String> IGNORE_EDT_IF_IN_CLASS = Set.of("org.netbeans.modules.progress.ui.RunOffEDTImpl".toLowerCase(),
                                                                    "de.adito.git.nbm.sidebar.EditorColorizer".toLowerCase());
 
+  /**
+   * System property to set the interval in seconds, in which the summaries of repeated exceptions get sent
+   */
+  private static final String EXCEPTION_SUMMARY_INTERVAL_PROPERTY = "adito.analytics.exceptions.summaryIntervalSeconds";
+
+  /**
+   * System property to set the count of exception fingerprints, that are remembered
+   */
+  private static final String EXCEPTION_FINGERPRINTS_PROPERTY = "adito.analytics.exceptions.maxFingerprints";
+
+  private final ExceptionDeduplicator exceptions = new ExceptionDeduplicator(Integer.getInteger(EXCEPTION_FINGERPRINTS_PROPERTY, 256));
   @SuppressWarnings({"FieldCanBeLocal", "unused"}) // only once inited
   private Disposable disposable;
   // keep a hash of the last sent EDT stacktrace hash to check if the stacktrace changed -> no change no event
@@ -50,7 +64,8 @@ public class SentryEventLogger implements IEventLogger
   @Override
   public void captureRegularException(@NonNull Throwable pException)
   {
-    if (!IGNORED_EXCEPTIONS.contains(pException.getClass().getName()))
+    // only the first occurrence gets sent immediately, all others are sent as summary
+    if (!IGNORED_EXCEPTIONS.contains(pException.getClass().getName()) && exceptions.offer(pException))
       _catchException(() -> Sentry.captureEvent(_createEvent(SentryLevel.ERROR, null, pException, null)));
   }
 
@@ -95,6 +110,55 @@ public class SentryEventLogger implements IEventLogger
     }
   }
 
+  @Override
+  public void captureHistogram(@NonNull String pName, @NonNull HistogramSnapshot pSnapshot)
+  {
+    _catchException(() -> {
+      SentryEvent event = _createEvent(SentryLevel.INFO, null, null, "Histogram " + pName);
+      event.setTag("histogram", pName);
+      event.setExtras(Map.of("count", pSnapshot.getCount(),
+                             "mean", pSnapshot.getMean(),
+                             "min", pSnapshot.getMin(),
+                             "p50", pSnapshot.getValueAtPercentile(50),
+                             "p90", pSnapshot.getValueAtPercentile(90),
+                             "p99", pSnapshot.getValueAtPercentile(99),
+                             "max", pSnapshot.getMax()));
+      return Sentry.captureEvent(event);
+    });
+  }
+
+  @Override
+  public void captureMethodStatistics(@NonNull List<MethodStatistics> pStatistics)
+  {
+    _catchException(() -> {
+      Map<String, Object> extras = new HashMap<>();
+      for (MethodStatistics statistics : pStatistics)
+      {
+        Map<String, Object> values = new LinkedHashMap<>();
+        if (statistics.getCalls() > 0)
+        {
+          values.put("calls", statistics.getCalls());
+          values.put("failures", statistics.getFailures());
+        }
+
+        HistogramSnapshot latency = statistics.getLatencyNanos();
+        if (latency != null && latency.getCount() > 0)
+        {
+          values.put("timed calls", latency.getCount());
+          values.put("p50 (ms)", latency.getValueAtPercentile(50) / 1_000_000d);
+          values.put("p95 (ms)", latency.getValueAtPercentile(95) / 1_000_000d);
+          values.put("p99 (ms)", latency.getValueAtPercentile(99) / 1_000_000d);
+          values.put("max (ms)", latency.getMax() / 1_000_000d);
+        }
+        extras.put(statistics.getMethod(), values);
+      }
+
+      SentryEvent event = _createEvent(SentryLevel.INFO, null, null, "Method Statistics");
+      event.setExtras(extras);
+      return Sentry.captureEvent(event);
+    });
+  }
+
   @Nullable
   @Override
   public String captureBugReport(@NonNull IBugReport pReport, @Nullable File pOutputFile)
@@ -297,6 +361,13 @@ public class SentryEventLogger implements IEventLogger
    */
   private void _init()
   {
+    long summaryInterval = Long.getLong(EXCEPTION_SUMMARY_INTERVAL_PROPERTY, 60);
+    Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                                                   .setNameFormat("tSentryExceptionSummaries-%d")
+                                                   .setDaemon(true)
+                                                   .build())
+        .scheduleWithFixedDelay(this::_sendExceptionSummaries, summaryInterval, summaryInterval, TimeUnit.SECONDS);
+
     disposable = IUserAgreement.getInstance().sendingAnalyticsAllowed()
         .distinctUntilChanged()
         .subscribe(pSendingAnalyticsAllowed -> {
@@ -330,6 +401,20 @@ public class SentryEventLogger implements IEventLogger
         });
   }
 
+  /**
+   * Sends the summaries of all exceptions, that occurred again since the last summaries were sent
+   */
+  private void _sendExceptionSummaries()
+  {
+    for (ExceptionDeduplicator.Summary summary : exceptions.drainSummaries())
+      _catchException(() -> {
+        SentryEvent event = _createEvent(SentryLevel.ERROR, null, summary.exception, "Seen " + summary.count + " more times");
+        event.setExtra("occurrences", summary.count);
+        event.setExtra("fingerprint", summary.fingerprint);
+        return Sentry.captureEvent(event);
+      });
+  }
+
   /**
    * Catches all exceptions happening inside pSupplier and logs it to console
    *
@@ -7,25 +7,59 @@ import lombok.NonNull;
 import org.jetbrains.annotations.Nullable;
 
 import java.lang.reflect.Method;
-import java.util.Map;
 
 /**
- * Logs all exceptions to the event logger
+ * Logs all exceptions to the event logger.
+ * The exceptions get captured in the background, so that the calling thread does not have to wait for the event logger.
  *
  * @author w.glanzer, 02.03.2023
  */
-@MetricHandler(metric = Sampled.class)
-class SentrySampledMetricHandler implements IMetricHandler<Sampled>
+@MetricHandler(metric = Sampled.class, capabilities = MetricCapability.ARGUMENTS)
+class SentrySampledMetricHandler implements IAsyncMetricHandler<Sampled>
 {
 
   @Override
-  public void beforeMethod(@NonNull Sampled pAnnotation, @Nullable Object pObject, @NonNull Method pMethod, Object @NonNull [] pArgs,
-                           @NonNull Map<String, Object> pHints)
+  public boolean isTimed()
+  {
+    return false;
+  }
+
+  @Nullable
+  @Override
+  public Object captureDetail(@NonNull Sampled pAnnotation, Object @NonNull [] pArgs, @Nullable Object pResult)
   {
     // Check if this execution should be handled by an external event logger
+    Throwable first = null;
+    int count = 0;
+    for (Object arg : pArgs)
+      if (arg instanceof Throwable)
+      {
+        if (first == null)
+          first = (Throwable) arg;
+        count++;
+      }
+
+    // most calls pass a single exception, so it can be passed without an array
+    if (count <= 1)
+      return first;
+
+    Throwable[] exceptions = new Throwable[count];
+    int i = 0;
     for (Object arg : pArgs)
       if (arg instanceof Throwable)
-        IEventLogger.getInstance().captureRegularException((Throwable) arg);
+        exceptions[i++] = (Throwable) arg;
+    return exceptions;
+  }
+
+  @Override
+  public void handleRecord(@NonNull Sampled pAnnotation, @NonNull Method pMethod, @NonNull MetricRecord pRecord)
+  {
+    Object detail = pRecord.getDetail();
+    if (detail instanceof Throwable)
+      IEventLogger.getInstance().captureRegularException((Throwable) detail);
+    else if (detail instanceof Throwable[])
+      for (Throwable exception : (Throwable[]) detail)
+        IEventLogger.getInstance().captureRegularException(exception);
   }
 
-}
\ No newline at end of file
+}
@@ -1,14 +1,11 @@
 package de.adito.aditoweb.nbm.metrics.impl.eventlogger.sentry.handlers;
 
-import com.google.common.cache.*;
 import de.adito.aditoweb.nbm.metrics.api.types.Traced;
 import de.adito.aditoweb.nbm.metrics.impl.handlers.*;
 import lombok.*;
-import lombok.extern.java.Log;
 import org.jetbrains.annotations.*;
 
 import java.lang.reflect.Method;
-import java.util.*;
 
 /**
  * Handler for all methods that should be {@link Traced}.
@@ -16,34 +13,31 @@ import java.util.*;
  *
  * @author w.glanzer, 02.03.2023
  */
-@Log
-@MetricHandler(metric = Traced.class)
+@MetricHandler(metric = Traced.class, capabilities = MetricCapability.EXCEPTION)
 class SentryTracedMetricHandler implements IMetricHandler<Traced>
 {
 
-  private static final String HINT_FINISHABLE = SentryTracedMetricHandler.class.getName() + "_finishable";
+  private final SentryTransactionRegistry transactions = new SentryTransactionRegistry();
 
-  private final Cache<String, SentryTracedTransaction> transactionCache = CacheBuilder.newBuilder()
-      .weakValues()
-      .build();
+  SentryTracedMetricHandler()
+  {
+    SentryTransactionRegistry.registerMXBean(transactions);
+  }
 
+  @Nullable
   @Override
-  public void beforeMethod(@NonNull Traced pAnnotation, @Nullable Object pObject, @NonNull Method pMethod, Object @NonNull [] pArgs, @NonNull Map<String, Object> pHints)
+  public Object beforeMethod(@NonNull Traced pAnnotation, @Nullable Object pObject, @NonNull Method pMethod, Object @NonNull [] pArgs)
   {
-    String transactionKey = pAnnotation.transaction();
+    // asynchronous calls should be handled as different transactions, so the transaction belongs to the current thread only
+    boolean perThread = !pAnnotation.combineAsyncTransactions();
     boolean transactionStarted = false;
 
-    // Add the threadid to the transaction key, if asynchronous calls should be handled as different transactions
-    if (!pAnnotation.combineAsyncTransactions())
-      transactionKey += "_" + Thread.currentThread().getId();
-
     // Get the current transaction, or start a new one if currently nothing is active and a transaction should be started
-    SentryTracedTransaction transaction = transactionCache.getIfPresent(transactionKey);
-    if ((transaction == null || transaction.isFinished()) && pAnnotation.startTransaction())
+    SentryTracedTransaction transaction = transactions.get(pAnnotation.transaction(), perThread);
+    if (transaction == null && pAnnotation.startTransaction())
     {
-      transaction = new SentryTracedTransaction(pAnnotation.transaction());
+      transaction = transactions.start(pAnnotation.transaction(), perThread);
       transactionStarted = true;
-      transactionCache.put(transactionKey, transaction);
     }
 
     if (transaction != null && !transaction.isFinished())
@@ -51,23 +45,20 @@ class SentryTracedMetricHandler implements IMetricHandler<Traced>
       // trigger, that a new span should be started
       SentryTracedTransaction.SpanID spanID = transaction.startSpan(pMethod.getName(), pMethod.getDeclaringClass().getName());
 
-      // Add a finishable to the hints so we can finish the span without caching it in a static cache
-      Object previousFinishable = pHints.put(HINT_FINISHABLE, new Finishable(transaction, spanID, transactionStarted));
-
-      // if we accidentally override a finishable, then log it -> we can't do anything to fix this, it is caused by the annotator
-      if (previousFinishable != null)
-        log.warning("Tried to override finishable for object " + pObject + " in method " + pMethod + " and arguments " + Arrays.toString(pArgs));
+      // Return a finishable as hint so we can finish the span without caching it in a static cache
+      return new Finishable(transactions, pAnnotation, transaction, spanID, transactionStarted);
     }
+
+    return null;
   }
 
   @Override
   public void afterMethod(@NonNull Traced pAnnotation, @Nullable Object pObject, @NonNull Method pMethod, Object @NonNull [] pArgs, @Nullable Object pResult,
-                          @Nullable Throwable pException, @NonNull Map<String, Object> pHints)
+                          @Nullable Throwable pException, @Nullable Object pHint)
   {
     // Execute finishables, if anything has to be finished
-    Object finishable = pHints.remove(HINT_FINISHABLE);
-    if (finishable instanceof Finishable)
-      ((Finishable) finishable).finish(pException);
+    if (pHint instanceof Finishable)
+      ((Finishable) pHint).finish(pException);
   }
 
   /**
@@ -76,6 +67,18 @@ class SentryTracedMetricHandler implements IMetricHandler<Traced>
   @RequiredArgsConstructor
   private static class Finishable
   {
+    /**
+     * Registry, that contains the transaction
+     */
+    @NotNull
+    private final SentryTransactionRegistry transactions;
+
+    /**
+     * Annotation, that caused the span
+     */
+    @NotNull
+    private final Traced annotation;
+
     /**
      * Transaction that should be finished, if the transaction was started before
      */
@@ -105,7 +108,10 @@ class SentryTracedMetricHandler implements IMetricHandler<Traced>
 
       // finish the whole transaction, if we were the transaction-start trigger
       if (transactionStarted)
+      {
         transaction.finish(pMethodException);
+        transactions.remove(annotation.transaction(), !annotation.combineAsyncTransactions(), transaction);
+      }
     }
   }
 
@@ -5,11 +5,17 @@ import lombok.*;
 import org.jetbrains.annotations.*;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.atomic.*;
 
 /**
  * Encapsulates a sentry {@link ITransaction} so that we are
  * able to "reuse" existing spans and combine them.
+ * Every thread, that calls traced methods within this transaction, tracks its own spans - so the spans of a thread
+ * are nested by the calls of that thread only and threads do not have to synchronize with each other.
+ * The spans, that are kept open for reuse, are finished together with the transaction.
+ * A span that is kept open gets handed over between its thread and the thread that finishes the transaction
+ * by atomically taking it out of {@link _ThreadSpans#lastActiveSpan}, so that it gets either reused or finished - never both.
  *
  * @author w.glanzer, 10.03.2023
  */
@@ -20,8 +26,19 @@ class SentryTracedTransaction
   private static final String DATA_POSSIBLE_RESULT_TIME = "ADITO_result_time";
   private static final String DATA_SPANID = "ADITO_spanID";
   private static final String DATA_INVOCATIONCOUNT = "ADITO_invocations";
+
+  /**
+   * Spans of the current thread per transaction, weakly bound to the transactions - so that there is only one thread local for all of them
+   */
+  private static final ThreadLocal<Map<SentryTracedTransaction, _ThreadSpans>> _THREAD_SPANS = ThreadLocal.withInitial(WeakHashMap::new);
+
   private final ITransaction transaction;
-  private final AtomicReference<ISpan> lastActiveSpanRef = new AtomicReference<>(null);
+  private final Queue<_ThreadSpans> allThreadSpans = new ConcurrentLinkedQueue<>();
+
+  /**
+   * true, as soon as the transaction starts to finish - spans that are kept open afterwards have to be finished by their own thread
+   */
+  private volatile boolean finishing;
 
   /**
    * Constructor that instantly starts a new transaction
@@ -45,61 +62,67 @@ class SentryTracedTransaction
   public SpanID startSpan(@NotNull String pOperationName, @Nullable String pDescription)
   {
     int spanID = Objects.hash(pOperationName, pDescription);
+    _ThreadSpans spans = _getThreadSpans();
     ISpan span = null;
 
-    synchronized (lastActiveSpanRef)
+    // take the last active span, so that it can not be finished by the transaction concurrently
+    ISpan lastActiveSpan = spans.lastActiveSpan.get();
+    if (lastActiveSpan != null && !lastActiveSpan.isFinished() && spans.lastActiveSpan.compareAndSet(lastActiveSpan, null))
     {
-      ISpan lastActiveSpan = lastActiveSpanRef.get();
-      if (lastActiveSpan != null && !lastActiveSpan.isFinished())
-      {
-        // First check if we are the last active one and if it can be reused
-        if (Objects.equals(lastActiveSpan.getData(DATA_SPANID), spanID))
-          span = reuseSpan(lastActiveSpan, pDescription);
+      // First check if we are the last active one and if it can be reused
+      if (Objects.equals(lastActiveSpan.getData(DATA_SPANID), spanID))
+        span = reuseSpan(lastActiveSpan, pDescription);
 
-          // It can not be reused - maybe it was scheduled for finish? Then close it. Otherwise do nothing with it.
-        else if (isScheduledForFinishing(lastActiveSpan))
-          executeFinish(lastActiveSpan, null, true);
-      }
+        // It can not be reused - maybe it was scheduled for finish? Then close it. Otherwise do nothing with it.
+      else if (isScheduledForFinishing(lastActiveSpan))
+        executeFinish(lastActiveSpan, null, true);
     }
 
     if (span == null)
     {
-      //noinspection UnstableApiUsage
-      ISpan latestActiveSpan = transaction.getLatestActiveSpan();
-      if (latestActiveSpan == null)
-        latestActiveSpan = transaction;
+      // the innermost call of this thread is the parent
+      ISpan parent = spans.openSpans.peek();
+      if (parent == null || parent.isFinished())
+        parent = transaction;
 
-      span = latestActiveSpan.startChild(pOperationName, pDescription);
+      span = parent.startChild(pOperationName, pDescription);
       span.setData(DATA_SPANID, spanID);
-      lastActiveSpanRef.set(span);
     }
 
+    spans.lastActiveSpan.set(span);
+    spans.openSpans.push(span);
     return new SpanID(span);
   }
 
   /**
    * Schedules, that a span should be finished.
-   * This finish will be delayed, so that we can reuse it if necessary
+   * This finish will be delayed, so that we can reuse it if necessary.
+   * Has to be called on the thread, that started the span.
    *
    * @param pID        ID of the span to finish
    * @param pException Exception of the span
    */
   public void scheduleSpanFinish(@NotNull SpanID pID, @Nullable Throwable pException)
   {
-    synchronized (lastActiveSpanRef)
+    _ThreadSpans spans = _getThreadSpans();
+    ISpan spanToFinish = pID.span;
+    spans.openSpans.removeFirstOccurrence(spanToFinish);
+
+    // keep the span open for reuse, if it is still the last active one and was not taken by the transaction
+    if (spans.lastActiveSpan.compareAndSet(spanToFinish, null))
     {
-      ISpan spanToFinish = pID.span;
-      ISpan lastActiveSpan = lastActiveSpanRef.get();
-      if (Objects.equals(lastActiveSpan, spanToFinish))
-      {
-        spanToFinish.setData(DATA_POSSIBLE_RESULT, Optional.ofNullable(pException));
+      spanToFinish.setData(DATA_POSSIBLE_RESULT, Optional.ofNullable(pException));
 
-        //noinspection UnstableApiUsage
-        spanToFinish.setData(DATA_POSSIBLE_RESULT_TIME, Sentry.getCurrentHub().getOptions().getDateProvider().now());
-      }
-      else
-        executeFinish(spanToFinish, pException, false);
+      //noinspection UnstableApiUsage
+      spanToFinish.setData(DATA_POSSIBLE_RESULT_TIME, Sentry.getCurrentHub().getOptions().getDateProvider().now());
+      spans.lastActiveSpan.set(spanToFinish);
+
+      // the transaction may have started to finish meanwhile, without seeing the span
+      if (finishing && spans.lastActiveSpan.compareAndSet(spanToFinish, null))
+        executeFinish(spanToFinish, null, true);
     }
+    else
+      executeFinish(spanToFinish, pException, false);
   }
 
   /**
@@ -119,9 +142,37 @@ class SentryTracedTransaction
    */
   public void finish(@Nullable Throwable pException)
   {
+    finishing = true;
+
+    // finish the spans of all threads, that were kept open for reuse.
+    // Spans that are still in use are only taken away, so that their threads finish them immediately.
+    for (_ThreadSpans spans : allThreadSpans)
+    {
+      ISpan lastActiveSpan = spans.lastActiveSpan.getAndSet(null);
+      if (lastActiveSpan != null && !lastActiveSpan.isFinished() && isScheduledForFinishing(lastActiveSpan))
+        executeFinish(lastActiveSpan, null, true);
+    }
+
     executeFinish(transaction, pException, false);
   }
 
+  /**
+   * @return the spans of the current thread within this transaction
+   */
+  @NotNull
+  private _ThreadSpans _getThreadSpans()
+  {
+    Map<SentryTracedTransaction, _ThreadSpans> spansByTransaction = _THREAD_SPANS.get();
+    _ThreadSpans spans = spansByTransaction.get(this);
+    if (spans == null)
+    {
+      spans = new _ThreadSpans();
+      spansByTransaction.put(this, spans);
+      allThreadSpans.add(spans);
+    }
+    return spans;
+  }
+
   /**
    * Determines, if the given span is scheduled to be finished.
    * This schedulation is possible due to keeping the last span open
@@ -208,6 +259,24 @@ class SentryTracedTransaction
     return pSpan;
   }
 
+  /**
+   * Spans of a single thread
+   */
+  private static class _ThreadSpans
+  {
+    /**
+     * Spans of the calls, that the thread currently executes - the innermost call first
+     */
+    private final Deque<ISpan> openSpans = new ArrayDeque<>();
+
+    /**
+     * Span that was started last by the thread, it may be kept open to be reused.
+     * Whoever takes the span out of the reference (the thread itself or the thread that finishes the transaction)
+     * is the only one, that may reuse or finish it.
+     */
+    private final AtomicReference<ISpan> lastActiveSpan = new AtomicReference<>();
+  }
+
   /**
    * Identifier for a opened span, so that {@link SentryTracedTransaction#startSpan(String, String)} can return an object
    * that {@link SentryTracedTransaction#scheduleSpanFinish(SpanID, Throwable)} understands.
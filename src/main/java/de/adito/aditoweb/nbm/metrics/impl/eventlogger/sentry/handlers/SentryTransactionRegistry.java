@@ -0,0 +1,222 @@
+package de.adito.aditoweb.nbm.metrics.impl.eventlogger.sentry.handlers;
+
+import lombok.NonNull;
+import org.jetbrains.annotations.Nullable;
+
+import javax.management.*;
+import java.lang.management.ManagementFactory;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.*;
+
+/**
+ * Keeps the currently open transactions of the {@link SentryTracedMetricHandler}, keyed by the name of the transaction
+ * and - if asynchronous calls should not be combined - by the thread that started it.
+ * Lookups do not allocate and do not lock: transactions of all threads are kept in a concurrent map,
+ * transactions of a single thread are additionally kept in a map of that thread, so they can be found without any key object.
+ * A transaction gets removed, if the call that started it finishes it - or if it got finished otherwise and somebody looks it up.
+ * The open transactions are exposed via JMX, see {@link SentryTransactionsMXBean}.
+ *
+ * @author agent, 17.10.2026
+ */
+final class SentryTransactionRegistry
+{
+
+  private static final Logger _LOGGER = Logger.getLogger(SentryTransactionRegistry.class.getName());
+
+  private final Map<String, SentryTracedTransaction> combinedTransactions = new ConcurrentHashMap<>();
+  private final Map<_ThreadKey, SentryTracedTransaction> threadTransactions = new ConcurrentHashMap<>();
+  private final ThreadLocal<Map<String, SentryTracedTransaction>> currentThreadTransactions = ThreadLocal.withInitial(HashMap::new);
+  private final LongAdder started = new LongAdder();
+  private final LongAdder evicted = new LongAdder();
+
+  /**
+   * Returns the open transaction with the given name
+   *
+   * @param pName      Name of the transaction
+   * @param pPerThread true, if the transaction belongs to the current thread only
+   * @return the transaction, or NULL if there is no open transaction
+   */
+  @Nullable
+  SentryTracedTransaction get(@NonNull String pName, boolean pPerThread)
+  {
+    SentryTracedTransaction transaction = pPerThread ? currentThreadTransactions.get().get(pName) : combinedTransactions.get(pName);
+    if (transaction != null && transaction.isFinished())
+    {
+      // finished without the call that started it, e.g. because it was idle for too long
+      remove(pName, pPerThread, transaction);
+      return null;
+    }
+    return transaction;
+  }
+
+  /**
+   * Starts a new transaction, that replaces the current transaction with the same name
+   *
+   * @param pName      Name of the transaction
+   * @param pPerThread true, if the transaction belongs to the current thread only
+   * @return the started transaction
+   */
+  @NonNull
+  SentryTracedTransaction start(@NonNull String pName, boolean pPerThread)
+  {
+    String name = pName.intern();
+    SentryTracedTransaction transaction = new SentryTracedTransaction(name);
+    SentryTracedTransaction previous;
+    if (pPerThread)
+    {
+      previous = currentThreadTransactions.get().put(name, transaction);
+      threadTransactions.put(new _ThreadKey(name, Thread.currentThread().getId()), transaction);
+    }
+    else
+      previous = combinedTransactions.put(name, transaction);
+
+    started.increment();
+    if (previous != null)
+      evicted.increment();
+    return transaction;
+  }
+
+  /**
+   * Removes the given transaction, because it got finished.
+   * Has to be called on the thread that started the transaction, if it belongs to that thread only.
+   *
+   * @param pName        Name of the transaction
+   * @param pPerThread   true, if the transaction belongs to the current thread only
+   * @param pTransaction Transaction to remove, nothing happens if it got replaced already
+   */
+  void remove(@NonNull String pName, boolean pPerThread, @NonNull SentryTracedTransaction pTransaction)
+  {
+    boolean removed;
+    if (pPerThread)
+    {
+      removed = currentThreadTransactions.get().remove(pName, pTransaction);
+      threadTransactions.remove(new _ThreadKey(pName, Thread.currentThread().getId()), pTransaction);
+    }
+    else
+      removed = combinedTransactions.remove(pName, pTransaction);
+
+    if (removed)
+      evicted.increment();
+  }
+
+  /**
+   * @return the count of open transactions, keyed by their name
+   */
+  @NonNull
+  Map<String, Integer> getLiveTransactions()
+  {
+    Map<String, Integer> result = new TreeMap<>();
+    combinedTransactions.forEach((pName, pTransaction) -> {
+      if (!pTransaction.isFinished())
+        result.merge(pName, 1, Integer::sum);
+    });
+
+    // transactions of threads, that died before they finished their transaction, get removed here
+    threadTransactions.entrySet().removeIf(pEntry -> pEntry.getValue().isFinished());
+    threadTransactions.forEach((pKey, pTransaction) -> result.merge(pKey.name, 1, Integer::sum));
+    return result;
+  }
+
+  /**
+   * @return the count of started transactions
+   */
+  long getStartedTransactions()
+  {
+    return started.sum();
+  }
+
+  /**
+   * @return the count of transactions, that got removed because they were finished or replaced
+   */
+  long getEvictedTransactions()
+  {
+    return evicted.sum();
+  }
+
+  /**
+   * Publishes the open transactions of the given registry via JMX
+   *
+   * @param pRegistry Registry to publish
+   */
+  static void registerMXBean(@NonNull SentryTransactionRegistry pRegistry)
+  {
+    try
+    {
+      MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+      ObjectName objectName = new ObjectName(SentryTransactionsMXBean.OBJECT_NAME);
+      if (server.isRegistered(objectName)) // module got reloaded
+        server.unregisterMBean(objectName);
+      server.registerMBean(new _MXBean(pRegistry), objectName);
+    }
+    catch (Exception e)
+    {
+      _LOGGER.log(Level.WARNING, "Failed to register the sentry transactions bean", e);
+    }
+  }
+
+  /**
+   * Key of a transaction, that belongs to a single thread
+   */
+  private static final class _ThreadKey
+  {
+    private final String name;
+    private final long threadId;
+
+    public _ThreadKey(@NonNull String pName, long pThreadId)
+    {
+      name = pName;
+      threadId = pThreadId;
+    }
+
+    @Override
+    public boolean equals(Object pOther)
+    {
+      if (this == pOther)
+        return true;
+      if (!(pOther instanceof _ThreadKey))
+        return false;
+      _ThreadKey other = (_ThreadKey) pOther;
+      return threadId == other.threadId && name.equals(other.name);
+    }
+
+    @Override
+    public int hashCode()
+    {
+      return 31 * name.hashCode() + Long.hashCode(threadId);
+    }
+  }
+
+  /**
+   * Exposes the open transactions
+   */
+  private static class _MXBean implements SentryTransactionsMXBean
+  {
+    private final SentryTransactionRegistry registry;
+
+    public _MXBean(@NonNull SentryTransactionRegistry pRegistry)
+    {
+      registry = pRegistry;
+    }
+
+    @Override
+    public Map<String, Integer> getLiveTransactions()
+    {
+      return registry.getLiveTransactions();
+    }
+
+    @Override
+    public long getStartedTransactions()
+    {
+      return registry.getStartedTransactions();
+    }
+
+    @Override
+    public long getEvictedTransactions()
+    {
+      return registry.getEvictedTransactions();
+    }
+  }
+
+}
@@ -0,0 +1,33 @@
+package de.adito.aditoweb.nbm.metrics.impl.eventlogger.sentry.handlers;
+
+import java.util.Map;
+
+/**
+ * Exposes the transactions, that are currently open by the traced metric handler
+ *
+ * @author agent, 17.10.2026
+ */
+public interface SentryTransactionsMXBean
+{
+
+  /**
+   * Name of the registered bean
+   */
+  String OBJECT_NAME = "de.adito.aditoweb.nbm.metrics:type=SentryTransactions";
+
+  /**
+   * @return the count of open transactions, keyed by their name
+   */
+  Map<String, Integer> getLiveTransactions();
+
+  /**
+   * @return the count of transactions, that were started since the module got loaded
+   */
+  long getStartedTransactions();
+
+  /**
+   * @return the count of transactions, that were removed because they were finished or replaced by a new one
+   */
+  long getEvictedTransactions();
+
+}
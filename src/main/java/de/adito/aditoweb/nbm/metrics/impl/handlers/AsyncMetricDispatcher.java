@@ -0,0 +1,322 @@
+package de.adito.aditoweb.nbm.metrics.impl.handlers;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import lombok.NonNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.lang.annotation.Annotation;
+import java.lang.management.*;
+import java.lang.reflect.Method;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.logging.*;
+
+/**
+ * Dispatches the calls of metrified methods to the {@link IAsyncMetricHandler}s.
+ * The calling threads publish records into a {@link MetricRecordRing}, a single background thread drains the ring in batches,
+ * pairs the enter and exit records of every call and passes them to the handlers.
+ * The ring and the background thread get created with the first async handler, that gets triggered by a method.
+ *
+ * @author agent, 17.10.2026
+ */
+final class AsyncMetricDispatcher
+{
+
+  /**
+   * System property to set the count of records, that can be pending
+   */
+  static final String CAPACITY_PROPERTY = "adito.analytics.async.capacity";
+
+  /**
+   * System property to set the {@link MetricRecordRing.DropPolicy}, if too many records are pending
+   */
+  static final String DROP_POLICY_PROPERTY = "adito.analytics.async.dropPolicy";
+
+  private static final long DRAIN_INTERVAL_MS = 10;
+  private static final int BATCH_SIZE = 1024;
+
+  /**
+   * Maximum count of open calls per thread. Open calls get lost, if the exit record of a call was dropped.
+   */
+  private static final int MAX_OPEN_CALLS = 256;
+
+  /**
+   * Interval, in which the open calls of threads that died get removed
+   */
+  private static final long DEAD_THREADS_INTERVAL_NS = TimeUnit.SECONDS.toNanos(10);
+
+  private static final Logger _LOGGER = Logger.getLogger(AsyncMetricDispatcher.class.getName());
+  private static final MetricRecordRing.DropPolicy _DROP_POLICY = parseDropPolicy(System.getProperty(DROP_POLICY_PROPERTY));
+  private static final List<_Target> _TARGETS = new CopyOnWriteArrayList<>();
+
+  /**
+   * Ids of the registered targets, keyed by handler and method - so that a method whose handlers get resolved again reuses its id
+   */
+  private static final Map<List<Object>, Integer> _TARGET_IDS = new HashMap<>();
+  private static volatile MetricRecordRing ring;
+  private static _Consumer consumer;
+
+  private AsyncMetricDispatcher()
+  {
+  }
+
+  /**
+   * Parses the value of {@link #DROP_POLICY_PROPERTY}, case insensitive
+   *
+   * @param pValue Value of the system property, may be null
+   * @return the parsed policy, or {@link MetricRecordRing.DropPolicy#DROP_NEWEST} if no valid policy was configured
+   */
+  @NonNull
+  static MetricRecordRing.DropPolicy parseDropPolicy(@Nullable String pValue)
+  {
+    if (pValue == null || pValue.isBlank())
+      return MetricRecordRing.DropPolicy.DROP_NEWEST;
+
+    try
+    {
+      return MetricRecordRing.DropPolicy.valueOf(pValue.trim().toUpperCase(Locale.ROOT));
+    }
+    catch (IllegalArgumentException e)
+    {
+      _LOGGER.log(Level.WARNING, () -> "Invalid drop policy '" + pValue + "' in system property " + DROP_POLICY_PROPERTY +
+          ", valid values are " + Arrays.toString(MetricRecordRing.DropPolicy.values()) + ". Falling back to " +
+          MetricRecordRing.DropPolicy.DROP_NEWEST);
+      return MetricRecordRing.DropPolicy.DROP_NEWEST;
+    }
+  }
+
+  /**
+   * Registers the given handler for the given method.
+   * If the handler was registered for the method already, its id gets reused and the annotation gets replaced.
+   *
+   * @param pHandler    Handler that handles the calls of the method
+   * @param pAnnotation Annotation that triggered the handler
+   * @param pMethod     Method whose calls get handled
+   * @return the id, that has to be passed to {@link #enter(int, int)} and {@link #exit(int, Throwable, Object, int)}
+   */
+  static synchronized int register(@NonNull IAsyncMetricHandler<?> pHandler, @NonNull Annotation pAnnotation, @NonNull Method pMethod)
+  {
+    if (ring == null)
+    {
+      ring = new MetricRecordRing(Integer.getInteger(CAPACITY_PROPERTY, 8192), _DROP_POLICY);
+      consumer = new _Consumer();
+      Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                                                     .setNameFormat("tAsyncMetricHandler-%d")
+                                                     .setDaemon(true)
+                                                     .build())
+          .scheduleWithFixedDelay(consumer::drain, DRAIN_INTERVAL_MS, DRAIN_INTERVAL_MS, TimeUnit.MILLISECONDS);
+    }
+
+    Integer id = _TARGET_IDS.get(List.of(pHandler, pMethod));
+    if (id != null)
+    {
+      _TARGETS.get(id).annotation = pAnnotation;
+      return id;
+    }
+
+    _TARGETS.add(new _Target(pHandler, pAnnotation, pMethod));
+    _TARGET_IDS.put(List.of(pHandler, pMethod), _TARGETS.size() - 1);
+    return _TARGETS.size() - 1;
+  }
+
+  /**
+   * Records, that the current thread entered a method.
+   * Nothing will be recorded, if the handler is not interested in the duration of the call.
+   *
+   * @param pTarget Id of the handler and method, see {@link #register(IAsyncMetricHandler, Annotation, Method)}
+   * @param pWeight Count of calls that this call represents
+   */
+  static void enter(int pTarget, int pWeight)
+  {
+    _Target target = _TARGETS.get(pTarget);
+    if (target.timed && !ring.offer(pTarget, false, System.nanoTime(), Thread.currentThread().getId(), null, null, pWeight))
+      target.dropped.increment();
+  }
+
+  /**
+   * Records, that the current thread finished a method
+   *
+   * @param pTarget    Id of the handler and method, see {@link #register(IAsyncMetricHandler, Annotation, Method)}
+   * @param pException Exception that the method throwed
+   * @param pDetail    Value that the handler captured on the calling thread
+   * @param pWeight    Count of calls that this call represents
+   */
+  static void exit(int pTarget, @Nullable Throwable pException, @Nullable Object pDetail, int pWeight)
+  {
+    if (!ring.offer(pTarget, true, System.nanoTime(), Thread.currentThread().getId(), pException, pDetail, pWeight))
+      _TARGETS.get(pTarget).dropped.increment();
+  }
+
+  /**
+   * @return the count of dropped records, keyed by the type of the handler
+   */
+  @NonNull
+  static Map<String, Long> getDroppedRecords()
+  {
+    Map<String, Long> result = new TreeMap<>();
+    for (_Target target : _TARGETS)
+      result.merge(target.handler.getClass().getName(), target.dropped.sum(), Long::sum);
+    return result;
+  }
+
+  /**
+   * @return the count of records, that were not handled yet
+   */
+  static long getPendingRecords()
+  {
+    MetricRecordRing currentRing = ring;
+    return currentRing == null ? 0 : currentRing.getPending();
+  }
+
+  /**
+   * Handler of a single method
+   */
+  private static class _Target
+  {
+    private final IAsyncMetricHandler<Annotation> handler;
+    private final Method method;
+    private volatile Annotation annotation;
+    private final boolean timed;
+    private final LongAdder dropped = new LongAdder();
+
+    public _Target(@NonNull IAsyncMetricHandler<?> pHandler, @NonNull Annotation pAnnotation, @NonNull Method pMethod)
+    {
+      //noinspection unchecked
+      handler = (IAsyncMetricHandler<Annotation>) pHandler;
+      annotation = pAnnotation;
+      method = pMethod;
+      timed = pHandler.isTimed();
+    }
+  }
+
+  /**
+   * Drains the ring on the background thread. Not thread safe, because there is only one background thread.
+   */
+  private static class _Consumer implements Consumer<MetricRecord>
+  {
+    /**
+     * Enter records of the calls, that were not finished yet - keyed by the thread id
+     */
+    private final Map<Long, Deque<long[]>> openCalls = new HashMap<>();
+    private final Set<IAsyncMetricHandler<?>> batchHandlers = Collections.newSetFromMap(new IdentityHashMap<>());
+    private final ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+    private long deadThreadsChecked = System.nanoTime();
+
+    /**
+     * Handles all published records, batch by batch
+     */
+    public void drain()
+    {
+      try
+      {
+        int count;
+        do
+        {
+          count = ring.drain(this, BATCH_SIZE);
+          _finishBatch();
+        }
+        while (count == BATCH_SIZE);
+      }
+      catch (Throwable t) // NOSONAR the background thread must not die
+      {
+        _LOGGER.log(Level.WARNING, "", t);
+      }
+    }
+
+    @Override
+    public void accept(@NonNull MetricRecord pRecord)
+    {
+      _Target target = _TARGETS.get(pRecord.target);
+      if (!pRecord.exit)
+      {
+        Deque<long[]> calls = openCalls.computeIfAbsent(pRecord.threadId, pKey -> new ArrayDeque<>());
+        if (calls.size() >= MAX_OPEN_CALLS)
+          calls.removeLast();
+        calls.push(new long[]{pRecord.target, pRecord.endNanos});
+        return;
+      }
+
+      if (target.timed)
+        pRecord.startNanos = _popStart(pRecord.threadId, pRecord.target);
+
+      try
+      {
+        target.handler.handleRecord(target.annotation, target.method, pRecord);
+      }
+      catch (Throwable t) // NOSONAR we do want to catch all exceptions, a single handler must not break the others
+      {
+        _LOGGER.log(Level.WARNING, "", t);
+      }
+      batchHandlers.add(target.handler);
+    }
+
+    /**
+     * Removes the innermost open call of the given target on the given thread.
+     * Open calls above it will be removed too, because their exit records were dropped.
+     *
+     * @return the start of the call, or -1 if the enter record was dropped
+     */
+    private long _popStart(long pThreadId, int pTarget)
+    {
+      Deque<long[]> calls = openCalls.get(pThreadId);
+      if (calls == null)
+        return -1;
+
+      int depth = 0;
+      for (long[] call : calls)
+      {
+        depth++;
+        if (call[0] == pTarget)
+        {
+          for (int i = 0; i < depth; i++)
+            calls.pop();
+          if (calls.isEmpty())
+            openCalls.remove(pThreadId);
+          return call[1];
+        }
+      }
+      return -1;
+    }
+
+    /**
+     * Notifies all handlers, that got records in the current batch
+     */
+    private void _finishBatch()
+    {
+      for (IAsyncMetricHandler<?> handler : batchHandlers)
+      {
+        try
+        {
+          handler.batchFinished();
+        }
+        catch (Throwable t) // NOSONAR we do want to catch all exceptions, a single handler must not break the others
+        {
+          _LOGGER.log(Level.WARNING, "", t);
+        }
+      }
+      batchHandlers.clear();
+
+      long now = System.nanoTime();
+      if (!openCalls.isEmpty() && now - deadThreadsChecked >= DEAD_THREADS_INTERVAL_NS)
+      {
+        deadThreadsChecked = now;
+        _removeDeadThreads();
+      }
+    }
+
+    /**
+     * Removes the open calls of all threads, that died - their exit records will never be published
+     */
+    private void _removeDeadThreads()
+    {
+      long[] threadIds = openCalls.keySet().stream().mapToLong(Long::longValue).toArray();
+      ThreadInfo[] infos = threadBean.getThreadInfo(threadIds);
+      for (int i = 0; i < threadIds.length; i++)
+        if (infos[i] == null) // thread is not alive anymore
+          openCalls.remove(threadIds[i]);
+    }
+  }
+
+}
@@ -0,0 +1,156 @@
+package de.adito.aditoweb.nbm.metrics.impl.handlers;
+
+import lombok.NonNull;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free histogram of non-negative long values, that can be recorded concurrently from any thread without allocating anything.
+ * The values are counted in log-linear buckets, similar to a HdrHistogram:
+ * values below {@link #SUB_BUCKET_COUNT} are counted exactly, all others with a relative error of at most 1 / {@link #SUB_BUCKET_COUNT}.
+ * <p>
+ * The writers are striped by their thread, so that concurrent writers rarely share a counter.
+ * The counters are never reset, instead a single reader takes the difference to its previous {@link #snapshot(long[])} -
+ * so recording never has to synchronize with reading.
+ *
+ * @author agent, 17.10.2026
+ */
+public final class ConcurrentHistogram
+{
+
+  /**
+   * Count of sub buckets per power of two, has to be a power of two itself
+   */
+  static final int SUB_BUCKET_BITS = 5;
+  static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+
+  /**
+   * Count of buckets, that are needed to cover all positive long values
+   */
+  static final int BUCKET_COUNT = (63 - SUB_BUCKET_BITS + 1) * SUB_BUCKET_COUNT;
+
+  /**
+   * Slot of each stripe, that contains the sum of all recorded values
+   */
+  private static final int SUM_SLOT = BUCKET_COUNT;
+  private static final int MAX_STRIPES = 4;
+
+  private final AtomicLongArray[] stripes;
+  private final int stripeMask;
+
+  public ConcurrentHistogram()
+  {
+    this(Runtime.getRuntime().availableProcessors());
+  }
+
+  /**
+   * @param pConcurrency Expected count of concurrent writers
+   */
+  ConcurrentHistogram(int pConcurrency)
+  {
+    int stripeCount = Integer.highestOneBit(Math.max(1, Math.min(MAX_STRIPES, pConcurrency)) * 2 - 1);
+    stripes = new AtomicLongArray[stripeCount];
+    for (int i = 0; i < stripeCount; i++)
+      stripes[i] = new AtomicLongArray(BUCKET_COUNT + 1);
+    stripeMask = stripeCount - 1;
+  }
+
+  /**
+   * Records a value
+   *
+   * @param pValue Value to record, negative values are recorded as zero
+   * @param pCount Count of occurrences of the value, e.g. the weight of a sampled call
+   */
+  public void record(long pValue, int pCount)
+  {
+    long value = Math.max(0, pValue);
+    AtomicLongArray stripe = stripes[(int) Thread.currentThread().getId() & stripeMask];
+    stripe.getAndAdd(bucketIndex(value), pCount);
+    stripe.getAndAdd(SUM_SLOT, value * pCount);
+  }
+
+  /**
+   * Creates a snapshot of all values, that were recorded since the previous snapshot.
+   * Must not be called concurrently with the same state.
+   *
+   * @param pState Counts of the previous snapshot, will be updated to the current counts.
+   *               Has to be created by {@link #newSnapshotState()} and must only be used for this histogram.
+   * @return the snapshot
+   */
+  @NonNull
+  public HistogramSnapshot snapshot(long @NonNull [] pState)
+  {
+    long[] counts = new long[BUCKET_COUNT];
+    long sum = 0;
+    for (AtomicLongArray stripe : stripes)
+    {
+      for (int i = 0; i < BUCKET_COUNT; i++)
+        counts[i] += stripe.get(i);
+      sum += stripe.get(SUM_SLOT);
+    }
+
+    // take the difference to the previous snapshot
+    for (int i = 0; i < BUCKET_COUNT; i++)
+    {
+      long current = counts[i];
+      counts[i] = current - pState[i];
+      pState[i] = current;
+    }
+    long previousSum = pState[SUM_SLOT];
+    pState[SUM_SLOT] = sum;
+    return new HistogramSnapshot(counts, sum - previousSum);
+  }
+
+  /**
+   * @return a new state to pass to {@link #snapshot(long[])}, so that the first snapshot contains all values recorded so far
+   */
+  public long @NonNull [] newSnapshotState()
+  {
+    return new long[BUCKET_COUNT + 1];
+  }
+
+  /**
+   * Returns the index of the bucket, that counts the given value
+   *
+   * @param pValue Non-negative value
+   * @return the index
+   */
+  static int bucketIndex(long pValue)
+  {
+    if (pValue < SUB_BUCKET_COUNT)
+      return (int) pValue;
+
+    int exponent = 63 - Long.numberOfLeadingZeros(pValue);
+    int shift = exponent - SUB_BUCKET_BITS;
+    int subBucket = (int) (pValue >>> shift); // between SUB_BUCKET_COUNT and 2 * SUB_BUCKET_COUNT
+    return (shift + 1) * SUB_BUCKET_COUNT + subBucket - SUB_BUCKET_COUNT;
+  }
+
+  /**
+   * Returns the lowest value, that gets counted in the given bucket
+   *
+   * @param pIndex Index of the bucket
+   * @return the value
+   */
+  static long lowestValue(int pIndex)
+  {
+    if (pIndex < SUB_BUCKET_COUNT)
+      return pIndex;
+
+    int shift = pIndex / SUB_BUCKET_COUNT - 1;
+    long subBucket = SUB_BUCKET_COUNT + (pIndex & (SUB_BUCKET_COUNT - 1));
+    return subBucket << shift;
+  }
+
+  /**
+   * Returns the highest value, that gets counted in the given bucket
+   *
+   * @param pIndex Index of the bucket
+   * @return the value
+   */
+  static long highestValue(int pIndex)
+  {
+    return pIndex + 1 >= BUCKET_COUNT ? Long.MAX_VALUE : lowestValue(pIndex + 1) - 1;
+  }
+
+}
@@ -0,0 +1,26 @@
+package de.adito.aditoweb.nbm.metrics.impl.handlers;
+
+import de.adito.aditoweb.nbm.metrics.api.types.Counted;
+import lombok.NonNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.lang.reflect.Method;
+
+/**
+ * Counts the calls and failed calls of methods annotated with {@link Counted}, see {@link MethodStatisticsRegistry}.
+ * Counting only increments striped counters, so it is cheap enough for hot paths.
+ *
+ * @author agent, 17.10.2026
+ */
+@MetricHandler(metric = Counted.class, capabilities = MetricCapability.EXCEPTION, sampled = true)
+class CounterMetricHandler implements IMetricHandler<Counted>
+{
+
+  @Override
+  public void afterMethod(@NonNull Counted pAnnotation, @Nullable Object pObject, @NonNull Method pMethod, Object @NonNull [] pArgs,
+                          @Nullable Object pResult, @Nullable Throwable pException, @Nullable Object pHint, int pWeight)
+  {
+    MethodStatisticsRegistry.get(pMethod).count(pException != null, pWeight);
+  }
+
+}
@@ -0,0 +1,124 @@
+package de.adito.aditoweb.nbm.metrics.impl.handlers;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import de.adito.aditoweb.nbm.metrics.api.types.Histogram;
+import de.adito.aditoweb.nbm.metrics.impl.eventlogger.IEventLogger;
+import lombok.NonNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.lang.reflect.Method;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.logging.*;
+
+/**
+ * Records the values of methods annotated with {@link Histogram} into a {@link ConcurrentHistogram} per histogram name.
+ * The recorded value is the return value of the method, or its first numeric argument if it does not return a number.
+ * Values are rounded to whole numbers.
+ * <p>
+ * All values of a time window get flushed as a single {@link HistogramSnapshot} to the {@link IEventLogger},
+ * windows without any value are skipped. Recording is lock-free and does not allocate, so it can be done on the EDT.
+ *
+ * @author agent, 17.10.2026
+ */
+@MetricHandler(metric = Histogram.class, capabilities = {MetricCapability.ARGUMENTS, MetricCapability.RETURN_VALUE}, sampled = true)
+class HistogramMetricHandler implements IMetricHandler<Histogram>
+{
+
+  /**
+   * System property to set the length of a time window in seconds
+   */
+  static final String WINDOW_PROPERTY = "adito.analytics.histogram.windowSeconds";
+
+  private static final Logger _LOGGER = Logger.getLogger(HistogramMetricHandler.class.getName());
+  private static final Map<String, _Window> _HISTOGRAMS = new ConcurrentHashMap<>();
+
+  static
+  {
+    long window = Long.getLong(WINDOW_PROPERTY, 600);
+    Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                                                   .setNameFormat("tHistogramMetricHandler-%d")
+                                                   .setDaemon(true)
+                                                   .build())
+        .scheduleAtFixedRate(HistogramMetricHandler::flush, window, window, TimeUnit.SECONDS);
+  }
+
+  @Override
+  public void afterMethod(@NonNull Histogram pAnnotation, @Nullable Object pObject, @NonNull Method pMethod, Object @NonNull [] pArgs,
+                          @Nullable Object pResult, @Nullable Throwable pException, @Nullable Object pHint, int pWeight)
+  {
+    Number value = _getValue(pArgs, pResult);
+    if (value != null)
+      getHistogram(pAnnotation.name()).record(Math.round(value.doubleValue()), pWeight);
+  }
+
+  /**
+   * Returns the histogram with the given name
+   *
+   * @param pName Name of the histogram
+   * @return the histogram, that gets created if it did not exist yet
+   */
+  @NonNull
+  static ConcurrentHistogram getHistogram(@NonNull String pName)
+  {
+    _Window window = _HISTOGRAMS.get(pName);
+    if (window == null)
+      window = _HISTOGRAMS.computeIfAbsent(pName, _Window::new);
+    return window.histogram;
+  }
+
+  /**
+   * Passes the values of the current window of all histograms to the {@link IEventLogger} and starts a new window
+   */
+  static synchronized void flush()
+  {
+    try
+    {
+      for (_Window window : _HISTOGRAMS.values())
+      {
+        HistogramSnapshot snapshot = window.histogram.snapshot(window.state);
+        if (snapshot.getCount() > 0)
+          IEventLogger.getInstance().captureHistogram(window.name, snapshot);
+      }
+    }
+    catch (Exception e)
+    {
+      // must not be thrown, otherwise the windows would not be flushed anymore
+      _LOGGER.log(Level.WARNING, "Failed to flush the histogram metrics", e);
+    }
+  }
+
+  /**
+   * Returns the value to record
+   *
+   * @param pArgs   Arguments of the method
+   * @param pResult Return value of the method
+   * @return the value or NULL, if the call does not provide any number
+   */
+  @Nullable
+  private static Number _getValue(Object @NonNull [] pArgs, @Nullable Object pResult)
+  {
+    if (pResult instanceof Number)
+      return (Number) pResult;
+    for (Object arg : pArgs)
+      if (arg instanceof Number)
+        return (Number) arg;
+    return null;
+  }
+
+  /**
+   * A histogram and the state of its current window
+   */
+  private static class _Window
+  {
+    private final String name;
+    private final ConcurrentHistogram histogram = new ConcurrentHistogram();
+    private final long[] state = histogram.newSnapshotState();
+
+    public _Window(@NonNull String pName)
+    {
+      name = pName;
+    }
+  }
+
+}
@@ -0,0 +1,113 @@
+package de.adito.aditoweb.nbm.metrics.impl.handlers;
+
+import lombok.NonNull;
+
+/**
+ * Immutable snapshot of the values, that were recorded by a {@link ConcurrentHistogram} within a time window
+ *
+ * @author agent, 17.10.2026
+ */
+public final class HistogramSnapshot
+{
+
+  private final long[] counts;
+  private final long count;
+  private final long sum;
+  private final int lowestIndex;
+  private final int highestIndex;
+
+  /**
+   * @param pCounts Counts per bucket of the histogram
+   * @param pSum    Sum of all values
+   */
+  HistogramSnapshot(long @NonNull [] pCounts, long pSum)
+  {
+    counts = pCounts;
+    sum = pSum;
+
+    long totalCount = 0;
+    int lowest = -1;
+    int highest = -1;
+    for (int i = 0; i < pCounts.length; i++)
+      if (pCounts[i] > 0)
+      {
+        totalCount += pCounts[i];
+        if (lowest < 0)
+          lowest = i;
+        highest = i;
+      }
+    count = totalCount;
+    lowestIndex = lowest;
+    highestIndex = highest;
+  }
+
+  /**
+   * @return the count of recorded values
+   */
+  public long getCount()
+  {
+    return count;
+  }
+
+  /**
+   * @return the sum of all recorded values
+   */
+  public long getSum()
+  {
+    return sum;
+  }
+
+  /**
+   * @return the average of all recorded values, 0 if no value was recorded
+   */
+  public double getMean()
+  {
+    return count == 0 ? 0 : (double) sum / count;
+  }
+
+  /**
+   * @return the lowest recorded value within the precision of the histogram, 0 if no value was recorded
+   */
+  public long getMin()
+  {
+    return lowestIndex < 0 ? 0 : ConcurrentHistogram.lowestValue(lowestIndex);
+  }
+
+  /**
+   * @return the highest recorded value within the precision of the histogram, 0 if no value was recorded
+   */
+  public long getMax()
+  {
+    return highestIndex < 0 ? 0 : ConcurrentHistogram.highestValue(highestIndex);
+  }
+
+  /**
+   * Returns the value, that the given percentage of all recorded values are less than or equal to
+   *
+   * @param pPercentile Percentile between 0 and 100
+   * @return the value within the precision of the histogram, 0 if no value was recorded
+   */
+  public long getValueAtPercentile(double pPercentile)
+  {
+    if (count == 0)
+      return 0;
+
+    long threshold = Math.max(1, (long) Math.ceil(Math.min(100, Math.max(0, pPercentile)) / 100 * count));
+    long seen = 0;
+    for (int i = lowestIndex; i <= highestIndex; i++)
+    {
+      seen += counts[i];
+      if (seen >= threshold)
+        return ConcurrentHistogram.highestValue(i);
+    }
+    return getMax();
+  }
+
+  @Override
+  public String toString()
+  {
+    return "count=" + count + ", mean=" + getMean() + ", min=" + getMin() + ", p50=" + getValueAtPercentile(50) +
+        ", p90=" + getValueAtPercentile(90) + ", p99=" + getValueAtPercentile(99) + ", max=" + getMax();
+  }
+
+}
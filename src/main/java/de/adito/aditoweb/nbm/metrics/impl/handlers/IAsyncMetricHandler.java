@@ -0,0 +1,60 @@
+package de.adito.aditoweb.nbm.metrics.impl.handlers;
+
+import lombok.NonNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Method;
+
+/**
+ * Handles a method that is annotated with a metric annotation, outside of the thread that called the method.
+ * The calling thread only publishes a compact {@link MetricRecord} of the call, the records get handled
+ * in batches by a single background thread. Records may be dropped, if the handlers can not keep up with the calls.
+ * The synchronous methods of {@link IMetricHandler} will not be called for async handlers.
+ *
+ * @author agent, 17.10.2026
+ */
+public interface IAsyncMetricHandler<T extends Annotation> extends IMetricHandler<T>
+{
+
+  /**
+   * @return true, if the start of a call has to be recorded too, so that {@link MetricRecord#getStartNanos()} is available.
+   * Handlers that do not need the duration should return false, so that only a single record per call gets published.
+   */
+  default boolean isTimed()
+  {
+    return true;
+  }
+
+  /**
+   * Gets called on the calling thread after the original method, to capture values of the call that are needed
+   * by {@link #handleRecord(Annotation, Method, MetricRecord)}. Has to be cheap and should not allocate anything.
+   *
+   * @param pAnnotation Annotation that caused the metricHandler got triggered
+   * @param pArgs       Arguments of the method
+   * @param pResult     Return value of the method
+   * @return the value to pass with the record, see {@link MetricRecord#getDetail()}
+   */
+  @Nullable
+  default Object captureDetail(@NonNull T pAnnotation, Object @NonNull [] pArgs, @Nullable Object pResult) throws Exception
+  {
+    return null;
+  }
+
+  /**
+   * Gets called on the background thread for every finished call
+   *
+   * @param pAnnotation Annotation that caused the metricHandler got triggered
+   * @param pMethod     Method that got called
+   * @param pRecord     Record of the call. It gets reused afterwards, so it must not be kept.
+   */
+  void handleRecord(@NonNull T pAnnotation, @NonNull Method pMethod, @NonNull MetricRecord pRecord) throws Exception;
+
+  /**
+   * Gets called on the background thread, after a batch of records was handled, if this handler got at least one of them
+   */
+  default void batchFinished() throws Exception
+  {
+  }
+
+}
@@ -3,13 +3,13 @@ package de.adito.aditoweb.nbm.metrics.impl.handlers;
 import de.adito.picoservice.IPicoRegistry;
 import lombok.NonNull;
 import org.jetbrains.annotations.Nullable;
-import org.openide.util.Pair;
 
 import java.lang.annotation.Annotation;
 import java.lang.reflect.*;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.logging.*;
-import java.util.stream.Collectors;
 
 /**
  * Handles a method that is annotated with a metric annotation
@@ -26,11 +26,14 @@ public interface IMetricHandler<T extends Annotation>
    * @param pObject     Target object of the method call. NULL, if a static method was called.
    * @param pMethod     Method that got called
    * @param pArgs       Arguments of the method
-   * @param pHints      Hints to be passed to the {@link IMetricHandler#afterMethod(Annotation, Object, Method, Object[], Object, Throwable, Map)} method
+   * @return Hint to be passed to the {@link IMetricHandler#afterMethod(Annotation, Object, Method, Object[], Object, Throwable, Object)} method,
+   * or NULL if nothing has to be passed. Every handler has its own hint slot, so it does not have to care about other handlers.
    */
-  default void beforeMethod(@NonNull T pAnnotation, @Nullable Object pObject, @NonNull Method pMethod, Object @NonNull [] pArgs, @NonNull Map<String, Object> pHints)
+  @Nullable
+  default Object beforeMethod(@NonNull T pAnnotation, @Nullable Object pObject, @NonNull Method pMethod, Object @NonNull [] pArgs)
       throws Exception
   {
+    return null;
   }
 
   /**
@@ -42,113 +45,498 @@ public interface IMetricHandler<T extends Annotation>
    * @param pArgs       Arguments of the method
    * @param pResult     Return value of the method
    * @param pException  Exception if the method throwed one
-   * @param pHints      Hints to get passed from the {@link IMetricHandler#beforeMethod(Annotation, Object, Method, Object[], Map)} method
+   * @param pHint       Hint that was returned by the {@link IMetricHandler#beforeMethod(Annotation, Object, Method, Object[])} method of this handler
    */
   default void afterMethod(@NonNull T pAnnotation, @Nullable Object pObject, @NonNull Method pMethod, Object @NonNull [] pArgs,
-                           @Nullable Object pResult, @Nullable Throwable pException, @NonNull Map<String, Object> pHints) throws Exception
+                           @Nullable Object pResult, @Nullable Throwable pException, @Nullable Object pHint) throws Exception
   {
   }
 
+  /**
+   * Gets called before the original method. Handlers, that declare {@link MetricHandler#sampled()}, get only the calls
+   * that were chosen by the sampler of the method - they should override this method and use the weight.
+   *
+   * @param pAnnotation Annotation that caused the metricHandler got triggered
+   * @param pObject     Target object of the method call. NULL, if a static method was called.
+   * @param pMethod     Method that got called
+   * @param pArgs       Arguments of the method
+   * @param pWeight     Count of calls that this call represents, always 1 for handlers that are not sampled
+   * @return Hint to be passed to the afterMethod method
+   * @see #beforeMethod(Annotation, Object, Method, Object[])
+   */
+  @Nullable
+  default Object beforeMethod(@NonNull T pAnnotation, @Nullable Object pObject, @NonNull Method pMethod, Object @NonNull [] pArgs, int pWeight)
+      throws Exception
+  {
+    return beforeMethod(pAnnotation, pObject, pMethod, pArgs);
+  }
+
+  /**
+   * Gets called after the original method. Handlers, that declare {@link MetricHandler#sampled()}, get only the calls
+   * that were chosen by the sampler of the method - they should override this method and use the weight.
+   *
+   * @param pAnnotation Annotation that caused the metricHandler got triggered
+   * @param pObject     Target object of the method call. NULL, if a static method was called.
+   * @param pMethod     Method that got called
+   * @param pArgs       Arguments of the method
+   * @param pResult     Return value of the method
+   * @param pException  Exception if the method throwed one
+   * @param pHint       Hint that was returned by the beforeMethod method of this handler
+   * @param pWeight     Count of calls that this call represents, always 1 for handlers that are not sampled
+   * @see #afterMethod(Annotation, Object, Method, Object[], Object, Throwable, Object)
+   */
+  default void afterMethod(@NonNull T pAnnotation, @Nullable Object pObject, @NonNull Method pMethod, Object @NonNull [] pArgs,
+                           @Nullable Object pResult, @Nullable Throwable pException, @Nullable Object pHint, int pWeight) throws Exception
+  {
+    afterMethod(pAnnotation, pObject, pMethod, pArgs, pResult, pException, pHint);
+  }
+
   /**
    * This class gives access to all currently registered metric handlers
-   * and provides utility methods to be more efficient
+   * and provides utility methods to be more efficient.
+   * The handlers of a method get resolved once into a {@link MetricHandlerChain}, that can be dispatched without any lookups.
+   * Each handler of a chain owns a fixed hint slot (its index inside the chain), so the hints can be carried
+   * without any allocation if no handler stores something.
+   * No handler will be triggered, while the {@link MetricGate} is closed.
+   * Calls of frequently called methods will be sampled by the {@link MethodSampler} of the chain, but only for the handlers that
+   * declare {@link MetricHandler#sampled()} - all other handlers get every call. The time of the handlers gets accounted by the
+   * {@link MethodOverhead} of the chain. If the handlers of a chain are too expensive, the chain gets demoted and all of its handlers get sampled.
+   * Handlers that implement {@link IAsyncMetricHandler} only get a record of the call published, see {@link AsyncMetricDispatcher}.
    */
   class Accessor
   {
+    /**
+     * Arguments to pass, if a method without arguments gets called
+     */
+    public static final Object[] NO_ARGUMENTS = new Object[0];
+
+    /**
+     * Hints, that mark a call that was skipped by the sampler and where no handler stored a hint.
+     * Only the handlers, that are not sampled, will be triggered after the call.
+     */
+    private static final Object _NOT_SAMPLED = new Object();
+
+    /**
+     * Hints, that mark a call that was skipped by the sampler for all handlers of the chain.
+     * No handler will be triggered after the call.
+     */
+    private static final Object _SKIPPED = new Object();
+
     private static final Logger _LOGGER = Logger.getLogger(Accessor.class.getName());
-    private static final Map<Class<? extends Annotation>, Set<IMetricHandler<?>>> _METRIC_HANDLERS =
-        IPicoRegistry.INSTANCE.find(IMetricHandler.class, MetricHandler.class)
-            .entrySet()
-            .stream()
-            .map(pEntry -> {
-              try
-              {
-                //noinspection unchecked
-                Constructor<? extends IMetricHandler<?>> constr = (Constructor<? extends IMetricHandler<?>>) pEntry.getKey().getDeclaredConstructor();
-                constr.setAccessible(true);
-                return Map.entry(pEntry.getValue().metric(), Set.<IMetricHandler<?>>of(constr.newInstance()));
-              }
-              catch (Exception e)
-              {
-                return null;
-              }
-            })
-            .filter(Objects::nonNull)
-            .collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue));
+    private static final Map<Class<? extends Annotation>, IMetricHandler<?>[]> _METRIC_HANDLERS = _loadHandlers();
+
+    private static final Map<String, Set<MetricCapability>> _CAPABILITIES = _loadCapabilities();
+
+    static
+    {
+      MetricGate.setHandlersAvailable(!_METRIC_HANDLERS.isEmpty());
+      MethodOverhead.registerMXBean();
+    }
 
     /**
-     * This method should be called before a metrified method will be called
+     * Caches the resolved handler chains of all methods, grouped by its declaring class
+     */
+    private static final ClassValue<Map<Method, MetricHandlerChain>> _CHAINS = new ClassValue<>()
+    {
+      @Override
+      protected Map<Method, MetricHandlerChain> computeValue(Class<?> pType)
+      {
+        return new ConcurrentHashMap<>();
+      }
+    };
+
+    /**
+     * Returns the chain of handlers, that have to be triggered if the given method gets called.
+     * The chain gets resolved only once per method, by its annotations.
      *
-     * @param pProxy            Object whose method gets called afterwards. NULL, if a static method was called.
-     * @param pMethod           Method that will be called
+     * @param pMethod Method to get the chain for
+     * @return the chain, never null
+     */
+    @NonNull
+    public MetricHandlerChain getChain(@NonNull Method pMethod)
+    {
+      Map<Method, MetricHandlerChain> chains = _CHAINS.get(pMethod.getDeclaringClass());
+      MetricHandlerChain chain = chains.get(pMethod);
+      if (chain == null)
+        chain = chains.computeIfAbsent(pMethod, pKey -> createChain(pKey, pKey));
+      return chain;
+    }
+
+    /**
+     * Resolves the chain of handlers, that have to be triggered for the annotations of the given element.
+     * The result is not cached, so the caller should keep it.
+     *
+     * @param pMethod           Method that the chain belongs to
      * @param pAnnotatedElement Element that has the metric annotations on it
-     * @param pArgs             Arguments of the method call
-     * @param pHints            Hints to pass to the handlers
+     * @return the chain, never null
+     */
+    @NonNull
+    public MetricHandlerChain createChain(@NonNull Method pMethod, @NonNull AnnotatedElement pAnnotatedElement)
+    {
+      List<Annotation> annotations = new ArrayList<>();
+      List<IMetricHandler<?>> handlers = new ArrayList<>();
+      for (Annotation annotation : pAnnotatedElement.getAnnotations())
+      {
+        IMetricHandler<?>[] annotationHandlers = _METRIC_HANDLERS.get(annotation.annotationType());
+        if (annotationHandlers != null)
+          for (IMetricHandler<?> handler : annotationHandlers)
+          {
+            annotations.add(annotation);
+            handlers.add(handler);
+          }
+      }
+
+      if (handlers.isEmpty())
+        return MetricHandlerChain.EMPTY;
+
+      MethodSampler sampler = new MethodSampler();
+      int[] asyncTargets = new int[handlers.size()];
+      boolean[] sampled = new boolean[handlers.size()];
+      for (int i = 0; i < asyncTargets.length; i++)
+      {
+        asyncTargets[i] = handlers.get(i) instanceof IAsyncMetricHandler ?
+            AsyncMetricDispatcher.register((IAsyncMetricHandler<?>) handlers.get(i), annotations.get(i), pMethod) : -1;
+        MetricHandler declaration = handlers.get(i).getClass().getAnnotation(MetricHandler.class);
+        sampled[i] = declaration != null && declaration.sampled();
+      }
+
+      return new MetricHandlerChain(annotations.toArray(new Annotation[0]), handlers.toArray(new IMetricHandler<?>[0]), asyncTargets, sampled,
+                                    handlers.stream().map(pHandler -> MethodOverhead.forHandler(pHandler.getClass())).toArray(LongAdder[]::new),
+                                    sampler, MethodOverhead.register(pMethod));
+    }
+
+    /**
+     * Releases a chain, that was created by {@link #createChain(Method, AnnotatedElement)} and will not be used anymore.
+     * Its accounting will not be published anymore, unless another chain of the same method replaced it already.
+     *
+     * @param pMethod Method that the chain belongs to
+     * @param pChain  Chain to release
      */
-    public void beforeMethodCall(@Nullable Object pProxy, @NonNull Method pMethod, @NonNull AnnotatedElement pAnnotatedElement,
-                                 Object @NonNull [] pArgs, @NonNull Map<String, Object> pHints)
+    public void releaseChain(@NonNull Method pMethod, @NonNull MetricHandlerChain pChain)
     {
-      //noinspection unchecked,rawtypes
-      _onEachHandlerNoThrow(pAnnotatedElement, pInvocation -> ((IMetricHandler) pInvocation.second()).beforeMethod(pInvocation.first(), pProxy, pMethod, pArgs, pHints));
+      if (!pChain.isEmpty())
+        MethodOverhead.unregister(pMethod, pChain.overhead);
+    }
+
+    /**
+     * Returns the values of a method call, that the handlers of the given metric annotation need
+     *
+     * @param pMetricName Name of the metric annotation type
+     * @return the capabilities of all handlers of the annotation combined, empty if the annotation does not have any handler
+     */
+    @NonNull
+    public static Set<MetricCapability> getCapabilities(@NonNull String pMetricName)
+    {
+      return _CAPABILITIES.getOrDefault(pMetricName, Set.of());
+    }
+
+    /**
+     * @return all registered handlers, keyed by the annotation they handle
+     */
+    @NonNull
+    static Map<Class<? extends Annotation>, IMetricHandler<?>[]> getHandlers()
+    {
+      return _METRIC_HANDLERS;
+    }
+
+    /**
+     * Instantiates all registered and enabled handlers and groups them by the annotation they handle.
+     * The handlers of each annotation are sorted by their {@link MetricHandler#priority()}, so they can be dispatched in a fixed order.
+     *
+     * @return the handlers, keyed by the annotation they handle
+     */
+    @NonNull
+    private static Map<Class<? extends Annotation>, IMetricHandler<?>[]> _loadHandlers()
+    {
+      Map<Class<? extends Annotation>, List<Map.Entry<MetricHandler, IMetricHandler<?>>>> handlers = new HashMap<>();
+      //noinspection rawtypes
+      Map<Class<? extends IMetricHandler>, MetricHandler> registered = IPicoRegistry.INSTANCE.find(IMetricHandler.class, MetricHandler.class);
+      //noinspection rawtypes
+      for (Map.Entry<Class<? extends IMetricHandler>, MetricHandler> entry : registered.entrySet())
+      {
+        // disabled handlers are not part of any chain, so they do not cost anything
+        if (!MetricGate.isHandlerEnabled(entry.getKey()))
+        {
+          _LOGGER.log(Level.INFO, () -> "Metric handler " + entry.getKey().getName() + " is disabled");
+          continue;
+        }
+
+        try
+        {
+          //noinspection unchecked
+          Constructor<? extends IMetricHandler<?>> constr = (Constructor<? extends IMetricHandler<?>>) entry.getKey().getDeclaredConstructor();
+          constr.setAccessible(true);
+          handlers.computeIfAbsent(entry.getValue().metric(), pKey -> new ArrayList<>())
+              .add(Map.entry(entry.getValue(), constr.newInstance()));
+        }
+        catch (Exception e)
+        {
+          _LOGGER.log(Level.WARNING, "Failed to instantiate metric handler " + entry.getKey().getName(), e);
+        }
+      }
+
+      Map<Class<? extends Annotation>, IMetricHandler<?>[]> result = new HashMap<>();
+      handlers.forEach((pMetric, pHandlers) -> result.put(pMetric, pHandlers.stream()
+          .sorted(Comparator.<Map.Entry<MetricHandler, IMetricHandler<?>>>comparingInt(pEntry -> -pEntry.getKey().priority())
+                      .thenComparing(pEntry -> pEntry.getValue().getClass().getName()))
+          .map(Map.Entry::getValue)
+          .toArray(IMetricHandler<?>[]::new)));
+      return Map.copyOf(result);
+    }
+
+    /**
+     * Combines the declared capabilities of all registered handlers per annotation
+     *
+     * @return the capabilities, keyed by the name of the annotation
+     */
+    @NonNull
+    private static Map<String, Set<MetricCapability>> _loadCapabilities()
+    {
+      Map<String, Set<MetricCapability>> result = new HashMap<>();
+      _METRIC_HANDLERS.forEach((pMetric, pHandlers) -> {
+        Set<MetricCapability> capabilities = EnumSet.noneOf(MetricCapability.class);
+        for (IMetricHandler<?> handler : pHandlers)
+        {
+          MetricHandler declaration = handler.getClass().getAnnotation(MetricHandler.class);
+          capabilities.addAll(declaration == null ? EnumSet.allOf(MetricCapability.class) : Arrays.asList(declaration.capabilities()));
+        }
+        result.put(pMetric.getName(), Collections.unmodifiableSet(capabilities));
+      });
+      return Map.copyOf(result);
+    }
+
+    /**
+     * This method should be called before a metrified method will be called
+     *
+     * @param pProxy  Object whose method gets called afterwards. NULL, if a static method was called.
+     * @param pMethod Method that will be called
+     * @param pChain  Chain of handlers to trigger, see {@link #getChain(Method)}
+     * @param pArgs   Arguments of the method call
+     * @return the hints that have to be passed to {@link #afterMethodCall(Object, Method, MetricHandlerChain, Object[], Object, Object, Throwable)}.
+     * NULL, if no handler stored a hint. If the chain contains more than one handler, the hints will be stored in an array - one slot per handler.
+     * If the sampled handlers of the chain got a weight other than 1, the hints get wrapped together with the weight,
+     * so that the handlers get the same weight after the call.
+     */
+    @Nullable
+    public Object beforeMethodCall(@Nullable Object pProxy, @NonNull Method pMethod, @NonNull MetricHandlerChain pChain, Object @NonNull [] pArgs)
+    {
+      if (!MetricGate.isOpen() || pChain.isEmpty())
+        return null;
+
+      // 0 means, that the sampled handlers skip this call - a demoted chain samples all of its handlers
+      int weight = 1;
+      boolean demoted = pChain.demoted;
+      if (pChain.anySampled || demoted)
+      {
+        weight = pChain.sampler.sample();
+        if (weight == 0 && (pChain.allSampled || demoted))
+          return _SKIPPED;
+      }
+
+      Annotation[] annotations = pChain.annotations;
+      IMetricHandler<?>[] handlers = pChain.handlers;
+      int[] asyncTargets = pChain.asyncTargets;
+      boolean[] sampled = pChain.sampled;
+      long start = System.nanoTime();
+
+      // single handler -> the hint itself can be passed, without any array
+      if (handlers.length == 1)
+      {
+        Object hint = _beforeMethodNoThrow(handlers[0], asyncTargets[0], annotations[0], pProxy, pMethod, pArgs, sampled[0] ? weight : 1);
+        pChain.overhead.record(_recordOverhead(pChain, 0, start) - start, 0);
+        return _withWeight(hint, weight);
+      }
+
+      Object[] hints = null;
+      long handlerStart = start;
+      for (int i = 0; i < handlers.length; i++)
+      {
+        if (weight == 0 && sampled[i])
+          continue;
+
+        Object hint = _beforeMethodNoThrow(handlers[i], asyncTargets[i], annotations[i], pProxy, pMethod, pArgs, sampled[i] ? weight : 1);
+        handlerStart = _recordOverhead(pChain, i, handlerStart);
+        if (hint != null)
+        {
+          // create the slots lazily, so that we do not allocate anything if no handler needs it
+          if (hints == null)
+            hints = new Object[handlers.length];
+          hints[i] = hint;
+        }
+      }
+      pChain.overhead.record(handlerStart - start, 0);
+      return _withWeight(hints, weight);
     }
 
     /**
      * This method should be called after a metrified method was called
      *
-     * @param pProxy            Object whose method was called. NULL, if a static method was called.
-     * @param pMethod           Method that was called
-     * @param pAnnotatedElement Element that has the metric annotations on it
-     * @param pArgs             Arguments of the method call
-     * @param pHints            Hints to pass to the handlers
-     * @param pMethodResult     Result of the method call
-     * @param pException        Exception, if any occured during the method call
+     * @param pProxy        Object whose method was called. NULL, if a static method was called.
+     * @param pMethod       Method that was called
+     * @param pChain        Chain of handlers to trigger, see {@link #getChain(Method)}
+     * @param pArgs         Arguments of the method call
+     * @param pHints        Hints that were returned by {@link #beforeMethodCall(Object, Method, MetricHandlerChain, Object[])}
+     * @param pMethodResult Result of the method call
+     * @param pException    Exception, if any occured during the method call
+     */
+    public void afterMethodCall(@Nullable Object pProxy, @NonNull Method pMethod, @NonNull MetricHandlerChain pChain, Object @NonNull [] pArgs,
+                                @Nullable Object pHints, @Nullable Object pMethodResult, @Nullable Throwable pException)
+    {
+      // if the gate got closed during the method call, the handlers still have to finish what they started
+      if ((!MetricGate.isOpen() && pHints == null) || pChain.isEmpty() || pHints == _SKIPPED)
+        return;
+
+      // restore the weight of the call, that was chosen before the call
+      int weight = 1;
+      Object handlerHints = pHints;
+      if (pHints == _NOT_SAMPLED)
+      {
+        weight = 0;
+        handlerHints = null;
+      }
+      else if (pHints instanceof _WeightedHints)
+      {
+        weight = ((_WeightedHints) pHints).weight;
+        handlerHints = ((_WeightedHints) pHints).hints;
+      }
+
+      Annotation[] annotations = pChain.annotations;
+      IMetricHandler<?>[] handlers = pChain.handlers;
+      int[] asyncTargets = pChain.asyncTargets;
+      boolean[] sampled = pChain.sampled;
+      long start = System.nanoTime();
+
+      // single handler -> the hint was passed without an array
+      if (handlers.length == 1)
+      {
+        _afterMethodNoThrow(handlers[0], asyncTargets[0], annotations[0], pProxy, pMethod, pArgs, pMethodResult, pException, handlerHints,
+                            sampled[0] ? weight : 1);
+        pChain.overhead.record(_recordOverhead(pChain, 0, start) - start, 1);
+        return;
+      }
+
+      // reverse order, so that the handler that was triggered first before the method, gets triggered last after the method
+      Object[] hints = handlerHints instanceof Object[] ? (Object[]) handlerHints : null;
+      long handlerStart = start;
+      for (int i = handlers.length - 1; i >= 0; i--)
+      {
+        if (weight == 0 && sampled[i])
+          continue;
+
+        _afterMethodNoThrow(handlers[i], asyncTargets[i], annotations[i], pProxy, pMethod, pArgs, pMethodResult, pException,
+                            hints == null ? null : hints[i], sampled[i] ? weight : 1);
+        handlerStart = _recordOverhead(pChain, i, handlerStart);
+      }
+      pChain.overhead.record(handlerStart - start, 1);
+    }
+
+    /**
+     * Combines the given hints with the weight of the sampled handlers, if it has to be restored after the call
+     *
+     * @param pHints  Hints of the handlers
+     * @param pWeight Weight of the sampled handlers, 0 if they skipped the call
+     * @return the hints to pass to {@link #afterMethodCall(Object, Method, MetricHandlerChain, Object[], Object, Object, Throwable)}
+     */
+    @Nullable
+    private static Object _withWeight(@Nullable Object pHints, int pWeight)
+    {
+      if (pWeight == 1)
+        return pHints;
+      if (pWeight == 0 && pHints == null)
+        return _NOT_SAMPLED;
+      return new _WeightedHints(pHints, pWeight);
+    }
+
+    /**
+     * Adds the time since the given start to the accumulator of the handler with the given index
+     *
+     * @param pChain  Chain that contains the handler
+     * @param pIndex  Index of the handler
+     * @param pStart  Result of {@link System#nanoTime()}, before the handler was called
+     * @return the current time, so that it can be used as start of the next handler
      */
-    public void afterMethodCall(@Nullable Object pProxy, @NonNull Method pMethod, @NonNull AnnotatedElement pAnnotatedElement, Object @NonNull [] pArgs,
-                                @NonNull Map<String, Object> pHints, @Nullable Object pMethodResult, @Nullable Throwable pException)
+    private static long _recordOverhead(@NonNull MetricHandlerChain pChain, int pIndex, long pStart)
     {
-      //noinspection unchecked,rawtypes
-      _onEachHandlerNoThrow(pAnnotatedElement, pInvocation ->
-          ((IMetricHandler) pInvocation.second()).afterMethod(pInvocation.first(), pProxy, pMethod, pArgs, pMethodResult, pException, pHints));
+      long now = System.nanoTime();
+      pChain.handlerNanos[pIndex].add(now - pStart);
+      return now;
     }
 
     /**
-     * Searches all appropriate method handlers of the given method and calls pExecFn afterwards.
+     * Calls {@link IMetricHandler#beforeMethod(Annotation, Object, Method, Object[], int)} on the given handler,
+     * or publishes the start of the call if the handler is an async one.
      * This method must not throw an exception, because the method caller will get intercepted and so the original
      * method won't get called corretly.
      *
-     * @param pMethod Method that was called
-     * @param pExecFn Function to call on every appropriate metric handler
+     * @return the hint of the handler
      */
-    private static void _onEachHandlerNoThrow(@NonNull AnnotatedElement pMethod, @NonNull HandlerFn pExecFn)
+    @Nullable
+    private static Object _beforeMethodNoThrow(@NonNull IMetricHandler<?> pHandler, int pAsyncTarget, @NonNull Annotation pAnnotation,
+                                               @Nullable Object pProxy, @NonNull Method pMethod, Object @NonNull [] pArgs, int pWeight)
     {
       try
       {
-        for (Annotation annotation : pMethod.getAnnotations())
+        if (pAsyncTarget >= 0)
         {
-          Set<IMetricHandler<?>> handlers = _METRIC_HANDLERS.get(annotation.annotationType());
-          if (handlers != null)
-            for (IMetricHandler<?> handler : handlers)
-              pExecFn.accept(Pair.of(annotation, handler));
+          AsyncMetricDispatcher.enter(pAsyncTarget, pWeight);
+          return null;
         }
+
+        //noinspection unchecked,rawtypes
+        return ((IMetricHandler) pHandler).beforeMethod(pAnnotation, pProxy, pMethod, pArgs, pWeight);
       }
       catch (Throwable t) // NOSONAR we do want to catch all exceptions, so the user does not notice this ones
       {
         _LOGGER.log(Level.WARNING, "", t);
+        return null;
       }
     }
 
     /**
-     * Function to invoke on each handler
+     * Calls {@link IMetricHandler#afterMethod(Annotation, Object, Method, Object[], Object, Throwable, Object, int)} on the given handler,
+     * or publishes the end of the call if the handler is an async one.
+     * This method must not throw an exception, because the method caller will get intercepted and so the original
+     * method won't get called corretly.
+     */
+    private static void _afterMethodNoThrow(@NonNull IMetricHandler<?> pHandler, int pAsyncTarget, @NonNull Annotation pAnnotation,
+                                            @Nullable Object pProxy, @NonNull Method pMethod, Object @NonNull [] pArgs, @Nullable Object pMethodResult,
+                                            @Nullable Throwable pException, @Nullable Object pHint, int pWeight)
+    {
+      try
+      {
+        if (pAsyncTarget >= 0)
+        {
+          //noinspection unchecked,rawtypes
+          Object detail = ((IAsyncMetricHandler) pHandler).captureDetail(pAnnotation, pArgs, pMethodResult);
+          AsyncMetricDispatcher.exit(pAsyncTarget, pException, detail, pWeight);
+          return;
+        }
+
+        //noinspection unchecked,rawtypes
+        ((IMetricHandler) pHandler).afterMethod(pAnnotation, pProxy, pMethod, pArgs, pMethodResult, pException, pHint, pWeight);
+      }
+      catch (Throwable t) // NOSONAR we do want to catch all exceptions, so the user does not notice this ones
+      {
+        _LOGGER.log(Level.WARNING, "", t);
+      }
+    }
+
+    /**
+     * Hints of a call, whose sampled handlers got a weight other than 1.
+     * Only created for calls of frequently called methods that were chosen by the sampler (so their count is limited by it),
+     * or for skipped calls where a handler, that is not sampled, stored a hint.
      */
-    public static interface HandlerFn
+    private static final class _WeightedHints
     {
-      /**
-       * Function to invoke
-       *
-       * @param pObject Object to pass to the handler
-       * @throws Exception exception
-       */
-      void accept(@NonNull Pair<Annotation, IMetricHandler<?>> pObject) throws Exception;
+      @Nullable
+      private final Object hints;
+      private final int weight;
+
+      private _WeightedHints(@Nullable Object pHints, int pWeight)
+      {
+        hints = pHints;
+        weight = pWeight;
+      }
     }
 
   }
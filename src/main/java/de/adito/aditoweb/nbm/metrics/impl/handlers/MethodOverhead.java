@@ -0,0 +1,340 @@
+package de.adito.aditoweb.nbm.metrics.impl.handlers;
+
+import lombok.NonNull;
+
+import javax.management.*;
+import java.lang.management.ManagementFactory;
+import java.lang.ref.*;
+import java.lang.reflect.Method;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.*;
+import java.util.stream.Collectors;
+
+/**
+ * Accounts the time, that the handlers of a single method take.
+ * If the average time per handled call exceeds the budget, the {@link MetricHandlerChain} of the method gets demoted.
+ * All values are exposed via JMX, see {@link MetricOverheadMXBean}.
+ *
+ * @author agent, 17.10.2026
+ */
+final class MethodOverhead
+{
+
+  /**
+   * System property to set the average time in nanoseconds, that the handlers of a method may take per call. Zero or less disables the demotion.
+   */
+  static final String BUDGET_PROPERTY = "adito.analytics.overhead.budgetNs";
+  static final long BUDGET_NS = Long.getLong(BUDGET_PROPERTY, 100_000);
+
+  /**
+   * The budget will be checked after every n-th handled call
+   */
+  private static final int EVALUATION_MASK = 1023;
+
+  private static final Logger _LOGGER = Logger.getLogger(MethodOverhead.class.getName());
+
+  /**
+   * All accountings by the name of their method. They are only referenced weakly, so that a chain which is not used anymore
+   * (e.g. because its class got unloaded) does not get pinned by the JMX bean.
+   */
+  private static final Map<String, _OverheadReference> _METHODS = new ConcurrentHashMap<>();
+  private static final ReferenceQueue<MethodOverhead> _COLLECTED = new ReferenceQueue<>();
+  private static final ClassValue<LongAdder> _HANDLER_NANOS = new ClassValue<>()
+  {
+    @Override
+    protected LongAdder computeValue(Class<?> pType)
+    {
+      return new LongAdder();
+    }
+  };
+
+  private final String name;
+  private final long budgetNs;
+  private final LongAdder nanos = new LongAdder();
+  private final LongAdder calls = new LongAdder();
+  private int evaluationCounter; // not thread safe on purpose, it only triggers the evaluation
+  private long evaluatedNanos;
+  private long evaluatedCalls;
+  private volatile String demotion;
+  private volatile MetricHandlerChain chain;
+
+  MethodOverhead(@NonNull String pName, long pBudgetNs)
+  {
+    name = pName;
+    budgetNs = pBudgetNs;
+  }
+
+  /**
+   * Creates the accounting for the given method and publishes it via JMX.
+   * If the method was registered already (e.g. because its handlers were resolved again), the new accounting replaces
+   * the previous one and continues its totals.
+   *
+   * @param pMethod Method, whose handlers get accounted
+   * @return the accounting
+   */
+  @NonNull
+  static MethodOverhead register(@NonNull Method pMethod)
+  {
+    _expungeCollected();
+    String name = _getName(pMethod);
+    MethodOverhead overhead = new MethodOverhead(name, BUDGET_NS);
+    _OverheadReference previousReference = _METHODS.put(name, new _OverheadReference(name, overhead));
+    MethodOverhead previous = previousReference == null ? null : previousReference.get();
+    if (previous != null)
+    {
+      overhead.nanos.add(previous.getNanos());
+      overhead.calls.add(previous.getCalls());
+    }
+    return overhead;
+  }
+
+  /**
+   * Removes the accounting of the given method, if it was not replaced by another one already
+   *
+   * @param pMethod   Method, whose handlers were accounted
+   * @param pOverhead Accounting to remove
+   */
+  static void unregister(@NonNull Method pMethod, @NonNull MethodOverhead pOverhead)
+  {
+    _METHODS.computeIfPresent(_getName(pMethod), (pName, pReference) -> pReference.get() == pOverhead ? null : pReference);
+  }
+
+  /**
+   * Binds the chain, that gets demoted if the budget gets exceeded
+   *
+   * @param pChain Chain whose time gets accounted by this instance
+   */
+  void bind(@NonNull MetricHandlerChain pChain)
+  {
+    chain = pChain;
+  }
+
+  /**
+   * Returns the accumulator for the time that all handlers of the given type took
+   *
+   * @param pHandlerType Type of the handler
+   * @return the accumulator in nanoseconds
+   */
+  @NonNull
+  static LongAdder forHandler(@NonNull Class<?> pHandlerType)
+  {
+    return _HANDLER_NANOS.get(pHandlerType);
+  }
+
+  /**
+   * Records the time, that the handlers took
+   *
+   * @param pNanos Time in nanoseconds
+   * @param pCalls Count of calls that finished, 0 if only the first part of a call was recorded
+   */
+  void record(long pNanos, int pCalls)
+  {
+    nanos.add(pNanos);
+    if (pCalls > 0)
+    {
+      calls.add(pCalls);
+      if ((++evaluationCounter & EVALUATION_MASK) == 0)
+        _evaluate();
+    }
+  }
+
+  /**
+   * @return the time in nanoseconds, that the handlers took in sum
+   */
+  long getNanos()
+  {
+    return nanos.sum();
+  }
+
+  /**
+   * @return the count of handled calls
+   */
+  long getCalls()
+  {
+    return calls.sum();
+  }
+
+  /**
+   * Checks the average time per call since the last evaluation and demotes the chain, if it exceeds the budget
+   */
+  private synchronized void _evaluate()
+  {
+    long currentNanos = nanos.sum();
+    long currentCalls = calls.sum();
+    long windowCalls = currentCalls - evaluatedCalls;
+    long windowNanos = currentNanos - evaluatedNanos;
+    evaluatedNanos = currentNanos;
+    evaluatedCalls = currentCalls;
+
+    MetricHandlerChain demotedChain = chain;
+    if (demotedChain != null && budgetNs > 0 && windowCalls > 0 && windowNanos / windowCalls > budgetNs)
+    {
+      String newDemotion = demotedChain.demote();
+      if (newDemotion == null) // disabled already
+        return;
+
+      demotion = newDemotion;
+      _LOGGER.log(Level.WARNING, () -> "Metric handlers of " + name + " took " + (windowNanos / windowCalls) + " ns per call (budget: " + budgetNs +
+          " ns) and got demoted to " + newDemotion);
+    }
+  }
+
+  /**
+   * @param pMethod Method to get the name for
+   * @return the name of the given method, unique by its declaring class and its parameter types
+   */
+  @NonNull
+  private static String _getName(@NonNull Method pMethod)
+  {
+    return pMethod.getDeclaringClass().getName() + "#" + pMethod.getName() +
+        Arrays.stream(pMethod.getParameterTypes()).map(Class::getTypeName).collect(Collectors.joining(",", "(", ")"));
+  }
+
+  /**
+   * Removes the entries of all accountings, that were garbage collected
+   */
+  private static void _expungeCollected()
+  {
+    Reference<? extends MethodOverhead> reference;
+    while ((reference = _COLLECTED.poll()) != null)
+      _METHODS.remove(((_OverheadReference) reference).name, reference);
+  }
+
+  /**
+   * @return all accountings, that are still in use
+   */
+  @NonNull
+  private static List<MethodOverhead> _getOverheads()
+  {
+    List<MethodOverhead> result = new ArrayList<>();
+    for (_OverheadReference reference : _METHODS.values())
+    {
+      MethodOverhead overhead = reference.get();
+      if (overhead != null)
+        result.add(overhead);
+    }
+    return result;
+  }
+
+  /**
+   * Registers the JMX bean of all accountings. A bean that was registered before (e.g. by a previous instance of the module) gets replaced.
+   */
+  static void registerMXBean()
+  {
+    try
+    {
+      MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+      ObjectName objectName = new ObjectName(MetricOverheadMXBean.OBJECT_NAME);
+      if (server.isRegistered(objectName)) // module got reloaded
+        server.unregisterMBean(objectName);
+      server.registerMBean(new _MXBean(), objectName);
+    }
+    catch (Exception e)
+    {
+      _LOGGER.log(Level.WARNING, "Failed to register the metric overhead bean", e);
+    }
+  }
+
+  /**
+   * Exposes the accounting of all methods and handlers
+   */
+  private static class _MXBean implements MetricOverheadMXBean
+  {
+    @Override
+    public Map<String, Long> getMethodOverheadNanos()
+    {
+      Map<String, Long> result = new TreeMap<>();
+      _getOverheads().forEach(pOverhead -> result.put(pOverhead.name, pOverhead.getNanos()));
+      return result;
+    }
+
+    @Override
+    public Map<String, Long> getMethodCalls()
+    {
+      Map<String, Long> result = new TreeMap<>();
+      _getOverheads().forEach(pOverhead -> result.put(pOverhead.name, pOverhead.getCalls()));
+      return result;
+    }
+
+    @Override
+    public Map<String, Long> getHandlerOverheadNanos()
+    {
+      Map<String, Long> result = new TreeMap<>();
+      for (IMetricHandler<?>[] handlers : IMetricHandler.Accessor.getHandlers().values())
+        for (IMetricHandler<?> handler : handlers)
+          result.put(handler.getClass().getName(), forHandler(handler.getClass()).sum());
+      return result;
+    }
+
+    @Override
+    public Map<String, String> getDemotedMethods()
+    {
+      Map<String, String> result = new TreeMap<>();
+      _getOverheads().forEach(pOverhead -> {
+        String demotion = pOverhead.demotion;
+        if (demotion != null)
+          result.put(pOverhead.name, demotion);
+      });
+      return result;
+    }
+
+    @Override
+    public Map<String, Long> getDroppedAsyncRecords()
+    {
+      return AsyncMetricDispatcher.getDroppedRecords();
+    }
+
+    @Override
+    public long getPendingAsyncRecords()
+    {
+      return AsyncMetricDispatcher.getPendingRecords();
+    }
+
+    @Override
+    public Map<String, Long> getCacheHits()
+    {
+      Map<String, Long> result = new TreeMap<>();
+      for (MetricCache cache : MetricCache.values())
+        result.put(cache.name(), cache.getHits());
+      return result;
+    }
+
+    @Override
+    public Map<String, Long> getCacheMisses()
+    {
+      Map<String, Long> result = new TreeMap<>();
+      for (MetricCache cache : MetricCache.values())
+        result.put(cache.name(), cache.getMisses());
+      return result;
+    }
+
+    @Override
+    public boolean isGateClosed()
+    {
+      return MetricGate.isClosedManually();
+    }
+
+    @Override
+    public void setGateClosed(boolean pClosed)
+    {
+      MetricGate.setClosedManually(pClosed);
+    }
+  }
+
+  /**
+   * Weak reference to an accounting, that knows the name it was registered with
+   */
+  private static class _OverheadReference extends WeakReference<MethodOverhead>
+  {
+    private final String name;
+
+    private _OverheadReference(@NonNull String pName, @NonNull MethodOverhead pOverhead)
+    {
+      super(pOverhead, _COLLECTED);
+      name = pName;
+    }
+  }
+
+}
@@ -0,0 +1,120 @@
+package de.adito.aditoweb.nbm.metrics.impl.handlers;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Decides per method, which calls should be passed to the handlers.
+ * The sampler adapts itself once per second, so that at most {@link #MAX_CALLS_PER_SECOND} calls per second will be handled.
+ * Every handled call represents as many calls as the weight that {@link #sample()} returned for it, so that aggregated counts stay correct.
+ * <p>
+ * The decision itself is thread-local (via {@link ThreadLocalRandom}), only handled calls touch the shared counter.
+ *
+ * @author agent, 17.10.2026
+ */
+final class MethodSampler
+{
+
+  /**
+   * System property to set the count of calls per second and method, that should be handled at most. Zero or less disables sampling.
+   */
+  static final String MAX_CALLS_PER_SECOND_PROPERTY = "adito.analytics.sampling.maxCallsPerSecond";
+  static final int MAX_CALLS_PER_SECOND = Integer.getInteger(MAX_CALLS_PER_SECOND_PROPERTY, 1000);
+
+  /**
+   * Count of calls per second, that will be handled at most after the sampler was demoted once
+   */
+  static final int DEMOTED_CALLS_PER_SECOND = 10;
+  private static final long WINDOW_NS = TimeUnit.SECONDS.toNanos(1);
+
+  private final long windowNs;
+  private volatile int maxCallsPerSecond;
+  private volatile boolean disabled = false;
+  private final LongAdder handledCalls = new LongAdder();
+  private volatile int interval = 1;
+  private volatile long windowStart = System.nanoTime();
+
+  MethodSampler()
+  {
+    this(MAX_CALLS_PER_SECOND, WINDOW_NS);
+  }
+
+  MethodSampler(int pMaxCallsPerSecond, long pWindowNs)
+  {
+    maxCallsPerSecond = pMaxCallsPerSecond;
+    windowNs = pWindowNs;
+  }
+
+  /**
+   * Decides, if the current call should be handled
+   *
+   * @return the count of calls, that the current call represents - 0 if the handlers should not be triggered.
+   * This is the weight of the window, that the call was sampled in - even if the call starts a new window.
+   */
+  int sample()
+  {
+    if (disabled)
+      return 0;
+    if (maxCallsPerSecond <= 0)
+      return 1;
+
+    int currentInterval = interval;
+    if (currentInterval > 1 && ThreadLocalRandom.current().nextInt(currentInterval) != 0)
+      return 0;
+
+    handledCalls.increment();
+    long now = System.nanoTime();
+    if (now - windowStart >= windowNs)
+      _adapt(now);
+    return currentInterval;
+  }
+
+  /**
+   * @return the count of calls, that a single handled call of the current window represents
+   */
+  int getWeight()
+  {
+    return interval;
+  }
+
+  /**
+   * Reduces the count of handled calls, because the handlers of the method are too expensive.
+   * The first demotion limits the handled calls to {@link #DEMOTED_CALLS_PER_SECOND}, the second one disables the handlers completely.
+   *
+   * @return a description of the new state, or null if the handlers were disabled already
+   */
+  @Nullable
+  synchronized String demote()
+  {
+    if (disabled)
+      return null;
+
+    if (maxCallsPerSecond <= 0 || maxCallsPerSecond > DEMOTED_CALLS_PER_SECOND)
+    {
+      maxCallsPerSecond = DEMOTED_CALLS_PER_SECOND;
+      return "sampled (" + DEMOTED_CALLS_PER_SECOND + " calls per second)";
+    }
+
+    disabled = true;
+    return "disabled";
+  }
+
+  /**
+   * Calculates the new interval, based on the estimated calls of the last window
+   *
+   * @param pNow current time in nanoseconds
+   */
+  private synchronized void _adapt(long pNow)
+  {
+    long elapsed = pNow - windowStart;
+    if (elapsed < windowNs) // another thread adapted already
+      return;
+
+    double estimatedCallsPerSecond = handledCalls.sumThenReset() * (double) interval * TimeUnit.SECONDS.toNanos(1) / elapsed;
+    interval = (int) Math.max(1, Math.min(Integer.MAX_VALUE, Math.ceil(estimatedCallsPerSecond / maxCallsPerSecond)));
+    windowStart = pNow;
+  }
+
+}
@@ -0,0 +1,38 @@
+package de.adito.aditoweb.nbm.metrics.impl.handlers;
+
+import lombok.*;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Calls and latencies of a single method within an export interval, see {@link MethodStatisticsRegistry}
+ *
+ * @author agent, 17.10.2026
+ */
+@Getter
+@RequiredArgsConstructor(access = AccessLevel.PACKAGE)
+public final class MethodStatistics
+{
+
+  /**
+   * Name of the method, including its declaring class and its parameter types
+   */
+  @NonNull
+  private final String method;
+
+  /**
+   * Count of calls, 0 if the method is not counted
+   */
+  private final long calls;
+
+  /**
+   * Count of calls, that threw an exception
+   */
+  private final long failures;
+
+  /**
+   * Latencies of the calls in nanoseconds, NULL if the method is not timed
+   */
+  @Nullable
+  private final HistogramSnapshot latencyNanos;
+
+}
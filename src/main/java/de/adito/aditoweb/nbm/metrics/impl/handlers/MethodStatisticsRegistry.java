@@ -0,0 +1,219 @@
+package de.adito.aditoweb.nbm.metrics.impl.handlers;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import de.adito.aditoweb.nbm.metrics.impl.eventlogger.IEventLogger;
+import lombok.NonNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.lang.reflect.Method;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.*;
+import java.util.stream.Collectors;
+
+/**
+ * Keeps the call counts and latencies of the methods, that are handled by the {@link CounterMetricHandler} and {@link TimerMetricHandler}.
+ * The counts are striped {@link LongAdder}s, the latencies are recorded into a fixed-size {@link ConcurrentHistogram} per method.
+ * All statistics, that changed within an interval, get exported together to the {@link IEventLogger}.
+ *
+ * @author agent, 17.10.2026
+ */
+final class MethodStatisticsRegistry
+{
+
+  /**
+   * System property to set the interval in seconds, in which the statistics get exported
+   */
+  static final String INTERVAL_PROPERTY = "adito.analytics.statistics.intervalSeconds";
+
+  private static final Logger _LOGGER = Logger.getLogger(MethodStatisticsRegistry.class.getName());
+
+  /**
+   * Statistics of all methods, keyed by their fully qualified signature - so that they do not reference any class or classloader
+   */
+  private static final Map<String, Entry> _ENTRIES = new ConcurrentHashMap<>();
+
+  /**
+   * Statistics of the methods of a class, so that the signature does not have to be created on every call.
+   * Bound to the lifetime of the class, so that the methods do not pin it.
+   */
+  private static final ClassValue<Map<Method, Entry>> _ENTRIES_BY_METHOD = new ClassValue<>()
+  {
+    @Override
+    protected Map<Method, Entry> computeValue(Class<?> pType)
+    {
+      return new ConcurrentHashMap<>();
+    }
+  };
+
+  static
+  {
+    long interval = Long.getLong(INTERVAL_PROPERTY, 600);
+    Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                                                   .setNameFormat("tMethodStatistics-%d")
+                                                   .setDaemon(true)
+                                                   .build())
+        .scheduleAtFixedRate(MethodStatisticsRegistry::export, interval, interval, TimeUnit.SECONDS);
+  }
+
+  private MethodStatisticsRegistry()
+  {
+  }
+
+  /**
+   * Returns the statistics of the given method
+   *
+   * @param pMethod Method to get the statistics for
+   * @return the statistics, that get created if they did not exist yet
+   */
+  @NonNull
+  static Entry get(@NonNull Method pMethod)
+  {
+    Map<Method, Entry> entries = _ENTRIES_BY_METHOD.get(pMethod.getDeclaringClass());
+    Entry entry = entries.get(pMethod);
+    if (entry == null)
+      entry = entries.computeIfAbsent(pMethod, pKey -> _ENTRIES.computeIfAbsent(signature(pKey), pSignature -> new Entry(pKey)));
+    return entry;
+  }
+
+  /**
+   * @param pMethod Method to get the signature for
+   * @return the signature of the method, with fully qualified names of the class and of the parameter types
+   */
+  @NonNull
+  static String signature(@NonNull Method pMethod)
+  {
+    return pMethod.getDeclaringClass().getName() + "#" + pMethod.getName() +
+        Arrays.stream(pMethod.getParameterTypes()).map(Class::getTypeName).collect(Collectors.joining(",", "(", ")"));
+  }
+
+  /**
+   * Creates a snapshot of the statistics of all methods, that were called since the previous snapshot.
+   * Each snapshot starts a new interval.
+   *
+   * @return the statistics, sorted by the name of the method
+   */
+  @NonNull
+  static synchronized List<MethodStatistics> snapshot()
+  {
+    List<MethodStatistics> result = new ArrayList<>();
+    for (Entry entry : _ENTRIES.values())
+    {
+      MethodStatistics statistics = entry.snapshot();
+      if (statistics != null)
+        result.add(statistics);
+    }
+    result.sort(Comparator.comparing(MethodStatistics::getMethod));
+    return result;
+  }
+
+  /**
+   * Exports the statistics of the current interval to the {@link IEventLogger}
+   */
+  static void export()
+  {
+    try
+    {
+      List<MethodStatistics> statistics = snapshot();
+      if (!statistics.isEmpty())
+        IEventLogger.getInstance().captureMethodStatistics(statistics);
+    }
+    catch (Exception e)
+    {
+      // must not be thrown, otherwise the statistics would not be exported anymore
+      _LOGGER.log(Level.WARNING, "Failed to export the method statistics", e);
+    }
+  }
+
+  /**
+   * Statistics of a single method
+   */
+  static final class Entry
+  {
+    private final String name;
+    private final LongAdder calls = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+    private volatile ConcurrentHistogram latency;
+
+    // state of the previous snapshot, only accessed by the snapshot
+    private long snapshotCalls;
+    private long snapshotFailures;
+    private long[] snapshotLatency;
+
+    Entry(@NonNull Method pMethod)
+    {
+      name = pMethod.getDeclaringClass().getName() + "#" + pMethod.getName() +
+          Arrays.stream(pMethod.getParameterTypes()).map(Class::getSimpleName).collect(Collectors.joining(",", "(", ")"));
+    }
+
+    /**
+     * Counts a call of the method
+     *
+     * @param pFailed true, if the call threw an exception
+     * @param pWeight Count of calls that this call represents
+     */
+    void count(boolean pFailed, int pWeight)
+    {
+      calls.add(pWeight);
+      if (pFailed)
+        failures.add(pWeight);
+    }
+
+    /**
+     * Records the latency of a call of the method.
+     * The latency histogram of a method only has a single stripe, so it should only be recorded from a single thread.
+     *
+     * @param pNanos  Latency in nanoseconds
+     * @param pWeight Count of calls that this call represents
+     */
+    void time(long pNanos, int pWeight)
+    {
+      ConcurrentHistogram histogram = latency;
+      if (histogram == null)
+        histogram = _createLatency();
+      histogram.record(pNanos, pWeight);
+    }
+
+    /**
+     * @return the statistics since the previous snapshot, NULL if the method was not called
+     */
+    @Nullable
+    MethodStatistics snapshot()
+    {
+      long currentCalls = calls.sum();
+      long currentFailures = failures.sum();
+      ConcurrentHistogram histogram = latency;
+      HistogramSnapshot latencySnapshot = null;
+      if (histogram != null)
+      {
+        if (snapshotLatency == null)
+          snapshotLatency = histogram.newSnapshotState();
+        latencySnapshot = histogram.snapshot(snapshotLatency);
+      }
+
+      long intervalCalls = currentCalls - snapshotCalls;
+      long intervalFailures = currentFailures - snapshotFailures;
+      snapshotCalls = currentCalls;
+      snapshotFailures = currentFailures;
+
+      if (intervalCalls == 0 && (latencySnapshot == null || latencySnapshot.getCount() == 0))
+        return null;
+      return new MethodStatistics(name, intervalCalls, intervalFailures, latencySnapshot);
+    }
+
+    /**
+     * Creates the latency histogram
+     *
+     * @return the histogram
+     */
+    @NonNull
+    private synchronized ConcurrentHistogram _createLatency()
+    {
+      if (latency == null)
+        latency = new ConcurrentHistogram(1);
+      return latency;
+    }
+  }
+
+}
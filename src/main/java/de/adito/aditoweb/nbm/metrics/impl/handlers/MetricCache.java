@@ -0,0 +1,58 @@
+package de.adito.aditoweb.nbm.metrics.impl.handlers;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Caches of the analytics module, whose efficiency gets exposed via JMX, see {@link MetricOverheadMXBean}
+ *
+ * @author agent, 17.10.2026
+ */
+public enum MetricCache
+{
+
+  /**
+   * Proxy types, that were generated for the metric proxies
+   */
+  PROXY_TYPES,
+
+  /**
+   * Class files of generated proxy types and instrumented classes, that are cached across sessions
+   */
+  CLASS_FILES;
+
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+
+  /**
+   * Counts a lookup, that could reuse a cached value
+   */
+  public void hit()
+  {
+    hits.increment();
+  }
+
+  /**
+   * Counts a lookup, that had to create a new value
+   */
+  public void miss()
+  {
+    misses.increment();
+  }
+
+  /**
+   * @return the count of lookups, that could reuse a cached value
+   */
+  public long getHits()
+  {
+    return hits.sum();
+  }
+
+  /**
+   * @return the count of lookups, that had to create a new value
+   */
+  public long getMisses()
+  {
+    return misses.sum();
+  }
+
+}
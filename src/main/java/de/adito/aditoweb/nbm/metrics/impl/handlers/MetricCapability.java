@@ -0,0 +1,34 @@
+package de.adito.aditoweb.nbm.metrics.impl.handlers;
+
+/**
+ * Values of a method call, that a metric handler needs.
+ * The instrumentation captures only the values, that at least one handler of a method declared via {@link MetricHandler#capabilities()},
+ * so that methods whose handlers do not need the arguments or the return value can be called without boxing them.
+ * Values that were not captured will be passed as NULL or as an empty argument array.
+ *
+ * @author agent, 17.10.2026
+ */
+public enum MetricCapability
+{
+
+  /**
+   * The arguments of the method. Capturing them allocates an array and boxes all primitive arguments.
+   */
+  ARGUMENTS,
+
+  /**
+   * The value that the method returned. Capturing it boxes primitive return values.
+   */
+  RETURN_VALUE,
+
+  /**
+   * The object, whose method got called. Capturing it does not allocate anything, so it is always available.
+   */
+  RECEIVER,
+
+  /**
+   * The exception, that the method throwed. Capturing it does not allocate anything, so it is always available.
+   */
+  EXCEPTION
+
+}
@@ -0,0 +1,184 @@
+package de.adito.aditoweb.nbm.metrics.impl.handlers;
+
+import de.adito.aditoweb.nbm.metrics.impl.user.IUserAgreement;
+import de.adito.aditoweb.nbm.metrics.impl.util.AnalyticsOnStopHook;
+import lombok.*;
+import org.jetbrains.annotations.Nullable;
+import org.openide.windows.OnShowing;
+
+import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+import java.util.logging.*;
+import java.util.stream.Collectors;
+
+/**
+ * Global switch in front of all metric handlers.
+ * If the gate is closed, {@link IMetricHandler.Accessor} returns immediately, so that a metrified method call
+ * only costs a single read of a volatile field. The gate is open, if
+ * <ul>
+ *   <li>the user allows sending analytics (or did not decide yet),</li>
+ *   <li>at least one handler is enabled and</li>
+ *   <li>it was not closed manually, e.g. via the system property {@link #CLOSED_PROPERTY} or the attribute "GateClosed"
+ *   of the {@link MetricOverheadMXBean} to measure the overhead of the handlers</li>
+ * </ul>
+ * Single handlers can be disabled via the system property {@link #DISABLED_HANDLERS_PROPERTY}.
+ * Disabled handlers do not get instantiated at all, so they are never part of a {@link MetricHandlerChain}.
+ *
+ * @author agent, 17.10.2026
+ */
+@NoArgsConstructor(access = AccessLevel.PRIVATE)
+public final class MetricGate
+{
+
+  /**
+   * System property to close the gate from the start
+   */
+  public static final String CLOSED_PROPERTY = "adito.analytics.gate.closed";
+
+  /**
+   * System property with the comma separated, fully qualified class names of the handlers that should be disabled
+   */
+  public static final String DISABLED_HANDLERS_PROPERTY = "adito.analytics.handlers.disabled";
+
+  private static final Logger _LOGGER = Logger.getLogger(MetricGate.class.getName());
+  private static final Set<String> _DISABLED_HANDLERS = _parseDisabledHandlers(System.getProperty(DISABLED_HANDLERS_PROPERTY));
+  private static final List<Consumer<Boolean>> _LISTENERS = new CopyOnWriteArrayList<>();
+  private static volatile boolean open = !Boolean.getBoolean(CLOSED_PROPERTY);
+  private static boolean analyticsAllowed = true;
+  private static boolean closedManually = Boolean.getBoolean(CLOSED_PROPERTY);
+  private static boolean handlersAvailable = true;
+
+  /**
+   * @return true, if the handlers should be triggered
+   */
+  public static boolean isOpen()
+  {
+    return open;
+  }
+
+  /**
+   * Registers a listener, that gets notified with the new state whenever the gate opens or closes.
+   * The listener gets called with the current state immediately.
+   * Used to mirror the state into places that can not read it directly, e.g. the advices of instrumented classes.
+   *
+   * @param pListener Listener to notify
+   */
+  public static synchronized void addListener(@NonNull Consumer<Boolean> pListener)
+  {
+    _LISTENERS.add(pListener);
+    pListener.accept(open);
+  }
+
+  /**
+   * Removes a listener, that was registered via {@link #addListener(Consumer)}
+   *
+   * @param pListener Listener to remove
+   */
+  public static synchronized void removeListener(@NonNull Consumer<Boolean> pListener)
+  {
+    _LISTENERS.remove(pListener);
+  }
+
+  /**
+   * @return true, if the gate was closed manually, see {@link #setClosedManually(boolean)}
+   */
+  public static synchronized boolean isClosedManually()
+  {
+    return closedManually;
+  }
+
+  /**
+   * Closes or reopens the gate manually, regardless of the other conditions.
+   * Can be used at runtime to compare the costs of metrified method calls with and without handlers.
+   *
+   * @param pClosed true, if the gate should be closed
+   */
+  public static synchronized void setClosedManually(boolean pClosed)
+  {
+    closedManually = pClosed;
+    _update();
+  }
+
+  /**
+   * Sets, if the user allows sending analytics
+   *
+   * @param pAllowed true, if allowed
+   */
+  static synchronized void setAnalyticsAllowed(boolean pAllowed)
+  {
+    analyticsAllowed = pAllowed;
+    _update();
+  }
+
+  /**
+   * Sets, if any handler is enabled. The gate gets closed, if all handlers are disabled.
+   *
+   * @param pAvailable true, if at least one handler is enabled
+   */
+  static synchronized void setHandlersAvailable(boolean pAvailable)
+  {
+    handlersAvailable = pAvailable;
+    _update();
+  }
+
+  /**
+   * Determines, if the handler of the given type is enabled, see {@link #DISABLED_HANDLERS_PROPERTY}
+   *
+   * @param pHandlerType Type of the handler
+   * @return true, if the handler should be instantiated and triggered
+   */
+  static boolean isHandlerEnabled(@NonNull Class<?> pHandlerType)
+  {
+    return !_DISABLED_HANDLERS.contains(pHandlerType.getName());
+  }
+
+  /**
+   * Recalculates the state of the gate
+   */
+  private static void _update()
+  {
+    boolean newState = !closedManually && analyticsAllowed && handlersAvailable;
+    if (open != newState)
+    {
+      open = newState;
+      _LOGGER.log(Level.INFO, () -> "Metric handlers " + (newState ? "enabled" : "disabled"));
+      for (Consumer<Boolean> listener : _LISTENERS)
+        listener.accept(newState);
+    }
+  }
+
+  /**
+   * Parses the value of {@link #DISABLED_HANDLERS_PROPERTY}
+   *
+   * @param pValue Value of the property, may be null
+   * @return the names of the disabled handlers
+   */
+  @NonNull
+  private static Set<String> _parseDisabledHandlers(@Nullable String pValue)
+  {
+    if (pValue == null)
+      return Set.of();
+
+    return Arrays.stream(pValue.split(","))
+        .map(String::trim)
+        .filter(pName -> !pName.isEmpty())
+        .collect(Collectors.toUnmodifiableSet());
+  }
+
+  /**
+   * Closes the gate, while the user does not allow sending analytics
+   */
+  @OnShowing
+  public static class UserAgreementHook implements Runnable
+  {
+    @Override
+    public void run()
+    {
+      AnalyticsOnStopHook.addDisposable(IUserAgreement.getInstance().sendingAnalyticsAllowed()
+                                            .distinctUntilChanged()
+                                            .subscribe(MetricGate::setAnalyticsAllowed));
+    }
+  }
+
+}
@@ -23,4 +23,32 @@ public @interface MetricHandler
   @NonNull
   Class<? extends Annotation> metric();
 
+  /**
+   * Multiple handlers can handle the same metric. The handler with the highest priority gets triggered first before the method
+   * and last after the method, so that handlers can be layered. Handlers with the same priority are ordered by their class name.
+   *
+   * @return the priority of this handler
+   */
+  int priority() default 0;
+
+  /**
+   * Declares, which values of a method call this handler reads. Values that no handler of a method needs, will not be captured
+   * by the instrumentation - so a handler must declare everything it reads.
+   *
+   * @return the values of a method call, that this handler needs
+   */
+  @NonNull
+  MetricCapability[] capabilities() default {MetricCapability.ARGUMENTS, MetricCapability.RETURN_VALUE, MetricCapability.RECEIVER,
+                                             MetricCapability.EXCEPTION};
+
+  /**
+   * Declares, that this handler only aggregates calls (e.g. counts them) and may skip calls of frequently called methods.
+   * Such a handler gets only the calls, that were chosen by the sampler of the method, together with the count of calls
+   * that each of them represents. Handlers that need every single call (e.g. because they open and finish spans,
+   * or report exceptions) must not be sampled.
+   *
+   * @return true, if the calls may be sampled for this handler
+   */
+  boolean sampled() default false;
+
 }
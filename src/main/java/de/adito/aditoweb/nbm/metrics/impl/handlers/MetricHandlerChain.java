@@ -0,0 +1,135 @@
+package de.adito.aditoweb.nbm.metrics.impl.handlers;
+
+import lombok.NonNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.lang.annotation.Annotation;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Immutable list of all handlers that have to be triggered if a single method gets called.
+ * It gets resolved once per method by {@link IMetricHandler.Accessor}, so that the dispatch of a method call
+ * is a simple loop over an array, without any lookups or allocations.
+ *
+ * @author agent, 17.10.2026
+ */
+public final class MetricHandlerChain
+{
+
+  /**
+   * Chain for all methods that do not have any handlers
+   */
+  static final MetricHandlerChain EMPTY;
+
+  static
+  {
+    EMPTY = new MetricHandlerChain(new Annotation[0], new IMetricHandler<?>[0], new int[0], new boolean[0], new LongAdder[0], new MethodSampler(),
+                                   new MethodOverhead("", MethodOverhead.BUDGET_NS));
+  }
+
+  /**
+   * Annotations that triggered the handler with the same index
+   */
+  final Annotation @NonNull [] annotations;
+
+  /**
+   * Handlers to trigger
+   */
+  final IMetricHandler<?> @NonNull [] handlers;
+
+  /**
+   * Ids of the handler with the same index at the {@link AsyncMetricDispatcher}, or -1 if the handler gets called synchronously
+   */
+  final int @NonNull [] asyncTargets;
+
+  /**
+   * Determines, if the handler with the same index gets only the calls that were chosen by the sampler, see {@link MetricHandler#sampled()}
+   */
+  final boolean @NonNull [] sampled;
+
+  /**
+   * True, if any handler of this chain is sampled - so the sampler has to be asked for every call
+   */
+  final boolean anySampled;
+
+  /**
+   * True, if all handlers of this chain are sampled - so a call that was not chosen by the sampler can be skipped completely
+   */
+  final boolean allSampled;
+
+  /**
+   * Accumulators for the time, that the handler with the same index takes
+   */
+  final LongAdder @NonNull [] handlerNanos;
+
+  /**
+   * Decides, which calls of the method will be passed to the sampled handlers
+   */
+  @NonNull
+  final MethodSampler sampler;
+
+  /**
+   * Accounts the time, that all handlers of this chain take
+   */
+  @NonNull
+  final MethodOverhead overhead;
+
+  /**
+   * True, if the handlers of this chain were too expensive - so every handler gets only the calls that were chosen by the sampler
+   */
+  volatile boolean demoted;
+
+  MetricHandlerChain(Annotation @NonNull [] pAnnotations, IMetricHandler<?> @NonNull [] pHandlers, int @NonNull [] pAsyncTargets,
+                     boolean @NonNull [] pSampled, LongAdder @NonNull [] pHandlerNanos, @NonNull MethodSampler pSampler,
+                     @NonNull MethodOverhead pOverhead)
+  {
+    annotations = pAnnotations;
+    handlers = pHandlers;
+    asyncTargets = pAsyncTargets;
+    sampled = pSampled;
+    handlerNanos = pHandlerNanos;
+    sampler = pSampler;
+    overhead = pOverhead;
+    overhead.bind(this);
+
+    boolean any = false;
+    boolean all = true;
+    for (boolean handlerSampled : pSampled)
+    {
+      any |= handlerSampled;
+      all &= handlerSampled;
+    }
+    anySampled = any;
+    allSampled = any && all;
+  }
+
+  /**
+   * Reduces the count of handled calls of all handlers of this chain, because they are too expensive, see {@link MethodSampler#demote()}
+   *
+   * @return a description of the new state, or null if the handlers were disabled already
+   */
+  @Nullable
+  synchronized String demote()
+  {
+    String state = sampler.demote();
+    demoted = true;
+    return state;
+  }
+
+  /**
+   * @return true, if this chain does not contain any handler
+   */
+  public boolean isEmpty()
+  {
+    return handlers.length == 0;
+  }
+
+  /**
+   * @return the count of handlers in this chain
+   */
+  public int size()
+  {
+    return handlers.length;
+  }
+
+}
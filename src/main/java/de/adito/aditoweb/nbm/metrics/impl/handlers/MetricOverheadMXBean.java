@@ -0,0 +1,70 @@
+package de.adito.aditoweb.nbm.metrics.impl.handlers;
+
+import java.util.Map;
+
+/**
+ * Exposes the time, that the metric handlers add to the metrified methods - and allows to switch the handlers off to compare it
+ *
+ * @author agent, 17.10.2026
+ */
+public interface MetricOverheadMXBean
+{
+
+  /**
+   * Name of the registered bean
+   */
+  String OBJECT_NAME = "de.adito.aditoweb.nbm.metrics:type=MetricOverhead";
+
+  /**
+   * @return the time in nanoseconds, that the handlers took in sum, keyed by the method
+   */
+  Map<String, Long> getMethodOverheadNanos();
+
+  /**
+   * @return the count of handled calls, keyed by the method
+   */
+  Map<String, Long> getMethodCalls();
+
+  /**
+   * @return the time in nanoseconds, that the handlers took in sum, keyed by the type of the handler
+   */
+  Map<String, Long> getHandlerOverheadNanos();
+
+  /**
+   * @return the methods, whose handlers got demoted because they exceeded the budget, and their new state
+   */
+  Map<String, String> getDemotedMethods();
+
+  /**
+   * @return the count of records, that were dropped because the async handlers could not keep up - keyed by the type of the handler
+   */
+  Map<String, Long> getDroppedAsyncRecords();
+
+  /**
+   * @return the count of records, that were not handled by the async handlers yet
+   */
+  long getPendingAsyncRecords();
+
+  /**
+   * @return the count of lookups, that could reuse a cached value - keyed by the cache, see {@link MetricCache}
+   */
+  Map<String, Long> getCacheHits();
+
+  /**
+   * @return the count of lookups, that had to create a new value - keyed by the cache, see {@link MetricCache}
+   */
+  Map<String, Long> getCacheMisses();
+
+  /**
+   * @return true, if the {@link MetricGate} was closed manually
+   */
+  boolean isGateClosed();
+
+  /**
+   * Closes or reopens the {@link MetricGate} manually, e.g. to compare the costs of metrified calls with and without handlers at runtime
+   *
+   * @param pClosed true, if the gate should be closed
+   */
+  void setGateClosed(boolean pClosed);
+
+}
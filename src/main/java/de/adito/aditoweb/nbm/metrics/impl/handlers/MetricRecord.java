@@ -0,0 +1,104 @@
+package de.adito.aditoweb.nbm.metrics.impl.handlers;
+
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Compact record of a single call of a metrified method, that gets passed to an {@link IAsyncMetricHandler}.
+ * Records are preallocated slots of the {@link MetricRecordRing} and get reused after they were handled,
+ * so a handler must not keep a reference to a record.
+ *
+ * @author agent, 17.10.2026
+ */
+public final class MetricRecord
+{
+
+  /**
+   * Id of the handler and method, that this record belongs to
+   */
+  int target;
+
+  /**
+   * true, if the method was finished - false, if the method was entered
+   */
+  boolean exit;
+
+  long startNanos;
+  long endNanos;
+  long threadId;
+  Throwable exception;
+  Object detail;
+  int weight;
+
+  /**
+   * Sequence of the ring, that this record was published for. Written last, so that all other values are visible to the consumer.
+   */
+  volatile long published = -1;
+
+  /**
+   * @return the result of {@link System#nanoTime()} when the method was entered, or -1 if it is unknown
+   */
+  public long getStartNanos()
+  {
+    return startNanos;
+  }
+
+  /**
+   * @return the result of {@link System#nanoTime()} when the method was finished
+   */
+  public long getEndNanos()
+  {
+    return endNanos;
+  }
+
+  /**
+   * @return the duration of the call in nanoseconds, or -1 if it is unknown
+   */
+  public long getDurationNanos()
+  {
+    return startNanos < 0 ? -1 : endNanos - startNanos;
+  }
+
+  /**
+   * @return the id of the thread, that called the method
+   */
+  public long getThreadId()
+  {
+    return threadId;
+  }
+
+  /**
+   * @return the exception that the method throwed, or NULL if it finished normally
+   */
+  @Nullable
+  public Throwable getException()
+  {
+    return exception;
+  }
+
+  /**
+   * @return the value, that the handler captured on the calling thread via {@link IAsyncMetricHandler#captureDetail(java.lang.annotation.Annotation, Object[], Object)}
+   */
+  @Nullable
+  public Object getDetail()
+  {
+    return detail;
+  }
+
+  /**
+   * @return the count of calls, that this record represents
+   */
+  public int getWeight()
+  {
+    return weight;
+  }
+
+  /**
+   * Releases all references of this record, so that the slot does not keep them alive until it gets reused
+   */
+  void clear()
+  {
+    exception = null;
+    detail = null;
+  }
+
+}
@@ -0,0 +1,175 @@
+package de.adito.aditoweb.nbm.metrics.impl.handlers;
+
+import lombok.NonNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.awt.EventQueue;
+import java.util.concurrent.atomic.*;
+import java.util.function.Consumer;
+
+/**
+ * Bounded ring of {@link MetricRecord}s with multiple producers and a single consumer.
+ * All records are allocated upfront, so publishing a record does not allocate anything.
+ * A producer claims a sequence via CAS and publishes the record by writing its sequence last,
+ * the consumer handles the records strictly in the order of their sequences.
+ * If the ring is full, the record gets dropped according to the {@link DropPolicy} - a producer never blocks.
+ *
+ * @author agent, 17.10.2026
+ */
+final class MetricRecordRing
+{
+
+  /**
+   * Count of retries, before a record gets dropped with {@link DropPolicy#RETRY_BRIEFLY}
+   */
+  private static final int RETRIES = 64;
+
+  private final MetricRecord[] slots;
+  private final int mask;
+  private final DropPolicy policy;
+  private final AtomicLong claimed = new AtomicLong();
+  private final LongAdder dropped = new LongAdder();
+  private volatile long consumed;
+
+  /**
+   * @param pCapacity Count of records, that the ring can hold. Will be rounded up to the next power of two.
+   * @param pPolicy   Policy to apply, if the ring is full
+   */
+  MetricRecordRing(int pCapacity, @NonNull DropPolicy pPolicy)
+  {
+    int capacity = pCapacity <= 2 ? 2 : Integer.highestOneBit(pCapacity - 1) << 1;
+    slots = new MetricRecord[capacity];
+    for (int i = 0; i < capacity; i++)
+      slots[i] = new MetricRecord();
+    mask = capacity - 1;
+    policy = pPolicy;
+  }
+
+  /**
+   * Publishes a record
+   *
+   * @return true, if the record was published - false, if it was dropped
+   */
+  boolean offer(int pTarget, boolean pExit, long pNanos, long pThreadId, @Nullable Throwable pException, @Nullable Object pDetail, int pWeight)
+  {
+    long sequence = _claim();
+    if (sequence < 0)
+    {
+      dropped.increment();
+      return false;
+    }
+
+    MetricRecord record = slots[(int) (sequence & mask)];
+    record.target = pTarget;
+    record.exit = pExit;
+    record.startNanos = pExit ? -1 : pNanos;
+    record.endNanos = pNanos;
+    record.threadId = pThreadId;
+    record.exception = pException;
+    record.detail = pDetail;
+    record.weight = pWeight;
+    record.published = sequence;
+    return true;
+  }
+
+  /**
+   * Passes the published records to the given consumer, in the order they were claimed.
+   * Must only be called by a single thread.
+   *
+   * @param pConsumer Consumer of the records. The records get reused after the consumer returned.
+   * @param pMax      Maximum count of records to consume
+   * @return the count of consumed records
+   */
+  int drain(@NonNull Consumer<MetricRecord> pConsumer, int pMax)
+  {
+    long sequence = consumed;
+    int count = 0;
+    while (count < pMax)
+    {
+      MetricRecord record = slots[(int) (sequence & mask)];
+      if (record.published != sequence)
+        break;
+
+      try
+      {
+        pConsumer.accept(record);
+      }
+      finally
+      {
+        record.clear();
+        sequence++;
+        count++;
+
+        // free the slot for the producers
+        consumed = sequence;
+      }
+    }
+    return count;
+  }
+
+  /**
+   * @return the count of records, that were dropped because the ring was full
+   */
+  long getDropped()
+  {
+    return dropped.sum();
+  }
+
+  /**
+   * @return the count of records, that were claimed but not consumed yet
+   */
+  long getPending()
+  {
+    return claimed.get() - consumed;
+  }
+
+  /**
+   * @return the count of records, that the ring can hold
+   */
+  int getCapacity()
+  {
+    return slots.length;
+  }
+
+  /**
+   * Claims the next sequence
+   *
+   * @return the sequence or -1, if the ring is full and the record has to be dropped
+   */
+  private long _claim()
+  {
+    int retries = -1;
+    while (true)
+    {
+      long sequence = claimed.get();
+      if (sequence - consumed >= slots.length)
+      {
+        // the event dispatch thread must never wait for analytics
+        if (retries < 0)
+          retries = policy == DropPolicy.RETRY_BRIEFLY && !EventQueue.isDispatchThread() ? RETRIES : 0;
+        if (retries-- == 0)
+          return -1;
+        Thread.onSpinWait();
+      }
+      else if (claimed.compareAndSet(sequence, sequence + 1))
+        return sequence;
+    }
+  }
+
+  /**
+   * Describes, what happens to a record if the ring is full
+   */
+  enum DropPolicy
+  {
+    /**
+     * The new record gets dropped immediately
+     */
+    DROP_NEWEST,
+
+    /**
+     * The producer retries shortly, before the new record gets dropped. The event dispatch thread drops immediately.
+     */
+    RETRY_BRIEFLY
+  }
+
+}
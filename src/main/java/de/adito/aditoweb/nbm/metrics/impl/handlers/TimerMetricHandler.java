@@ -0,0 +1,27 @@
+package de.adito.aditoweb.nbm.metrics.impl.handlers;
+
+import de.adito.aditoweb.nbm.metrics.api.types.Timed;
+import lombok.NonNull;
+
+import java.lang.reflect.Method;
+
+/**
+ * Records the latencies of methods annotated with {@link Timed} into the histogram of the method, see {@link MethodStatisticsRegistry}.
+ * The calling thread only publishes the start and end of the call, the latency gets recorded in the background.
+ *
+ * @author agent, 17.10.2026
+ */
+@MetricHandler(metric = Timed.class, capabilities = {}, sampled = true)
+class TimerMetricHandler implements IAsyncMetricHandler<Timed>
+{
+
+  @Override
+  public void handleRecord(@NonNull Timed pAnnotation, @NonNull Method pMethod, @NonNull MetricRecord pRecord)
+  {
+    // the duration is negative, if the start of the call is unknown - so there is nothing to time
+    long duration = pRecord.getDurationNanos();
+    if (duration >= 0)
+      MethodStatisticsRegistry.get(pMethod).time(duration, pRecord.getWeight());
+  }
+
+}
@@ -0,0 +1,140 @@
+package de.adito.aditoweb.nbm.metrics.impl.proxy;
+
+import lombok.NonNull;
+import net.bytebuddy.agent.builder.ResettableClassFileTransformer;
+import org.jetbrains.annotations.Nullable;
+
+import java.lang.instrument.IllegalClassFormatException;
+import java.security.ProtectionDomain;
+import java.util.function.*;
+
+/**
+ * Decorates the transformer of the agent, so that the bytes of instrumented classes are read from the {@link ClassFileCache},
+ * if the same class was instrumented the same way in a previous session already.
+ * The advice of the dynamic metrics is inlined completely into the instrumented classes, so the cached bytes are self-contained.
+ * Classes that do not get instrumented are skipped, before anything gets computed for them.
+ *
+ * @author agent, 17.10.2026
+ */
+final class CachingClassFileTransformer extends ResettableClassFileTransformer.WithDelegation
+{
+
+  private final ClassFileCache cache;
+  private final Predicate<String> instrumented;
+  private final Function<String, String> fingerprints;
+
+  /**
+   * @param pTransformer  Transformer of the agent, that instruments the classes
+   * @param pCache        Cache to use
+   * @param pInstrumented Determines by the name of a class, if the agent instruments it. All other classes are left unchanged.
+   * @param pFingerprints Returns everything that the instrumentation of a class depends on, besides its bytes - keyed by the name of the class.
+   *                      NULL, if the instrumentation of the class can not be cached.
+   */
+  CachingClassFileTransformer(@NonNull ResettableClassFileTransformer pTransformer, @NonNull ClassFileCache pCache,
+                              @NonNull Predicate<String> pInstrumented, @NonNull Function<String, String> pFingerprints)
+  {
+    super(pTransformer);
+    cache = pCache;
+    instrumented = pInstrumented;
+    fingerprints = pFingerprints;
+  }
+
+  @Nullable
+  @Override
+  public byte[] transform(@Nullable ClassLoader pLoader, @Nullable String pInternalName, @Nullable Class<?> pClassBeingRedefined,
+                          @Nullable ProtectionDomain pProtectionDomain, byte @NonNull [] pClassFileBuffer) throws IllegalClassFormatException
+  {
+    // gets called for every loaded class, so the agent does not even have to look at the ones it does not instrument
+    String name = _getInstrumentedName(pInternalName);
+    if (name == null)
+      return null;
+
+    String cacheKey = _getCacheKey(name, pClassFileBuffer);
+    byte[] cached = _read(cacheKey);
+    if (cached != null)
+      return cached;
+
+    byte[] result = classFileTransformer.transform(pLoader, pInternalName, pClassBeingRedefined, pProtectionDomain, pClassFileBuffer);
+    _write(cacheKey, name, result);
+    return result;
+  }
+
+  @Nullable
+  @Override
+  public byte[] transform(@Nullable Module pModule, @Nullable ClassLoader pLoader, @Nullable String pInternalName, @Nullable Class<?> pClassBeingRedefined,
+                          @Nullable ProtectionDomain pProtectionDomain, byte @NonNull [] pClassFileBuffer) throws IllegalClassFormatException
+  {
+    String name = _getInstrumentedName(pInternalName);
+    if (name == null)
+      return null;
+
+    String cacheKey = _getCacheKey(name, pClassFileBuffer);
+    byte[] cached = _read(cacheKey);
+    if (cached != null)
+      return cached;
+
+    byte[] result = classFileTransformer.transform(pModule, pLoader, pInternalName, pClassBeingRedefined, pProtectionDomain, pClassFileBuffer);
+    _write(cacheKey, name, result);
+    return result;
+  }
+
+  /**
+   * Returns the name of the given class, if it gets instrumented by the agent
+   *
+   * @param pInternalName Internal name of the class, e.g. "java/lang/String"
+   * @return the name, e.g. "java.lang.String", or NULL if the class does not get instrumented
+   */
+  @Nullable
+  private String _getInstrumentedName(@Nullable String pInternalName)
+  {
+    if (pInternalName == null)
+      return null;
+
+    String name = pInternalName.replace('/', '.');
+    return instrumented.test(name) ? name : null;
+  }
+
+  /**
+   * Creates the key of the given class in the cache
+   *
+   * @param pName            Name of the class
+   * @param pClassFileBuffer Original bytes of the class
+   * @return the key or NULL, if the class can not be cached
+   */
+  @Nullable
+  private String _getCacheKey(@NonNull String pName, byte @NonNull [] pClassFileBuffer)
+  {
+    String fingerprint = fingerprints.apply(pName);
+    return fingerprint == null ? null : cache.key(new byte[][]{pClassFileBuffer}, fingerprint);
+  }
+
+  /**
+   * Reads the instrumented bytes of a class from the cache
+   *
+   * @param pCacheKey Key of the class, NULL if it can not be cached
+   * @return the bytes or NULL, if they were not cached
+   */
+  @Nullable
+  private byte[] _read(@Nullable String pCacheKey)
+  {
+    if (pCacheKey == null)
+      return null;
+
+    ClassFileCache.Entry entry = cache.read(pCacheKey);
+    return entry == null ? null : entry.bytes;
+  }
+
+  /**
+   * Writes the instrumented bytes of a class to the cache
+   *
+   * @param pCacheKey Key of the class, NULL if it can not be cached
+   * @param pName     Name of the class
+   * @param pBytes    Instrumented bytes, NULL if the class was not changed
+   */
+  private void _write(@Nullable String pCacheKey, @NonNull String pName, @Nullable byte[] pBytes)
+  {
+    if (pCacheKey != null && pBytes != null)
+      cache.write(pCacheKey, pName, pBytes);
+  }
+
+}
@@ -0,0 +1,287 @@
+package de.adito.aditoweb.nbm.metrics.impl.proxy;
+
+import de.adito.aditoweb.nbm.metrics.impl.handlers.MetricCache;
+import lombok.NonNull;
+import org.jetbrains.annotations.Nullable;
+import org.openide.modules.*;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.security.*;
+import java.util.logging.*;
+import java.util.stream.Stream;
+
+/**
+ * Persistent cache for generated class files, so that proxy types and instrumented classes
+ * do not have to be generated again on every start of the IDE.
+ * Each entry is keyed by a hash of the original class bytes and of everything else, that the generated bytes depend on.
+ * All entries are stored in a directory per version of this module, so that they get invalidated automatically
+ * if the module gets updated. The directories of other versions get deleted on startup.
+ * The cache is disabled, if the version of this module is unknown (e.g. during development).
+ * Its efficiency gets counted in {@link MetricCache#CLASS_FILES}.
+ *
+ * @author agent, 17.10.2026
+ */
+final class ClassFileCache
+{
+
+  /**
+   * System property to disable the cache
+   */
+  static final String DISABLED_PROPERTY = "adito.analytics.classcache.disabled";
+
+  private static final Logger _LOGGER = Logger.getLogger(ClassFileCache.class.getName());
+  private static ClassFileCache instance;
+
+  @Nullable
+  private final Path directory;
+
+  /**
+   * @param pDirectory Directory to store the entries in, NULL if the cache is disabled
+   */
+  ClassFileCache(@Nullable Path pDirectory)
+  {
+    directory = pDirectory;
+  }
+
+  /**
+   * @return the cache of this module
+   */
+  @NonNull
+  static synchronized ClassFileCache getInstance()
+  {
+    if (instance == null)
+      instance = new ClassFileCache(_createDirectory());
+    return instance;
+  }
+
+  /**
+   * Creates the key of an entry
+   *
+   * @param pOriginalBytes Bytes of the original classes, that the generated bytes were created from
+   * @param pParts         Everything else, that the generated bytes depend on
+   * @return the key or NULL, if the cache is disabled
+   */
+  @Nullable
+  String key(byte @NonNull [][] pOriginalBytes, @NonNull String... pParts)
+  {
+    if (directory == null)
+      return null;
+
+    try
+    {
+      MessageDigest digest = MessageDigest.getInstance("SHA-256");
+      for (byte[] bytes : pOriginalBytes)
+      {
+        digest.update(bytes);
+        digest.update((byte) 0);
+      }
+      for (String part : pParts)
+      {
+        digest.update(part.getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) 0);
+      }
+
+      StringBuilder key = new StringBuilder();
+      for (byte b : digest.digest())
+        key.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+      return key.toString();
+    }
+    catch (NoSuchAlgorithmException e)
+    {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /**
+   * Reads an entry
+   *
+   * @param pKey Key of the entry, see {@link #key(byte[][], String...)}
+   * @return the entry or NULL, if it does not exist
+   */
+  @Nullable
+  Entry read(@NonNull String pKey)
+  {
+    if (directory == null)
+      return null;
+
+    Path file = directory.resolve(pKey);
+    try (DataInputStream input = new DataInputStream(new BufferedInputStream(Files.newInputStream(file))))
+    {
+      Entry entry = new Entry(input.readUTF(), input.readAllBytes());
+      MetricCache.CLASS_FILES.hit();
+      return entry;
+    }
+    catch (NoSuchFileException e)
+    {
+      MetricCache.CLASS_FILES.miss();
+      return null;
+    }
+    catch (IOException e)
+    {
+      // broken entry, will be overwritten
+      _LOGGER.log(Level.FINE, "Failed to read cached class file " + file, e);
+      MetricCache.CLASS_FILES.miss();
+      return null;
+    }
+  }
+
+  /**
+   * Writes an entry. An existing entry with the same key gets replaced.
+   *
+   * @param pKey       Key of the entry, see {@link #key(byte[][], String...)}
+   * @param pClassName Name of the generated class
+   * @param pBytes     Generated bytes
+   */
+  void write(@NonNull String pKey, @NonNull String pClassName, byte @NonNull [] pBytes)
+  {
+    if (directory == null)
+      return;
+
+    Path temp = null;
+    try
+    {
+      // write to a temporary file first, so that other instances of the IDE never read a partially written entry
+      temp = Files.createTempFile(directory, pKey, ".tmp");
+      try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp))))
+      {
+        output.writeUTF(pClassName);
+        output.write(pBytes);
+      }
+      Files.move(temp, directory.resolve(pKey), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+      temp = null;
+    }
+    catch (IOException e)
+    {
+      _LOGGER.log(Level.FINE, "Failed to cache class file of " + pClassName, e);
+    }
+    finally
+    {
+      // do not leave the temporary file behind, if it could not be moved
+      if (temp != null)
+        _deleteQuietly(temp);
+    }
+  }
+
+  /**
+   * Returns the string representation of the given object, if it is the same in every session.
+   * Keys of entries must only contain such strings, otherwise the entries would never be found again.
+   *
+   * @param pObject Object to get the string for
+   * @return the string or NULL, if it is not stable (e.g. a lambda, or the default implementation of {@link Object#toString()})
+   */
+  @Nullable
+  static String stableString(@NonNull Object pObject)
+  {
+    Class<?> type = pObject.getClass();
+    if (type.isSynthetic() || type.isAnonymousClass() || type.getName().contains("$$Lambda"))
+      return null;
+
+    String value = pObject.toString();
+    if (value == null || value.startsWith(type.getName() + "@"))
+      return null;
+    return value;
+  }
+
+  /**
+   * Creates the directory for the current version of this module and deletes the directories of all other versions
+   *
+   * @return the directory or NULL, if the cache is disabled
+   */
+  @Nullable
+  private static Path _createDirectory()
+  {
+    if (Boolean.getBoolean(DISABLED_PROPERTY))
+      return null;
+
+    try
+    {
+      String version = _getModuleVersion();
+      if (version == null)
+        return null;
+
+      Path root = Places.getCacheSubdirectory("analytics/classes").toPath();
+      try (Stream<Path> versions = Files.list(root))
+      {
+        versions
+            .filter(pPath -> !pPath.getFileName().toString().equals(version))
+            .forEach(ClassFileCache::_delete);
+      }
+      return Files.createDirectories(root.resolve(version));
+    }
+    catch (Exception e)
+    {
+      _LOGGER.log(Level.WARNING, "Failed to initialize the class file cache, generated classes will not be cached", e);
+      return null;
+    }
+  }
+
+  /**
+   * @return the version of this module, NULL if it is unknown
+   */
+  @Nullable
+  private static String _getModuleVersion()
+  {
+    ModuleInfo module = Modules.getDefault().ownerOf(ClassFileCache.class);
+    if (module == null)
+      return null;
+
+    String version = module.getImplementationVersion();
+    if (version == null && module.getSpecificationVersion() != null)
+      version = module.getSpecificationVersion().toString();
+    return version == null ? null : version.replaceAll("[^A-Za-z0-9._-]", "_");
+  }
+
+  /**
+   * Deletes the given file or directory recursively
+   *
+   * @param pPath Path to delete
+   */
+  private static void _delete(@NonNull Path pPath)
+  {
+    try (Stream<Path> paths = Files.walk(pPath))
+    {
+      paths
+          .sorted((pFirst, pSecond) -> pSecond.getNameCount() - pFirst.getNameCount())
+          .forEach(pFile -> pFile.toFile().delete());
+    }
+    catch (IOException e)
+    {
+      _LOGGER.log(Level.FINE, "Failed to delete outdated class file cache " + pPath, e);
+    }
+  }
+
+  /**
+   * Deletes the given file and ignores any failure
+   *
+   * @param pFile File to delete
+   */
+  private static void _deleteQuietly(@NonNull Path pFile)
+  {
+    try
+    {
+      Files.deleteIfExists(pFile);
+    }
+    catch (IOException e)
+    {
+      _LOGGER.log(Level.FINE, "Failed to delete temporary class file " + pFile, e);
+    }
+  }
+
+  /**
+   * Cached class file
+   */
+  static final class Entry
+  {
+    final String className;
+    final byte[] bytes;
+
+    Entry(@NonNull String pClassName, byte @NonNull [] pBytes)
+    {
+      className = pClassName;
+      bytes = pBytes;
+    }
+  }
+
+}
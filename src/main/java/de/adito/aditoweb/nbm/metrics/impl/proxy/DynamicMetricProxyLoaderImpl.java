@@ -1,26 +1,38 @@
 package de.adito.aditoweb.nbm.metrics.impl.proxy;
 
-import com.google.common.collect.*;
-import de.adito.aditoweb.nbm.metrics.impl.handlers.IMetricHandler;
-import de.adito.aditoweb.nbm.metrics.impl.proxy.dynamic.IDynamicMetricProxyLoader;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import de.adito.aditoweb.nbm.metrics.impl.handlers.*;
+import de.adito.aditoweb.nbm.metrics.impl.proxy.bootstrap.DynamicMetricDispatcher;
+import de.adito.aditoweb.nbm.metrics.impl.proxy.dynamic.*;
+import de.adito.aditoweb.nbm.metrics.impl.user.IUserAgreement;
+import de.adito.aditoweb.nbm.metrics.impl.util.AnalyticsOnStopHook;
 import lombok.*;
 import net.bytebuddy.agent.ByteBuddyAgent;
-import net.bytebuddy.agent.builder.AgentBuilder;
+import net.bytebuddy.agent.builder.*;
 import net.bytebuddy.asm.Advice;
+import net.bytebuddy.description.annotation.AnnotationDescription;
 import net.bytebuddy.description.method.MethodDescription;
+import net.bytebuddy.dynamic.ClassFileLocator;
+import net.bytebuddy.dynamic.loading.ClassInjector;
 import net.bytebuddy.implementation.bytecode.assign.Assigner;
 import net.bytebuddy.matcher.ElementMatcher;
 import org.jetbrains.annotations.Nullable;
-import org.openide.modules.Modules;
 import org.openide.util.Pair;
 import org.openide.util.lookup.ServiceProvider;
+import org.openide.windows.OnShowing;
 
+import java.io.IOException;
 import java.lang.annotation.Annotation;
+import java.lang.instrument.Instrumentation;
+import java.lang.invoke.*;
 import java.lang.reflect.*;
+import java.nio.file.*;
 import java.util.*;
+import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Predicate;
 import java.util.logging.*;
-import java.util.stream.Collectors;
+import java.util.stream.*;
 
 import static net.bytebuddy.matcher.ElementMatchers.*;
 
@@ -34,9 +46,41 @@ public class DynamicMetricProxyLoaderImpl implements IDynamicMetricProxyLoader
 {
 
   private static final Logger LOGGER = Logger.getLogger(DynamicMetricProxyLoaderImpl.class.getName());
+  private static final String DISPATCHER_CLASS = "de.adito.aditoweb.nbm.metrics.impl.proxy.bootstrap.DynamicMetricDispatcher";
+
+  /**
+   * Name of the local variable, that passes the captured arguments from the enter advice to the exit advice.
+   * The arguments are captured once per call, because every read of {@link Advice.AllArguments} creates a new array.
+   */
+  private static final String ARGUMENTS_LOCAL = "arguments";
+
+  private static final long RETRANSFORMATION_DELAY_MS = 250;
   private static final AtomicBoolean BYTEBUDDYAGENT_INSTALLED = new AtomicBoolean(false);
   private static final AtomicBoolean BYTEBUDDYAGENT_RETRANSFORMABLE = new AtomicBoolean(false);
-  private static final Multimap<Class<?>, Pair<ElementMatcher<MethodDescription>, Annotation>> PROXIED_ANNOTATIONS = HashMultimap.create();
+
+  private static final DynamicMetricRegistry PROXIED_ANNOTATIONS = new DynamicMetricRegistry();
+
+  /**
+   * Names of the registered classes, that were not retransformed yet
+   */
+  private static final Set<String> PENDING_RETRANSFORMATIONS = new LinkedHashSet<>();
+  private static final ScheduledExecutorService RETRANSFORMATION_EXECUTOR = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                                                                                                                          .setNameFormat("tDynamicMetricRetransformation-%d")
+                                                                                                                          .setDaemon(true)
+                                                                                                                          .build());
+  private static ScheduledFuture<?> scheduledRetransformation;
+  private static Instrumentation instrumentation;
+
+  /**
+   * The only transformer that gets installed on the agent. It selects the types and methods by the currently registered annotations.
+   * NULL, if the instrumentation is disabled or the agent was not installed yet.
+   */
+  private static ResettableClassFileTransformer transformer;
+
+  /**
+   * Determines, if the registered classes should be instrumented. It stays enabled until the user agreement is known.
+   */
+  private static boolean instrumentationEnabled = true;
 
   @Override
   public void loadDynamicProxy(@NonNull Class<?> pClass, @NonNull Annotation pAnnotation, @Nullable ElementMatcher<MethodDescription> pMatcher)
@@ -45,49 +89,439 @@ public class DynamicMetricProxyLoaderImpl implements IDynamicMetricProxyLoader
     {
       // Install Agent if necessary
       if (!BYTEBUDDYAGENT_INSTALLED.getAndSet(true))
+        _installAgent();
+
+      // Redefine class if possible and necessary
+      if (BYTEBUDDYAGENT_RETRANSFORMABLE.get() && PROXIED_ANNOTATIONS.register(pClass.getName(), pMatcher, pAnnotation))
       {
-        boolean retransformable = ByteBuddyAgent.install().isRetransformClassesSupported();
-        BYTEBUDDYAGENT_RETRANSFORMABLE.set(retransformable);
+        // the annotations of the class changed, so its handlers have to be resolved again
+        DynamicMetricInvocation.invalidate(pClass);
 
-        // Log once, that retransformation is not possible
-        if (!retransformable)
-          LOGGER.log(Level.WARNING, "Redefine of classes with the current JDK is not possible");
+        // the installed transformer already knows about the new registration, so only the retransformation is missing
+        _scheduleRetransformation(pClass.getName());
       }
+    }
+    catch (Throwable e) //NOSONAR catch everything, including NoSuchMethodError
+    {
+      LOGGER.log(Level.WARNING, "Failed to create a dynamic metric proxy for class " + pClass.getName(), e);
+    }
+  }
 
-      // Redefine class if possible and necessary
-      if (BYTEBUDDYAGENT_RETRANSFORMABLE.get() && PROXIED_ANNOTATIONS.put(pClass, Pair.of(pMatcher, pAnnotation)))
+  @Override
+  public void flush()
+  {
+    Set<String> classNames;
+    synchronized (PENDING_RETRANSFORMATIONS)
+    {
+      if (scheduledRetransformation != null)
+        scheduledRetransformation.cancel(false);
+      scheduledRetransformation = null;
+      classNames = new HashSet<>(PENDING_RETRANSFORMATIONS);
+      PENDING_RETRANSFORMATIONS.clear();
+    }
+
+    if (!classNames.isEmpty())
+      _retransform(classNames::contains, classNames.size() + " dynamic metric registrations");
+  }
+
+  @Override
+  public void setRules(@NonNull List<DynamicMetricRule> pRules)
+  {
+    try
+    {
+      // Install Agent if necessary
+      if (!BYTEBUDDYAGENT_INSTALLED.getAndSet(true))
+        _installAgent();
+
+      if (BYTEBUDDYAGENT_RETRANSFORMABLE.get())
+      {
+        Predicate<String> previous = PROXIED_ANNOTATIONS.getRulesMatcher();
+        PROXIED_ANNOTATIONS.setRules(pRules);
+        Predicate<String> current = PROXIED_ANNOTATIONS.getRulesMatcher();
+
+        // classes that matched the previous rules have to be retransformed too, so that they lose the removed annotations
+        _retransform(pName -> previous.test(pName) || current.test(pName), pRules.size() + " dynamic metric rules");
+      }
+    }
+    catch (Throwable e) //NOSONAR catch everything, including NoSuchMethodError
+    {
+      LOGGER.log(Level.WARNING, "Failed to apply the dynamic metric rules", e);
+    }
+  }
+
+  /**
+   * Installs the agent and our transformer. This has to be done only once.
+   */
+  private static void _installAgent() throws Exception
+  {
+    Instrumentation inst = ByteBuddyAgent.install();
+    boolean retransformable = inst.isRetransformClassesSupported();
+    if (retransformable)
+    {
+      _bindDispatcher(inst);
+      synchronized (DynamicMetricProxyLoaderImpl.class)
+      {
+        instrumentation = inst;
+        _updateTransformer();
+      }
+    }
+    BYTEBUDDYAGENT_RETRANSFORMABLE.set(retransformable);
+
+    // Log once, that retransformation is not possible
+    if (!retransformable)
+      LOGGER.log(Level.WARNING, "Redefine of classes with the current JDK is not possible");
+  }
+
+  /**
+   * Enables or disables the instrumentation of all registered classes.
+   * If disabled, our transformer gets removed from the agent and all instrumented classes get their original bytecode back,
+   * so that they do not cost anything at runtime. If enabled again, the classes will be instrumented again.
+   * The retransformation runs asynchronously on the retransformation thread, so the caller does not get blocked by it.
+   *
+   * @param pEnabled true, if the classes should be instrumented
+   */
+  static void setInstrumentationEnabled(boolean pEnabled)
+  {
+    RETRANSFORMATION_EXECUTOR.execute(() -> {
+      try
       {
-        // create matcher
-        ElementMatcher.Junction<MethodDescription> matcher = isMethod()
-            .and(not(isAbstract()));
+        synchronized (DynamicMetricProxyLoaderImpl.class)
+        {
+          instrumentationEnabled = pEnabled;
+          if (instrumentation != null)
+            _updateTransformer();
+        }
+      }
+      catch (Throwable e) //NOSONAR catch everything, including NoSuchMethodError
+      {
+        LOGGER.log(Level.WARNING, "Failed to " + (pEnabled ? "enable" : "disable") + " the dynamic metric instrumentation", e);
+      }
+    });
+  }
+
+  /**
+   * Installs or resets our transformer, so that it matches the current state of {@link #instrumentationEnabled}
+   */
+  private static synchronized void _updateTransformer()
+  {
+    long start = System.nanoTime();
+    if (instrumentationEnabled && transformer == null)
+    {
+      // select all non-abstract methods, that match any of the registrations of its class or one of its outer classes
+      ElementMatcher.Junction<MethodDescription> methodMatcher = isMethod()
+          .and(not(isAbstract()))
+          .and(DynamicMetricProxyLoaderImpl::_isProxiedMethod);
+      _RetransformationCounter retransformed = new _RetransformationCounter();
 
-        // append own matcher
-        if (pMatcher != null)
-          matcher = matcher.and(pMatcher);
+      transformer = new AgentBuilder.Default()
+          .disableClassFormatChanges()
 
-        // install to agent
-        new AgentBuilder.Default()
-            .disableClassFormatChanges()
+          // Retransform classes - all registered classes, that are already loaded, will be retransformed during installation
+          .with(AgentBuilder.RedefinitionStrategy.RETRANSFORMATION)
+          .with(retransformed)
 
-            // Retransform classes
-            .with(AgentBuilder.RedefinitionStrategy.RETRANSFORMATION)
+          // Reuse the instrumented bytes of previous sessions
+          .with(pTransformer -> new CachingClassFileTransformer(pTransformer, ClassFileCache.getInstance(), DynamicMetricProxyLoaderImpl::_isProxiedType,
+                                                                DynamicMetricProxyLoaderImpl::_getFingerprint))
 
-            // Select the given class and all of its inner and subclasses
-            .type(named(pClass.getName())
-                      .or(nameStartsWith(pClass.getName() + "$")))
+          // Select the registered classes and all of its inner classes - classes of the bootstrap loader can not see the dispatcher
+          .type(pType -> _isProxiedType(pType.getName()), not(isBootstrapClassLoader()))
 
-            // Add advices
-            .transform(new AgentBuilder.Transformer.ForAdvice()
-                           .include(Thread.currentThread().getContextClassLoader(), pClass.getClassLoader())
-                           .advice(matcher, DynamicMetricAdvice.class.getName()))
+          // Add advices - each method gets the advice, that captures only the values its handlers need
+          .transform(new AgentBuilder.Transformer.ForAdvice()
+                         .include(DynamicMetricProxyLoaderImpl.class.getClassLoader())
+                         .advice(methodMatcher.and(_captures(true, true)), DynamicMetricAdvice.class.getName())
+                         .advice(methodMatcher.and(_captures(true, false)), DynamicMetricArgumentsAdvice.class.getName())
+                         .advice(methodMatcher.and(_captures(false, true)), DynamicMetricReturnValueAdvice.class.getName())
+                         .advice(methodMatcher.and(_captures(false, false)), DynamicMetricMinimalAdvice.class.getName()))
 
-            // Install to agent
-            .installOnByteBuddyAgent();
+          // Install to agent
+          .installOn(instrumentation);
+      _logDuration("Dynamic metric instrumentation enabled, retransformed " + retransformed.count + " classes", start);
+    }
+    else if (!instrumentationEnabled && transformer != null)
+    {
+      // removes the transformer and retransforms all classes that it matches back to their original bytecode
+      transformer.reset(instrumentation, AgentBuilder.RedefinitionStrategy.RETRANSFORMATION);
+      transformer = null;
+      _logDuration("Dynamic metric instrumentation disabled", start);
+    }
+  }
+
+  /**
+   * Logs, how long an operation took
+   *
+   * @param pMessage Message that describes the operation
+   * @param pStart   Result of {@link System#nanoTime()} at the start of the operation
+   */
+  private static void _logDuration(@NonNull String pMessage, long pStart)
+  {
+    long durationMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - pStart);
+    LOGGER.log(Level.INFO, () -> pMessage + " in " + durationMs + " ms");
+  }
+
+  /**
+   * Marks the given class to be retransformed and (re-)starts the delay, after which all marked classes will be retransformed in a single pass
+   *
+   * @param pClassName Name of the class to retransform
+   */
+  private void _scheduleRetransformation(@NonNull String pClassName)
+  {
+    synchronized (PENDING_RETRANSFORMATIONS)
+    {
+      PENDING_RETRANSFORMATIONS.add(pClassName);
+      if (scheduledRetransformation != null)
+        scheduledRetransformation.cancel(false);
+      scheduledRetransformation = RETRANSFORMATION_EXECUTOR.schedule(this::flush, RETRANSFORMATION_DELAY_MS, TimeUnit.MILLISECONDS);
+    }
+  }
+
+  /**
+   * Retransforms all loaded classes with the given names, including their inner classes, in a single pass
+   *
+   * @param pClassNames  Matches the names of the registered classes
+   * @param pDescription Description of the registrations, to log
+   */
+  private static synchronized void _retransform(@NonNull Predicate<String> pClassNames, @NonNull String pDescription)
+  {
+    if (instrumentation == null)
+      return;
+
+    long start = System.nanoTime();
+    Class<?>[] classes = Arrays.stream(instrumentation.getAllLoadedClasses())
+        .filter(pClass -> pClass.getClassLoader() != null && instrumentation.isModifiableClass(pClass))
+        .filter(pClass -> _getNameHierarchy(pClass.getName()).stream().anyMatch(pClassNames))
+        .toArray(Class<?>[]::new);
+
+    // the registrations of the classes changed, so their handlers have to be resolved again
+    for (Class<?> clazz : classes)
+      DynamicMetricInvocation.invalidate(clazz);
+
+    // the classes will be retransformed, as soon as the instrumentation gets enabled again
+    if (transformer == null)
+      return;
+
+    try
+    {
+      if (classes.length > 0)
+        instrumentation.retransformClasses(classes);
+    }
+    catch (Throwable e) //NOSONAR a single class may fail the whole batch
+    {
+      // retry one by one, so that only the failing classes will not be instrumented
+      for (Class<?> clazz : classes)
+      {
+        try
+        {
+          instrumentation.retransformClasses(clazz);
+        }
+        catch (Throwable ex) //NOSONAR catch everything, including VerifyError
+        {
+          LOGGER.log(Level.WARNING, "Failed to retransform class " + clazz.getName(), ex);
+        }
       }
     }
-    catch (Throwable e) //NOSONAR catch everything, including NoSuchMethodError
+
+    _logDuration("Retransformed " + classes.length + " classes for " + pDescription, start);
+  }
+
+  /**
+   * Determines, if the type with the given name or one of its outer types got registered
+   *
+   * @param pTypeName Name of the type
+   * @return true, if the type has to be instrumented
+   */
+  private static boolean _isProxiedType(@NonNull String pTypeName)
+  {
+    // gets called on every class load, so the outer types are checked by prefix instead of creating their names
+    return PROXIED_ANNOTATIONS.containsWithOuter(pTypeName);
+  }
+
+  /**
+   * Determines, if the given method matches any registration of its declaring type or one of its outer types
+   *
+   * @param pMethod Method to check
+   * @return true, if the method has to be instrumented
+   */
+  private static boolean _isProxiedMethod(@NonNull MethodDescription pMethod)
+  {
+    for (String name : _getNameHierarchy(pMethod.getDeclaringType().asErasure().getName()))
+      for (Pair<ElementMatcher<MethodDescription>, Annotation> registration : PROXIED_ANNOTATIONS.get(name))
+        if (registration.first() == null || registration.first().matches(pMethod))
+          return true;
+    return false;
+  }
+
+  /**
+   * Describes all registrations, that select the methods of the given type to instrument.
+   * Together with the bytes of the type, it determines the bytes of the instrumented type.
+   *
+   * @param pTypeName Name of the type
+   * @return the fingerprint or NULL, if the type does not get instrumented or one of its registrations does not have a stable description
+   */
+  @Nullable
+  private static String _getFingerprint(@NonNull String pTypeName)
+  {
+    StringBuilder fingerprint = new StringBuilder();
+    for (String name : _getNameHierarchy(pTypeName))
+      for (Pair<ElementMatcher<MethodDescription>, Annotation> registration : PROXIED_ANNOTATIONS.get(name))
+      {
+        String matcher = registration.first() == null ? "any" : ClassFileCache.stableString(registration.first());
+        String annotation = ClassFileCache.stableString(registration.second());
+        if (matcher == null || annotation == null)
+          return null;
+
+        fingerprint.append(name).append('|').append(matcher).append('|').append(annotation).append('|')
+            .append(IMetricHandler.Accessor.getCapabilities(registration.second().annotationType().getName())).append('\n');
+      }
+    return fingerprint.length() == 0 ? null : fingerprint.toString();
+  }
+
+  /**
+   * Creates a matcher for all methods, whose handlers need exactly the given values
+   *
+   * @param pArguments   true, if the arguments have to be captured
+   * @param pReturnValue true, if the return value has to be captured
+   * @return the matcher
+   */
+  @NonNull
+  private static ElementMatcher<MethodDescription> _captures(boolean pArguments, boolean pReturnValue)
+  {
+    return pMethod -> {
+      Set<MetricCapability> capabilities = _getCapabilities(pMethod);
+      return capabilities.contains(MetricCapability.ARGUMENTS) == pArguments && capabilities.contains(MetricCapability.RETURN_VALUE) == pReturnValue;
+    };
+  }
+
+  /**
+   * Combines the capabilities of all handlers, that will be triggered by the given method.
+   * Those are the handlers of its own annotations and of all registrations of its declaring type or one of its outer types, that match the method.
+   *
+   * @param pMethod Method to check
+   * @return the values of a call of the method, that have to be captured
+   */
+  @NonNull
+  private static Set<MetricCapability> _getCapabilities(@NonNull MethodDescription pMethod)
+  {
+    Set<MetricCapability> capabilities = EnumSet.noneOf(MetricCapability.class);
+    for (AnnotationDescription annotation : pMethod.getDeclaredAnnotations())
+      capabilities.addAll(IMetricHandler.Accessor.getCapabilities(annotation.getAnnotationType().getName()));
+    for (String name : _getNameHierarchy(pMethod.getDeclaringType().asErasure().getName()))
+      for (Pair<ElementMatcher<MethodDescription>, Annotation> registration : PROXIED_ANNOTATIONS.get(name))
+        if (registration.first() == null || registration.first().matches(pMethod))
+          capabilities.addAll(IMetricHandler.Accessor.getCapabilities(registration.second().annotationType().getName()));
+    return capabilities;
+  }
+
+  /**
+   * Returns the given name and the names of all outer types, e.g. "a.B$C$D" results in "a.B$C$D", "a.B$C" and "a.B"
+   *
+   * @param pTypeName Name of the type
+   * @return the names
+   */
+  @NonNull
+  private static List<String> _getNameHierarchy(@NonNull String pTypeName)
+  {
+    List<String> names = new ArrayList<>(2);
+    names.add(pTypeName);
+    for (int index = pTypeName.lastIndexOf('$'); index > 0; index = pTypeName.lastIndexOf('$', index - 1))
+      names.add(pTypeName.substring(0, index));
+    return names;
+  }
+
+  /**
+   * Injects the {@link DynamicMetricDispatcher} into the bootstrap classloader and binds its call sites
+   * to our {@link DynamicMetricInvocation} class. This has to be done only once.
+   *
+   * @param pInstrumentation Instrumentation of the installed agent
+   */
+  private static void _bindDispatcher(@NonNull Instrumentation pInstrumentation) throws Exception
+  {
+    // Inject the dispatcher into the bootstrap classloader, so that it is visible to every instrumented class.
+    // Do not load it with our own classloader, because then our module would see another class than the instrumented ones.
+    byte[] dispatcherBytes = ClassFileLocator.ForClassLoader.of(DynamicMetricProxyLoaderImpl.class.getClassLoader())
+        .locate(DISPATCHER_CLASS)
+        .resolve();
+    Path tempDirectory = Files.createTempDirectory("adito-analytics");
+    try
     {
-      LOGGER.log(Level.WARNING, "Failed to create a dynamic metric proxy for class " + pClass.getName(), e);
+      ClassInjector.UsingInstrumentation.of(tempDirectory.toFile(), ClassInjector.UsingInstrumentation.Target.BOOTSTRAP, pInstrumentation)
+          .injectRaw(Map.of(DISPATCHER_CLASS, dispatcherBytes));
+    }
+    finally
+    {
+      // the jar, that was appended to the bootstrap classpath, is opened already - so its directory is not needed anymore
+      _delete(tempDirectory);
+    }
+
+    // Bind the call sites of the injected class
+    Class<?> dispatcher = Class.forName(DISPATCHER_CLASS, true, null);
+    MutableCallSite enterSite = (MutableCallSite) dispatcher.getField("ENTER_SITE").get(null);
+    MutableCallSite exitSite = (MutableCallSite) dispatcher.getField("EXIT_SITE").get(null);
+    MethodHandles.Lookup lookup = MethodHandles.lookup();
+    enterSite.setTarget(lookup.findStatic(DynamicMetricInvocation.class, "methodEntered", enterSite.type()));
+    exitSite.setTarget(lookup.findStatic(DynamicMetricInvocation.class, "methodExited", exitSite.type()));
+    MutableCallSite.syncAll(new MutableCallSite[]{enterSite, exitSite});
+
+    // Mirror the state of the gate, so that the advices do not have to dispatch anything while it is closed
+    Field openField = dispatcher.getField("open");
+    MetricGate.addListener(pOpen -> _setDispatcherOpen(openField, pOpen));
+  }
+
+  /**
+   * Sets the state of the gate, that the advices read
+   *
+   * @param pOpenField Field of the injected {@link DynamicMetricDispatcher}, that contains the state
+   * @param pOpen      true, if the gate is open
+   */
+  private static void _setDispatcherOpen(@NonNull Field pOpenField, boolean pOpen)
+  {
+    try
+    {
+      pOpenField.setBoolean(null, pOpen);
+    }
+    catch (IllegalAccessException e)
+    {
+      LOGGER.log(Level.WARNING, "Failed to update the state of the dynamic metric dispatcher", e);
+    }
+  }
+
+  /**
+   * Deletes the given directory and all of its contents.
+   * Files that can not be deleted (e.g. because they are still opened on windows) will be deleted on exit.
+   *
+   * @param pDirectory Directory to delete
+   */
+  private static void _delete(@NonNull Path pDirectory)
+  {
+    try (Stream<Path> paths = Files.walk(pDirectory))
+    {
+      paths
+          .sorted(Comparator.reverseOrder())
+          .map(Path::toFile)
+          .forEach(pFile -> {
+            if (!pFile.delete())
+              pFile.deleteOnExit();
+          });
+    }
+    catch (IOException e)
+    {
+      LOGGER.log(Level.FINE, "Failed to delete the temporary directory " + pDirectory, e);
+    }
+  }
+
+  /**
+   * Enables the instrumentation only while the user allows to send analytics
+   */
+  @OnShowing
+  public static class UserAgreementHook implements Runnable
+  {
+    @Override
+    public void run()
+    {
+      AnalyticsOnStopHook.addDisposable(IUserAgreement.getInstance().sendingAnalyticsAllowed()
+                                            .distinctUntilChanged()
+                                            .subscribe(DynamicMetricProxyLoaderImpl::setInstrumentationEnabled));
     }
   }
 
@@ -96,6 +530,7 @@ public class DynamicMetricProxyLoaderImpl implements IDynamicMetricProxyLoader
    * See {@link Advice} for more information about using advices.
    * Be careful if you refactor this code - it will be "copy-pasted" into already living
    * objects (via byte code manipulation) and has to be completely standalone!
+   * Only the {@link DynamicMetricDispatcher} may be referenced, because it is visible from the bootstrap classloader.
    */
   @SuppressWarnings("unused")
   private static class DynamicMetricAdvice
@@ -104,24 +539,25 @@ public class DynamicMetricProxyLoaderImpl implements IDynamicMetricProxyLoader
      * Gets called by bytebuddy, if an instrumented method was entered.
      * This method delegates its invocation to our {@link DynamicMetricInvocation} class, so it can be handled during runtime.
      *
-     * @param pTarget    Target object that was instrumented (mainly known as "this")
-     * @param pMethod    Method that was instrumented
-     * @param pArguments Arguments of the method
+     * @param pTarget            Target object that was instrumented (mainly known as "this")
+     * @param pType              Type that declares the instrumented method
+     * @param pMethod            Name and descriptor of the method that was instrumented
+     * @param pArguments         Arguments of the method
+     * @param pCapturedArguments Local variable, that keeps the arguments for the exit advice
+     * @return the entered call to pass to the exit advice
      */
     @SneakyThrows // will be suppressed by byte-buddy
     @Advice.OnMethodEnter(suppress = Throwable.class)
-    public static Map<String, Object> onMethodEnter(@Advice.This(typing = Assigner.Typing.DYNAMIC, optional = true) Object pTarget,
-                                                    @Advice.Origin Method pMethod, @Advice.AllArguments Object[] pArguments)
+    public static Object onMethodEnter(@Advice.This(typing = Assigner.Typing.DYNAMIC, optional = true) Object pTarget,
+                                       @Advice.Origin Class<?> pType, @Advice.Origin("#m#d") String pMethod, @Advice.AllArguments Object[] pArguments,
+                                       @Advice.Local(ARGUMENTS_LOCAL) Object[] pCapturedArguments)
     {
-      Map<String, Object> hints = new HashMap<>();
-
-      // invoke method
-      Modules.getDefault().findCodeNameBase("de.adito.aditoweb.nbm.analytics").getClassLoader()
-          .loadClass("de.adito.aditoweb.nbm.metrics.impl.proxy.DynamicMetricProxyLoaderImpl$DynamicMetricInvocation")
-          .getDeclaredMethod("methodEntered", Object.class, Method.class, Object[].class, Map.class)
-          .invoke(null, pTarget, pMethod, pArguments == null ? new Object[0] : pArguments, hints);
+      // the arguments array gets created on the first read of the parameter, so it must not be touched while the gate is closed
+      if (!DynamicMetricDispatcher.open)
+        return null;
 
-      return hints;
+      pCapturedArguments = pArguments;
+      return (Object) DynamicMetricDispatcher.ENTER.invokeExact(pTarget, pType, pMethod, pCapturedArguments);
     }
 
     /**
@@ -129,65 +565,220 @@ public class DynamicMetricProxyLoaderImpl implements IDynamicMetricProxyLoader
      * This method delegates its invocation to our {@link DynamicMetricInvocation} class, so it can be handled during runtime.
      *
      * @param pTarget      Target object that was instrumented (mainly known as "this")
-     * @param pMethod      Method that was instrumented
-     * @param pArguments   Arguments of the method
-     * @param pHints       Hints to be used in metric handlers
+     * @param pArguments   Arguments of the method, as captured by the enter advice
+     * @param pEntered     Call that was returned by the enter advice, NULL if nothing has to be done
      * @param pReturnValue Object that the instrumented method returned. NULL if an exception occured
      * @param pThrowable   Exception that the instrumented method throwed. NULL if no exception was thrown during execution.
      */
     @SneakyThrows // will be suppressed by byte-buddy
     @Advice.OnMethodExit(suppress = Throwable.class, onThrowable = Throwable.class)
     public static void onMethodExit(@Advice.This(typing = Assigner.Typing.DYNAMIC, optional = true) Object pTarget,
-                                    @Advice.Origin Method pMethod, @Advice.AllArguments Object[] pArguments,
-                                    @Advice.Enter Map<String, Object> pHints,
+                                    @Advice.Local(ARGUMENTS_LOCAL) Object[] pArguments, @Advice.Enter Object pEntered,
                                     @Advice.Return(typing = Assigner.Typing.DYNAMIC) Object pReturnValue,
                                     @Advice.Thrown(typing = Assigner.Typing.DYNAMIC) Throwable pThrowable)
     {
-      // invoke method
-      Modules.getDefault().findCodeNameBase("de.adito.aditoweb.nbm.analytics").getClassLoader()
-          .loadClass("de.adito.aditoweb.nbm.metrics.impl.proxy.DynamicMetricProxyLoaderImpl$DynamicMetricInvocation")
-          .getDeclaredMethod("methodExited", Object.class, Method.class, Object[].class, Map.class, Object.class, Throwable.class)
-          .invoke(null, pTarget, pMethod, pArguments == null ? new Object[0] : pArguments, pHints, pReturnValue, pThrowable);
+      if (pEntered != null)
+        DynamicMetricDispatcher.EXIT.invokeExact(pTarget, pArguments, pEntered, pReturnValue, pThrowable);
+    }
+  }
+
+  /**
+   * Same as {@link DynamicMetricAdvice}, but without capturing the return value.
+   * Used for methods, whose handlers do not need the return value, so that it does not have to be boxed.
+   */
+  @SuppressWarnings("unused")
+  private static class DynamicMetricArgumentsAdvice
+  {
+    @SneakyThrows // will be suppressed by byte-buddy
+    @Advice.OnMethodEnter(suppress = Throwable.class)
+    public static Object onMethodEnter(@Advice.This(typing = Assigner.Typing.DYNAMIC, optional = true) Object pTarget,
+                                       @Advice.Origin Class<?> pType, @Advice.Origin("#m#d") String pMethod, @Advice.AllArguments Object[] pArguments,
+                                       @Advice.Local(ARGUMENTS_LOCAL) Object[] pCapturedArguments)
+    {
+      if (!DynamicMetricDispatcher.open)
+        return null;
+
+      pCapturedArguments = pArguments;
+      return (Object) DynamicMetricDispatcher.ENTER.invokeExact(pTarget, pType, pMethod, pCapturedArguments);
+    }
+
+    @SneakyThrows // will be suppressed by byte-buddy
+    @Advice.OnMethodExit(suppress = Throwable.class, onThrowable = Throwable.class)
+    public static void onMethodExit(@Advice.This(typing = Assigner.Typing.DYNAMIC, optional = true) Object pTarget,
+                                    @Advice.Local(ARGUMENTS_LOCAL) Object[] pArguments, @Advice.Enter Object pEntered,
+                                    @Advice.Thrown(typing = Assigner.Typing.DYNAMIC) Throwable pThrowable)
+    {
+      if (pEntered != null)
+        DynamicMetricDispatcher.EXIT.invokeExact(pTarget, pArguments, pEntered, (Object) null, pThrowable);
+    }
+  }
+
+  /**
+   * Same as {@link DynamicMetricAdvice}, but without capturing the arguments.
+   * Used for methods, whose handlers do not need the arguments, so that no argument array has to be allocated.
+   */
+  @SuppressWarnings("unused")
+  private static class DynamicMetricReturnValueAdvice
+  {
+    @SneakyThrows // will be suppressed by byte-buddy
+    @Advice.OnMethodEnter(suppress = Throwable.class)
+    public static Object onMethodEnter(@Advice.This(typing = Assigner.Typing.DYNAMIC, optional = true) Object pTarget,
+                                       @Advice.Origin Class<?> pType, @Advice.Origin("#m#d") String pMethod)
+    {
+      if (!DynamicMetricDispatcher.open)
+        return null;
+
+      return (Object) DynamicMetricDispatcher.ENTER.invokeExact(pTarget, pType, pMethod, (Object[]) null);
+    }
+
+    @SneakyThrows // will be suppressed by byte-buddy
+    @Advice.OnMethodExit(suppress = Throwable.class, onThrowable = Throwable.class)
+    public static void onMethodExit(@Advice.This(typing = Assigner.Typing.DYNAMIC, optional = true) Object pTarget,
+                                    @Advice.Enter Object pEntered, @Advice.Return(typing = Assigner.Typing.DYNAMIC) Object pReturnValue,
+                                    @Advice.Thrown(typing = Assigner.Typing.DYNAMIC) Throwable pThrowable)
+    {
+      if (pEntered != null)
+        DynamicMetricDispatcher.EXIT.invokeExact(pTarget, (Object[]) null, pEntered, pReturnValue, pThrowable);
+    }
+  }
+
+  /**
+   * Same as {@link DynamicMetricAdvice}, but without capturing the arguments and the return value.
+   * Used for methods, whose handlers only need the call itself (e.g. {@link de.adito.aditoweb.nbm.metrics.api.types.Traced}),
+   * so that the call does not allocate anything.
+   */
+  @SuppressWarnings("unused")
+  private static class DynamicMetricMinimalAdvice
+  {
+    @SneakyThrows // will be suppressed by byte-buddy
+    @Advice.OnMethodEnter(suppress = Throwable.class)
+    public static Object onMethodEnter(@Advice.This(typing = Assigner.Typing.DYNAMIC, optional = true) Object pTarget,
+                                       @Advice.Origin Class<?> pType, @Advice.Origin("#m#d") String pMethod)
+    {
+      if (!DynamicMetricDispatcher.open)
+        return null;
+
+      return (Object) DynamicMetricDispatcher.ENTER.invokeExact(pTarget, pType, pMethod, (Object[]) null);
+    }
+
+    @SneakyThrows // will be suppressed by byte-buddy
+    @Advice.OnMethodExit(suppress = Throwable.class, onThrowable = Throwable.class)
+    public static void onMethodExit(@Advice.This(typing = Assigner.Typing.DYNAMIC, optional = true) Object pTarget,
+                                    @Advice.Enter Object pEntered, @Advice.Thrown(typing = Assigner.Typing.DYNAMIC) Throwable pThrowable)
+    {
+      if (pEntered != null)
+        DynamicMetricDispatcher.EXIT.invokeExact(pTarget, (Object[]) null, pEntered, (Object) null, pThrowable);
     }
   }
 
   /**
    * The static methods of this class will be called from
-   * "hijacked" methods by {@link DynamicMetricAdvice}
+   * "hijacked" methods by {@link DynamicMetricAdvice} and its variants, via the call sites of {@link DynamicMetricDispatcher}
    */
-  @SuppressWarnings("unused") // Reflection by DynamicMetricAdvice
+  @SuppressWarnings("unused") // MethodHandles by DynamicMetricDispatcher
   @NoArgsConstructor(access = AccessLevel.PRIVATE)
   protected static class DynamicMetricInvocation
   {
     protected static final IMetricHandler.Accessor ACCESSOR = new IMetricHandler.Accessor();
 
+    /**
+     * Caches the resolved methods and its handler chains per type, so that the lookup only has to be done once per instrumented method
+     */
+    private static final ClassValue<Map<String, ResolvedMethod>> METHODS = new ClassValue<>()
+    {
+      @Override
+      protected Map<String, ResolvedMethod> computeValue(Class<?> pType)
+      {
+        return new ConcurrentHashMap<>();
+      }
+    };
+
     /**
      * Gets called by {@link DynamicMetricAdvice}, if an instrumented method was entered.
      *
      * @param pTarget    Target object that was instrumented (mainly known as "this")
-     * @param pMethod    Method that was instrumented
-     * @param pArguments Arguments of the method
-     * @param pHints     Hints field to be used in metric handlers
+     * @param pType      Type that declares the instrumented method
+     * @param pMethod    Name and descriptor of the method that was instrumented
+     * @param pArguments Arguments of the method, NULL if no handler needs them
+     * @return the entered call, that has to be passed to {@link #methodExited(Object, Object[], Object, Object, Throwable)}.
+     * NULL, if the method does not have any handlers, so nothing has to be done after the method.
      */
-    public static void methodEntered(@Nullable Object pTarget, @NonNull Method pMethod, Object @NonNull [] pArguments, @NonNull Map<String, Object> pHints)
+    @Nullable
+    public static Object methodEntered(@Nullable Object pTarget, @NonNull Class<?> pType, @NonNull String pMethod, Object @Nullable [] pArguments)
     {
-      ACCESSOR.beforeMethodCall(pTarget, pMethod, new DynamicAnnotatedElement(pMethod, findAnnotationsForMethod(pMethod)), pArguments, pHints);
+      ResolvedMethod method = resolveMethod(pType, pMethod);
+      if (method.chain.isEmpty())
+        return null;
+
+      // the resolved method gets passed to the exit, because the resolved methods of the type may be invalidated during the call
+      Object hints = ACCESSOR.beforeMethodCall(pTarget, method.method, method.chain, pArguments == null ? IMetricHandler.Accessor.NO_ARGUMENTS : pArguments);
+      return hints == null ? method : new EnteredMethod(method, hints);
     }
 
     /**
      * Gets called by {@link DynamicMetricAdvice}, if an instrumented method was exited.
      *
      * @param pTarget      Target object that was instrumented (mainly known as "this")
-     * @param pMethod      Method that was instrumented
-     * @param pArguments   Arguments of the method
-     * @param pHints       Hints field to be used in metric handlers
+     * @param pArguments   Arguments of the method, NULL if no handler needs them
+     * @param pEntered     Call that was returned by {@link #methodEntered(Object, Class, String, Object[])}
      * @param pReturnValue Object that the instrumented method returned. NULL if an exception occured
      * @param pThrowable   Exception that the instrumented method throwed. NULL if no exception was thrown during execution.
      */
-    public static void methodExited(@Nullable Object pTarget, @NonNull Method pMethod, Object @NonNull [] pArguments, @NonNull Map<String, Object> pHints,
+    public static void methodExited(@Nullable Object pTarget, Object @Nullable [] pArguments, @NonNull Object pEntered,
                                     @Nullable Object pReturnValue, @Nullable Throwable pThrowable)
     {
-      ACCESSOR.afterMethodCall(pTarget, pMethod, new DynamicAnnotatedElement(pMethod, findAnnotationsForMethod(pMethod)), pArguments, pHints, pReturnValue, pThrowable);
+      ResolvedMethod method;
+      Object hints;
+      if (pEntered instanceof EnteredMethod)
+      {
+        method = ((EnteredMethod) pEntered).method;
+        hints = ((EnteredMethod) pEntered).hints;
+      }
+      else
+      {
+        method = (ResolvedMethod) pEntered;
+        hints = null;
+      }
+
+      ACCESSOR.afterMethodCall(pTarget, method.method, method.chain, pArguments == null ? IMetricHandler.Accessor.NO_ARGUMENTS : pArguments,
+                               hints, pReturnValue, pThrowable);
+    }
+
+    /**
+     * Resolves the method that was instrumented and its handlers.
+     * The lookup is cached, so this is a simple map access after the first call.
+     *
+     * @param pType   Type that declares the method
+     * @param pMethod Name and descriptor of the method, as given by {@link Advice.Origin} with pattern "#m#d"
+     * @return the method
+     */
+    @NonNull
+    protected static ResolvedMethod resolveMethod(@NonNull Class<?> pType, @NonNull String pMethod)
+    {
+      Map<String, ResolvedMethod> methods = METHODS.get(pType);
+      ResolvedMethod resolved = methods.get(pMethod);
+      if (resolved == null)
+        resolved = methods.computeIfAbsent(pMethod, pSignature -> {
+          Method method = ResolvedMethod.findMethod(pType, pSignature);
+          return new ResolvedMethod(method, ACCESSOR.createChain(method, new DynamicAnnotatedElement(method, findAnnotationsForMethod(method))));
+        });
+      return resolved;
+    }
+
+    /**
+     * Invalidates all resolved methods of the given type, so that the handlers will be resolved again on the next call.
+     * The previously resolved chains get released.
+     *
+     * @param pType Type to invalidate
+     */
+    protected static void invalidate(@NonNull Class<?> pType)
+    {
+      Map<String, ResolvedMethod> methods = METHODS.get(pType);
+      METHODS.remove(pType);
+
+      // the chains will be resolved again, so the previous ones must not be published anymore
+      for (ResolvedMethod method : methods.values())
+        ACCESSOR.releaseChain(method.method, method.chain);
     }
 
     /**
@@ -199,16 +790,31 @@ public class DynamicMetricProxyLoaderImpl implements IDynamicMetricProxyLoader
     @NonNull
     private static List<Annotation> findAnnotationsForMethod(@NonNull Method pMethod)
     {
-      Collection<Pair<ElementMatcher<MethodDescription>, Annotation>> cached = PROXIED_ANNOTATIONS.get(pMethod.getDeclaringClass());
-      if (cached == null)
+      List<Pair<ElementMatcher<MethodDescription>, Annotation>> cached = PROXIED_ANNOTATIONS.get(pMethod.getDeclaringClass().getName());
+      if (cached.isEmpty())
         return List.of();
 
+      MethodDescription description = new MethodDescription.ForLoadedMethod(pMethod);
       return cached.stream()
-          .filter(pPair -> pPair.first() == null || pPair.first().matches(new MethodDescription.ForLoadedMethod(pMethod)))
+          .filter(pPair -> pPair.first() == null || pPair.first().matches(description))
           .map(Pair::second)
           .collect(Collectors.toList());
     }
 
+    /**
+     * Method that was entered, combined with the hints of its handlers.
+     * Only created if a handler stored a hint, otherwise the {@link ResolvedMethod} itself represents the entered call.
+     */
+    @RequiredArgsConstructor
+    private static final class EnteredMethod
+    {
+      @NonNull
+      private final ResolvedMethod method;
+
+      @NonNull
+      private final Object hints;
+    }
+
     /**
      * Represents an {@link AnnotatedElement} with dynamic additional elements, given in constructor
      */
@@ -249,4 +855,19 @@ public class DynamicMetricProxyLoaderImpl implements IDynamicMetricProxyLoader
       }
     }
   }
+
+  /**
+   * Counts the classes, that get retransformed while the transformer gets installed
+   */
+  private static class _RetransformationCounter extends AgentBuilder.RedefinitionStrategy.Listener.Adapter
+  {
+    private int count;
+
+    @Override
+    public void onBatch(int pIndex, @NonNull List<Class<?>> pBatch, @NonNull List<Class<?>> pTypes)
+    {
+      count += pBatch.size();
+    }
+  }
+
 }
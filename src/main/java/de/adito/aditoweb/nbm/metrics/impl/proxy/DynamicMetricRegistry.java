@@ -0,0 +1,181 @@
+package de.adito.aditoweb.nbm.metrics.impl.proxy;
+
+import de.adito.aditoweb.nbm.metrics.impl.proxy.dynamic.DynamicMetricRule;
+import lombok.NonNull;
+import net.bytebuddy.description.method.MethodDescription;
+import net.bytebuddy.matcher.ElementMatcher;
+import org.jetbrains.annotations.Nullable;
+import org.openide.util.Pair;
+
+import java.lang.annotation.Annotation;
+import java.util.*;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+/**
+ * Contains all annotations, that were registered dynamically for a class or by a {@link DynamicMetricRule}.
+ * The registrations are read on every class load and on every first call of an instrumented method,
+ * so reads only access an immutable snapshot. Writes are rare and publish a new snapshot.
+ *
+ * @author agent, 17.10.2026
+ */
+final class DynamicMetricRegistry
+{
+
+  /**
+   * Packages, whose classes are never matched by rules - instrumenting them would recurse into the dispatching of the metrics,
+   * because the dispatching and the handlers use them themselves
+   */
+  private static final List<String> _EXCLUDED_PACKAGES = List.of("de.adito.aditoweb.nbm.metrics.", "net.bytebuddy.", "java.", "jdk.", "sun.", "com.sun.",
+                                                                 "io.sentry.", "com.google.common.", "org.openide.util.", "lombok.");
+
+  /**
+   * Immutable snapshot of the registrations, keyed by the name of the class they were registered for
+   */
+  private volatile Map<String, List<Pair<ElementMatcher<MethodDescription>, Annotation>>> registrations = Map.of();
+
+  /**
+   * Immutable snapshot of the names of all registered classes, so that they can be checked without creating an iterator
+   */
+  private volatile String[] registeredNames = new String[0];
+
+  /**
+   * Immutable snapshot of the rules
+   */
+  private volatile _Rules rules = new _Rules(List.of());
+
+  /**
+   * Registers the given annotation for the class with the given name
+   *
+   * @param pClassName  Name of the class
+   * @param pMatcher    Matcher for the methods of the class, null matches all methods
+   * @param pAnnotation Annotation to register
+   * @return true, if the registration was new
+   */
+  public synchronized boolean register(@NonNull String pClassName, @Nullable ElementMatcher<MethodDescription> pMatcher,
+                                       @NonNull Annotation pAnnotation)
+  {
+    Pair<ElementMatcher<MethodDescription>, Annotation> registration = Pair.of(pMatcher, pAnnotation);
+    List<Pair<ElementMatcher<MethodDescription>, Annotation>> current = get(pClassName);
+    if (current.contains(registration))
+      return false;
+
+    List<Pair<ElementMatcher<MethodDescription>, Annotation>> changed = new ArrayList<>(current);
+    changed.add(registration);
+    Map<String, List<Pair<ElementMatcher<MethodDescription>, Annotation>>> snapshot = new HashMap<>(registrations);
+    snapshot.put(pClassName, Collections.unmodifiableList(changed));
+    registrations = Collections.unmodifiableMap(snapshot);
+    registeredNames = snapshot.keySet().toArray(new String[0]);
+    return true;
+  }
+
+  /**
+   * Replaces all rules
+   *
+   * @param pRules New rules
+   */
+  public void setRules(@NonNull List<DynamicMetricRule> pRules)
+  {
+    rules = new _Rules(List.copyOf(pRules));
+  }
+
+  /**
+   * @return a predicate for class names, that matches all classes that are selected by the current rules
+   */
+  @NonNull
+  public Predicate<String> getRulesMatcher()
+  {
+    return rules::matches;
+  }
+
+  /**
+   * @param pClassName Name of the class
+   * @return true, if anything was registered for the class with the given name
+   */
+  public boolean contains(@NonNull String pClassName)
+  {
+    return registrations.containsKey(pClassName) || rules.matches(pClassName);
+  }
+
+  /**
+   * Checks, if anything was registered for the class with the given name or one of its outer classes.
+   * This gets checked on every class load, so the outer classes are checked by their prefix instead of creating their names.
+   *
+   * @param pClassName Name of the class
+   * @return true, if anything was registered for the class or one of its outer classes
+   */
+  public boolean containsWithOuter(@NonNull String pClassName)
+  {
+    for (String name : registeredNames)
+      if (pClassName.startsWith(name) && (pClassName.length() == name.length() || pClassName.charAt(name.length()) == '$'))
+        return true;
+    return rules.matchesWithOuter(pClassName);
+  }
+
+  /**
+   * @param pClassName Name of the class
+   * @return the immutable registrations of the class with the given name, including the matching rules
+   */
+  @NonNull
+  public List<Pair<ElementMatcher<MethodDescription>, Annotation>> get(@NonNull String pClassName)
+  {
+    List<Pair<ElementMatcher<MethodDescription>, Annotation>> registered = registrations.getOrDefault(pClassName, List.of());
+    _Rules currentRules = rules;
+    if (!currentRules.matches(pClassName))
+      return registered;
+
+    List<Pair<ElementMatcher<MethodDescription>, Annotation>> result = new ArrayList<>(registered);
+    for (DynamicMetricRule rule : currentRules.rules)
+      if (rule.getTypePattern().matcher(pClassName).matches())
+        result.add(Pair.of(rule.getMethodMatcher(), rule.getAnnotation()));
+    return Collections.unmodifiableList(result);
+  }
+
+  /**
+   * Rules, combined into a single pattern - so that classes that do not match any rule can be sorted out with a single check.
+   * Classes of the {@link #_EXCLUDED_PACKAGES} never match.
+   */
+  private static class _Rules
+  {
+    private final List<DynamicMetricRule> rules;
+    private final Pattern combinedPattern;
+
+    /**
+     * Same as {@link #combinedPattern}, but also matches all inner classes of the matching classes
+     */
+    private final Pattern combinedPatternWithInner;
+
+    public _Rules(@NonNull List<DynamicMetricRule> pRules)
+    {
+      rules = pRules;
+      String excluded = _EXCLUDED_PACKAGES.stream()
+          .map(Pattern::quote)
+          .collect(Collectors.joining("|"));
+      String combined = "(?!" + excluded + ")(?:" + pRules.stream()
+          .map(pRule -> "(?:" + pRule.getTypePattern().pattern() + ")")
+          .collect(Collectors.joining("|")) + ")";
+      combinedPattern = pRules.isEmpty() ? null : Pattern.compile(combined);
+      combinedPatternWithInner = pRules.isEmpty() ? null : Pattern.compile("(?:" + combined + ")(?:\\$.*)?");
+    }
+
+    /**
+     * @param pClassName Name of the class
+     * @return true, if any rule matches the class with the given name
+     */
+    public boolean matches(@NonNull String pClassName)
+    {
+      return combinedPattern != null && combinedPattern.matcher(pClassName).matches();
+    }
+
+    /**
+     * @param pClassName Name of the class
+     * @return true, if any rule matches the class with the given name or one of its outer classes
+     */
+    public boolean matchesWithOuter(@NonNull String pClassName)
+    {
+      return combinedPatternWithInner != null && combinedPatternWithInner.matcher(pClassName).matches();
+    }
+  }
+
+}
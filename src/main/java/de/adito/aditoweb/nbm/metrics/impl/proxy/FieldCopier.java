@@ -0,0 +1,151 @@
+package de.adito.aditoweb.nbm.metrics.impl.proxy;
+
+import lombok.NonNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.lang.invoke.*;
+import java.lang.reflect.*;
+import java.util.*;
+import java.util.logging.*;
+
+/**
+ * Copies the state of an object into another object of the same type (or a subtype).
+ * The copier gets compiled once per type into a sequence of method handles - one for every instance field
+ * of the type and its supertypes - so copying does not have to walk the class hierarchy via reflection on every call.
+ *
+ * @author agent, 17.10.2026
+ */
+final class FieldCopier
+{
+
+  private static final Logger _LOGGER = Logger.getLogger(FieldCopier.class.getName());
+  private static final MethodType _COPY_TYPE = MethodType.methodType(void.class, Object.class, Object.class);
+  private static final MethodHandles.Lookup _LOOKUP = MethodHandles.lookup();
+  private static final MethodHandle _FIELD_SET;
+
+  static
+  {
+    try
+    {
+      _FIELD_SET = _LOOKUP.findVirtual(Field.class, "set", _COPY_TYPE);
+    }
+    catch (ReflectiveOperationException e)
+    {
+      throw new ExceptionInInitializerError(e);
+    }
+  }
+
+  private static final ClassValue<FieldCopier> _COPIERS = new ClassValue<>()
+  {
+    @Override
+    protected FieldCopier computeValue(Class<?> pType)
+    {
+      return new FieldCopier(pType);
+    }
+  };
+
+  /**
+   * Handles of type (source, destination)void, that copy a single field
+   */
+  private final MethodHandle[] fieldCopies;
+
+  private FieldCopier(@NonNull Class<?> pType)
+  {
+    List<MethodHandle> copies = new ArrayList<>();
+    for (Class<?> clsType = pType; clsType != null; clsType = clsType.getSuperclass())
+      for (Field field : clsType.getDeclaredFields())
+      {
+        // ignore static fields, because they are not bound to the object itself
+        if (!Modifier.isStatic(field.getModifiers()))
+        {
+          MethodHandle copy = _compile(field);
+          if (copy != null)
+            copies.add(copy);
+        }
+      }
+    fieldCopies = copies.toArray(new MethodHandle[0]);
+  }
+
+  /**
+   * Returns the copier for the given type. It will be compiled on the first call.
+   *
+   * @param pType Type to get the copier for
+   * @return the copier
+   */
+  @NonNull
+  public static FieldCopier of(@NonNull Class<?> pType)
+  {
+    return _COPIERS.get(pType);
+  }
+
+  /**
+   * Copies all instance fields from the source to the destination.
+   * Only fields will be copied, that are bound to the source - e.g. STATIC fields wont be copied.
+   *
+   * @param pSource      Object to read the fields from
+   * @param pDestination Object to write the fields to, has to be an instance of the type of this copier
+   */
+  public void copy(@NonNull Object pSource, @NonNull Object pDestination)
+  {
+    try
+    {
+      for (MethodHandle fieldCopy : fieldCopies)
+        fieldCopy.invokeExact(pSource, pDestination);
+    }
+    catch (Throwable e) //NOSONAR catch everything, the copy handles are typed with Object
+    {
+      throw new IllegalStateException("Failed to copy the state of " + pSource.getClass().getName(), e);
+    }
+  }
+
+  /**
+   * Compiles a handle that copies the given field from one object to another
+   *
+   * @param pField Field to copy
+   * @return handle of type (source, destination)void or null, if the field is not accessible
+   */
+  @Nullable
+  private static MethodHandle _compile(@NonNull Field pField)
+  {
+    try
+    {
+      pField.setAccessible(true);
+      Class<?> declaringType = pField.getDeclaringClass();
+      MethodHandle getter = _LOOKUP.unreflectGetter(pField);
+      MethodHandle setter = _unreflectSetter(pField);
+
+      // setter(destination, getter(source)), without boxing the value
+      MethodHandle copy = MethodHandles.filterArguments(setter, 1, getter);
+      return MethodHandles.permuteArguments(copy, MethodType.methodType(void.class, declaringType, declaringType), 1, 0)
+          .asType(_COPY_TYPE);
+    }
+    catch (Throwable e) //NOSONAR catch everything, including InaccessibleObjectException
+    {
+      // logged only once per field, because the copier gets compiled only once
+      _LOGGER.log(Level.WARNING, "Field " + pField + " can not be copied and will be ignored", e);
+      return null;
+    }
+  }
+
+  /**
+   * Creates a setter for the given field.
+   * Some final fields can not be set via a direct method handle, so they will be set via {@link Field#set(Object, Object)}.
+   *
+   * @param pField Field to create the setter for, has to be accessible already
+   * @return handle of type (declaring type, field type)void
+   */
+  @NonNull
+  private static MethodHandle _unreflectSetter(@NonNull Field pField)
+  {
+    try
+    {
+      return _LOOKUP.unreflectSetter(pField);
+    }
+    catch (IllegalAccessException e)
+    {
+      return MethodHandles.insertArguments(_FIELD_SET, 0, pField)
+          .asType(MethodType.methodType(void.class, pField.getDeclaringClass(), pField.getType()));
+    }
+  }
+
+}
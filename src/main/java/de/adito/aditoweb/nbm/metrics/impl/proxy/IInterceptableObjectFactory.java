@@ -2,6 +2,7 @@ package de.adito.aditoweb.nbm.metrics.impl.proxy;
 
 import lombok.NonNull;
 
+import java.lang.invoke.MethodHandle;
 import java.lang.reflect.InvocationHandler;
 
 /**
@@ -22,4 +23,32 @@ public interface IInterceptableObjectFactory
   @NonNull
   <T> T createInterceptableProxy(@NonNull T pObject, @NonNull InvocationHandler pHandler) throws IllegalAccessException;
 
+  /**
+   * Creates a new proxy object, that calls the given hooks before and after every method and delegates the
+   * method call itself directly to the given object - without any reflection in between.
+   *
+   * @param pObject    Object that gets proxied
+   * @param pEnterHook Handle of type (proxy, method name and descriptor, arguments)hints, called before the method
+   * @param pExitHook  Handle of type (proxy, method name and descriptor, arguments, hints, result, exception)void, called after the method.
+   *                   The arguments and the result are only captured, if a handler of the method needs them (see
+   *                   {@link de.adito.aditoweb.nbm.metrics.impl.handlers.MetricCapability}) - otherwise both hooks get NULL.
+   * @return A proxy object that delegates every method call to pObject
+   */
+  @NonNull
+  <T> T createDelegatingProxy(@NonNull T pObject, @NonNull MethodHandle pEnterHook, @NonNull MethodHandle pExitHook) throws IllegalAccessException;
+
+  /**
+   * Creates a new proxy object like {@link #createDelegatingProxy(Object, MethodHandle, MethodHandle)}, but without copying the state
+   * of the given object into the proxy. Every method call gets forwarded to the given object, so both share the same state.
+   * If the type of the object contains methods, that can not be forwarded (e.g. final ones), or fields that can be accessed
+   * from outside of the type, the state gets copied nevertheless.
+   *
+   * @param pObject    Object that gets proxied
+   * @param pEnterHook Handle of type (proxy, method name and descriptor, arguments)hints, called before the method
+   * @param pExitHook  Handle of type (proxy, method name and descriptor, arguments, hints, result, exception)void, called after the method
+   * @return A proxy object that forwards every method call to pObject
+   */
+  @NonNull
+  <T> T createForwardingProxy(@NonNull T pObject, @NonNull MethodHandle pEnterHook, @NonNull MethodHandle pExitHook) throws IllegalAccessException;
+
 }
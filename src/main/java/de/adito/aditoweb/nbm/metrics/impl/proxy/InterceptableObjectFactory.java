@@ -1,40 +1,437 @@
 package de.adito.aditoweb.nbm.metrics.impl.proxy;
 
-import lombok.NonNull;
+import de.adito.aditoweb.nbm.metrics.impl.handlers.*;
+import lombok.*;
 import net.bytebuddy.ByteBuddy;
-import net.bytebuddy.dynamic.loading.ClassLoadingStrategy;
-import net.bytebuddy.implementation.InvocationHandlerAdapter;
+import net.bytebuddy.TypeCache;
+import net.bytebuddy.asm.Advice;
+import net.bytebuddy.description.annotation.AnnotationDescription;
+import net.bytebuddy.description.method.MethodDescription;
+import net.bytebuddy.description.modifier.Visibility;
+import net.bytebuddy.description.type.PackageDescription;
+import net.bytebuddy.dynamic.*;
+import net.bytebuddy.dynamic.loading.*;
+import net.bytebuddy.implementation.*;
 import net.bytebuddy.implementation.attribute.MethodAttributeAppender;
-import net.bytebuddy.matcher.ElementMatchers;
-import org.objenesis.ObjenesisStd;
+import net.bytebuddy.implementation.bytecode.assign.Assigner;
+import net.bytebuddy.matcher.*;
+import org.jetbrains.annotations.Nullable;
+import org.objenesis.*;
+import org.objenesis.instantiator.ObjectInstantiator;
 
-import java.lang.invoke.MethodHandles;
+import java.lang.annotation.Annotation;
+import java.lang.invoke.*;
 import java.lang.reflect.*;
+import java.util.*;
+import java.util.function.Supplier;
 import java.util.logging.*;
 
 /**
+ * Creates proxies by subclassing the type of the given object.
+ * The generated proxy types are cached per type and handler kind, so that proxying
+ * the same type again only costs an instantiation and - for some kinds - the transfer of its state.
+ * The efficiency of this cache gets counted in {@link MetricCache#PROXY_TYPES}. Their bytes are cached across sessions by the {@link ClassFileCache}.
+ *
  * @author w.glanzer, 09.07.2021
  */
 class InterceptableObjectFactory implements IInterceptableObjectFactory
 {
 
+  /**
+   * Field of the generated proxy type, that contains the handler of the proxy instance
+   */
+  private static final String _HANDLER_FIELD = "adito$metricHandler";
+
+  /**
+   * Fields of the generated delegating proxy type, that contain the delegate and the hooks of the proxy instance
+   */
+  private static final String _TARGET_FIELD = "adito$target";
+  private static final String _ENTER_FIELD = "adito$enterHook";
+  private static final String _EXIT_FIELD = "adito$exitHook";
+
+  /**
+   * Local variable of the delegation advice, that passes the arguments from the enter advice to the exit advice.
+   * This way the arguments array gets created only once per call.
+   */
+  private static final String _ARGUMENTS_LOCAL = "arguments";
+
   private static final Logger _LOGGER = Logger.getLogger(InterceptableObjectFactory.class.getName());
 
+  /**
+   * Types, whose methods can all be forwarded to the original object, see {@link #_isForwardable(Class)}
+   */
+  private static final ClassValue<Boolean> _FORWARDABLE_TYPES = new ClassValue<>()
+  {
+    @Override
+    protected Boolean computeValue(Class<?> pType)
+    {
+      return _isForwardable(pType);
+    }
+  };
+
+  /**
+   * Generated proxy types, weakly bound to the classloader of the proxied type
+   */
+  private final TypeCache<TypeCache.SimpleKey> proxyTypes = new TypeCache.WithInlineExpunction<>(TypeCache.Sort.WEAK);
+
+  /**
+   * Instantiators of the generated proxy types
+   */
+  private final ClassValue<_ProxyInstantiator> proxyInstantiators = new ClassValue<>()
+  {
+    @Override
+    protected _ProxyInstantiator computeValue(Class<?> pProxyType)
+    {
+      return new _ProxyInstantiator(pProxyType);
+    }
+  };
+
+  private final ClassFileCache classFileCache;
+  private final Objenesis objenesis = new ObjenesisStd(false);
+
+  InterceptableObjectFactory()
+  {
+    this(ClassFileCache.getInstance());
+  }
+
+  /**
+   * @param pClassFileCache Cache to read the bytes of already generated proxy types from
+   */
+  InterceptableObjectFactory(@NonNull ClassFileCache pClassFileCache)
+  {
+    classFileCache = pClassFileCache;
+  }
+
   @NonNull
   @Override
   public <T> T createInterceptableProxy(@NonNull T pObject, @NonNull InvocationHandler pHandler) throws IllegalAccessException
   {
-    Class<?> type = new ByteBuddy()
-        .subclass(pObject.getClass())
-        .method(ElementMatchers.any())
-        .intercept(InvocationHandlerAdapter.of(pHandler))
-        .attribute(MethodAttributeAppender.ForInstrumentedMethod.INCLUDING_RECEIVER)
-        .make()
-        .load(pObject.getClass().getClassLoader(), ClassLoadingStrategy.UsingLookup.of(MethodHandles.privateLookupIn(pObject.getClass(), MethodHandles.lookup())))
-        .getLoaded();
+    _ProxyInstantiator instantiator = proxyInstantiators.get(_getProxyType(pObject.getClass(), pHandler.getClass()));
 
     //noinspection unchecked
-    return _copyProperties(pObject, (T) new ObjenesisStd().getInstantiatorOf(type).newInstance());
+    return _copyProperties(pObject, (T) instantiator.newInstance(pHandler));
+  }
+
+  @NonNull
+  @Override
+  public <T> T createDelegatingProxy(@NonNull T pObject, @NonNull MethodHandle pEnterHook, @NonNull MethodHandle pExitHook) throws IllegalAccessException
+  {
+    _ProxyInstantiator instantiator = proxyInstantiators.get(_getDelegatingProxyType(pObject.getClass()));
+
+    // The state has to be copied too, because methods that can not be overridden (final ones) will be executed on the proxy itself
+    //noinspection unchecked
+    return _copyProperties(pObject, (T) instantiator.newInstance(pObject, pEnterHook, pExitHook));
+  }
+
+  @NonNull
+  @Override
+  public <T> T createForwardingProxy(@NonNull T pObject, @NonNull MethodHandle pEnterHook, @NonNull MethodHandle pExitHook) throws IllegalAccessException
+  {
+    Class<?> type = pObject.getClass();
+    if (!_FORWARDABLE_TYPES.get(type))
+      return createDelegatingProxy(pObject, pEnterHook, pExitHook);
+
+    // every method that can be called on the proxy gets forwarded, so the proxy itself does not need any state of the original object
+    _ProxyInstantiator instantiator = proxyInstantiators.get(_getDelegatingProxyType(type));
+
+    //noinspection unchecked
+    return (T) instantiator.newInstance(pObject, pEnterHook, pExitHook);
+  }
+
+  /**
+   * Returns the type of the objects, that get proxied by the given delegating or forwarding proxy type
+   *
+   * @param pProxyType Generated proxy type
+   * @return the type of the original objects
+   */
+  @NonNull
+  static Class<?> getProxiedType(@NonNull Class<?> pProxyType)
+  {
+    try
+    {
+      return pProxyType.getDeclaredField(_TARGET_FIELD).getType();
+    }
+    catch (NoSuchFieldException e)
+    {
+      throw new IllegalArgumentException(pProxyType.getName() + " is not a delegating proxy type", e);
+    }
+  }
+
+  /**
+   * Returns the proxy type for the given type and handler kind.
+   * It will be generated, if it was not generated before.
+   *
+   * @param pType        Type to proxy
+   * @param pHandlerType Type of the handler that handles the proxy calls
+   * @return the generated proxy type
+   */
+  @NonNull
+  private Class<?> _getProxyType(@NonNull Class<?> pType, @NonNull Class<?> pHandlerType)
+  {
+    TypeCache.SimpleKey key = new TypeCache.SimpleKey(pType, pHandlerType);
+    Class<?> proxyType = proxyTypes.find(pType.getClassLoader(), key);
+    if (proxyType != null)
+    {
+      MetricCache.PROXY_TYPES.hit();
+      return proxyType;
+    }
+
+    return proxyTypes.findOrInsert(pType.getClassLoader(), key, () -> {
+      MetricCache.PROXY_TYPES.miss();
+      return _loadProxyType(pType, "interceptable:" + pHandlerType.getName(), () -> new ByteBuddy()
+          .subclass(pType)
+          .defineField(_HANDLER_FIELD, InvocationHandler.class, Visibility.PRIVATE)
+          .method(ElementMatchers.any())
+          .intercept(InvocationHandlerAdapter.toField(_HANDLER_FIELD))
+          .attribute(MethodAttributeAppender.ForInstrumentedMethod.INCLUDING_RECEIVER)
+          .make());
+    }, proxyTypes);
+  }
+
+  /**
+   * Returns the delegating proxy type for the given type.
+   * It will be generated, if it was not generated before.
+   *
+   * @param pType Type to proxy
+   * @return the generated proxy type
+   */
+  @NonNull
+  private Class<?> _getDelegatingProxyType(@NonNull Class<?> pType)
+  {
+    TypeCache.SimpleKey key = new TypeCache.SimpleKey(pType, MethodHandle.class);
+    Class<?> proxyType = proxyTypes.find(pType.getClassLoader(), key);
+    if (proxyType != null)
+    {
+      MetricCache.PROXY_TYPES.hit();
+      return proxyType;
+    }
+
+    return proxyTypes.findOrInsert(pType.getClassLoader(), key, () -> {
+      MetricCache.PROXY_TYPES.miss();
+      ElementMatcher.Junction<MethodDescription> delegatable = _isDelegatable(pType);
+
+      // the advices depend on the capabilities of the handlers, so the cached bytes do too
+      return _loadProxyType(pType, "delegating:" + _getCapabilitiesKey(pType), () -> {
+        DynamicType.Builder<?> builder = new ByteBuddy()
+            .subclass(pType)
+            .defineField(_TARGET_FIELD, pType, Visibility.PRIVATE)
+            .defineField(_ENTER_FIELD, MethodHandle.class, Visibility.PRIVATE)
+            .defineField(_EXIT_FIELD, MethodHandle.class, Visibility.PRIVATE);
+
+        // call the method directly on the original object
+        builder = _delegate(builder, delegatable, MethodCall.invokeSelf().onField(_TARGET_FIELD).withAllArguments());
+
+        // methods that can not be called on the original object, are called on the proxy itself
+        builder = _delegate(builder, ElementMatchers.not(delegatable), SuperMethodCall.INSTANCE);
+
+        return builder
+            .attribute(MethodAttributeAppender.ForInstrumentedMethod.INCLUDING_RECEIVER)
+            .make();
+      });
+    }, proxyTypes);
+  }
+
+  /**
+   * Wraps the given methods into the delegation advice.
+   * Each method gets the advice, that captures only the values its handlers need - the same way as the dynamic instrumentation does.
+   *
+   * @param pBuilder        Builder of the proxy type
+   * @param pMethods        Methods to wrap
+   * @param pImplementation Implementation, that calls the original method
+   * @return the builder
+   */
+  @NonNull
+  private static DynamicType.Builder<?> _delegate(@NonNull DynamicType.Builder<?> pBuilder, @NonNull ElementMatcher.Junction<MethodDescription> pMethods,
+                                                  @NonNull Implementation pImplementation)
+  {
+    return pBuilder
+        .method(pMethods.and(_captures(true, true)))
+        .intercept(Advice.to(_DelegationAdvice.class).wrap(pImplementation))
+        .method(pMethods.and(_captures(true, false)))
+        .intercept(Advice.to(_ArgumentsDelegationAdvice.class).wrap(pImplementation))
+        .method(pMethods.and(_captures(false, true)))
+        .intercept(Advice.to(_ReturnValueDelegationAdvice.class).wrap(pImplementation))
+        .method(pMethods.and(_captures(false, false)))
+        .intercept(Advice.to(_MinimalDelegationAdvice.class).wrap(pImplementation));
+  }
+
+  /**
+   * Creates a matcher for all methods, whose handlers need exactly the given values
+   *
+   * @param pArguments   true, if the arguments have to be captured
+   * @param pReturnValue true, if the return value has to be captured
+   * @return the matcher
+   */
+  @NonNull
+  private static ElementMatcher<MethodDescription> _captures(boolean pArguments, boolean pReturnValue)
+  {
+    return pMethod -> {
+      Set<MetricCapability> capabilities = EnumSet.noneOf(MetricCapability.class);
+      for (AnnotationDescription annotation : pMethod.getDeclaredAnnotations())
+        capabilities.addAll(IMetricHandler.Accessor.getCapabilities(annotation.getAnnotationType().getName()));
+      return capabilities.contains(MetricCapability.ARGUMENTS) == pArguments && capabilities.contains(MetricCapability.RETURN_VALUE) == pReturnValue;
+    };
+  }
+
+  /**
+   * Describes the capabilities of all handlers, that can be triggered by the methods of the given type
+   *
+   * @param pType Type to proxy
+   * @return the capabilities per annotation, in a stable order
+   */
+  @NonNull
+  private static String _getCapabilitiesKey(@NonNull Class<?> pType)
+  {
+    Set<Class<?>> types = new LinkedHashSet<>();
+    _collectSupertypes(pType, types);
+
+    Map<String, Set<MetricCapability>> capabilities = new TreeMap<>();
+    for (Class<?> type : types)
+      for (Method method : type.getDeclaredMethods())
+        for (Annotation annotation : method.getDeclaredAnnotations())
+        {
+          String name = annotation.annotationType().getName();
+          capabilities.put(name, IMetricHandler.Accessor.getCapabilities(name));
+        }
+    return capabilities.toString();
+  }
+
+  /**
+   * Loads a proxy type into the classloader of the proxied type.
+   * The bytes of the proxy type will be read from the {@link ClassFileCache}, if they were generated in a previous session already.
+   *
+   * @param pType      Type to proxy
+   * @param pKind      Kind of the proxy, everything that the generated bytes depend on besides the proxied type
+   * @param pGenerator Generates the proxy type, if it is not cached
+   * @return the loaded proxy type
+   */
+  @NonNull
+  private Class<?> _loadProxyType(@NonNull Class<?> pType, @NonNull String pKind, @NonNull Supplier<DynamicType.Unloaded<?>> pGenerator)
+      throws IllegalAccessException
+  {
+    MethodHandles.Lookup lookup = MethodHandles.privateLookupIn(pType, MethodHandles.lookup());
+    String cacheKey = _getCacheKey(pType, pKind);
+    ClassFileCache.Entry cached = cacheKey == null ? null : classFileCache.read(cacheKey);
+    if (cached != null)
+    {
+      try
+      {
+        return ClassInjector.UsingLookup.of(lookup).injectRaw(Map.of(cached.className, cached.bytes)).get(cached.className);
+      }
+      catch (RuntimeException | LinkageError e) //NOSONAR e.g. the name is already used, because a previous proxy type got unloaded
+      {
+        _LOGGER.log(Level.FINE, "Failed to load cached proxy type " + cached.className + ", it will be generated again", e);
+      }
+    }
+
+    DynamicType.Unloaded<?> proxyType = pGenerator.get();
+
+    // only self-contained types can be cached, because everything else would be lost when loading the raw bytes
+    if (cacheKey != null && proxyType.getAuxiliaryTypes().isEmpty() && !proxyType.hasAliveLoadedTypeInitializers())
+      classFileCache.write(cacheKey, proxyType.getTypeDescription().getName(), proxyType.getBytes());
+    return proxyType.load(pType.getClassLoader(), ClassLoadingStrategy.UsingLookup.of(lookup)).getLoaded();
+  }
+
+  /**
+   * Creates the key of the proxy type in the {@link ClassFileCache}.
+   * A proxy type overrides the methods of all supertypes, so the bytes of all of them are part of the key.
+   *
+   * @param pType Type to proxy
+   * @param pKind Kind of the proxy
+   * @return the key or NULL, if the proxy type can not be cached
+   */
+  @Nullable
+  private String _getCacheKey(@NonNull Class<?> pType, @NonNull String pKind)
+  {
+    Set<Class<?>> types = new LinkedHashSet<>();
+    _collectSupertypes(pType, types);
+
+    List<byte[]> bytes = new ArrayList<>();
+    for (Class<?> type : types)
+    {
+      // types of the JDK are covered by its version
+      if (type.getClassLoader() == null)
+        continue;
+
+      try
+      {
+        bytes.add(ClassFileLocator.ForClassLoader.read(type));
+      }
+      catch (RuntimeException e) // NOSONAR the bytes of generated types can not be located
+      {
+        return null;
+      }
+    }
+
+    return classFileCache.key(bytes.toArray(new byte[0][]), pKind, pType.getName(), System.getProperty("java.version"));
+  }
+
+  /**
+   * Collects the given type and all of its supertypes, including interfaces
+   *
+   * @param pType  Type to start with
+   * @param pTypes Collected types
+   */
+  private static void _collectSupertypes(@Nullable Class<?> pType, @NonNull Set<Class<?>> pTypes)
+  {
+    if (pType == null || !pTypes.add(pType))
+      return;
+    _collectSupertypes(pType.getSuperclass(), pTypes);
+    for (Class<?> iface : pType.getInterfaces())
+      _collectSupertypes(iface, pTypes);
+  }
+
+  /**
+   * Creates a matcher for all methods, that can be called from a proxy of the given type on another instance of the given type.
+   * Protected methods of supertypes from other packages can only be called on the proxy itself.
+   *
+   * @param pType Type that gets proxied
+   * @return the matcher
+   */
+  @NonNull
+  private static ElementMatcher.Junction<MethodDescription> _isDelegatable(@NonNull Class<?> pType)
+  {
+    String packageName = pType.getPackageName();
+    return ElementMatchers.not(ElementMatchers.<MethodDescription>isProtected()
+                                   .and(pMethod -> {
+                                     PackageDescription declaringPackage = pMethod.getDeclaringType().asErasure().getPackage();
+                                     return declaringPackage == null || !Objects.equals(declaringPackage.getName(), packageName);
+                                   }));
+  }
+
+  /**
+   * Checks, if every instance method of the given type can be forwarded to another instance by a delegating proxy.
+   * Methods that are final or that can not be called from the package of the type would be executed on the proxy itself,
+   * so those need the copied state of the original object. The same applies to fields, that can be accessed from outside of the type.
+   *
+   * @param pType Type to check
+   * @return true, if the proxy does not need any state of the original object
+   */
+  private static boolean _isForwardable(@NonNull Class<?> pType)
+  {
+    String packageName = pType.getPackageName();
+    for (Class<?> type = pType; type != null && type != Object.class; type = type.getSuperclass())
+    {
+      for (Field field : type.getDeclaredFields())
+      {
+        int modifiers = field.getModifiers();
+        if (!Modifier.isStatic(modifiers) && !Modifier.isPrivate(modifiers))
+          return false;
+      }
+
+      boolean samePackage = packageName.equals(type.getPackageName());
+      for (Method method : type.getDeclaredMethods())
+      {
+        int modifiers = method.getModifiers();
+        if (Modifier.isStatic(modifiers) || Modifier.isPrivate(modifiers))
+          continue;
+        if (Modifier.isFinal(modifiers))
+          return false;
+        if (!samePackage && !Modifier.isPublic(modifiers))
+          return false;
+      }
+    }
+    return true;
   }
 
   /**
@@ -48,30 +445,240 @@ class InterceptableObjectFactory implements IInterceptableObjectFactory
   @NonNull
   private <T> T _copyProperties(@NonNull T pOriginal, @NonNull T pDestination)
   {
-    Class<?> clsType = pOriginal.getClass();
-    while (clsType != null)
+    FieldCopier.of(pOriginal.getClass()).copy(pOriginal, pDestination);
+    return pDestination;
+  }
+
+  /**
+   * Creates instances of a single generated proxy type, without calling any constructor.
+   * The fields, that the proxy type defines itself, are resolved once into setters - so that creating an instance does not need any reflection.
+   */
+  private class _ProxyInstantiator
+  {
+    private final Class<?> proxyType;
+    private final ObjectInstantiator<?> instantiator;
+
+    /**
+     * Setters of type (proxy, value)void, NULL if the proxy type does not define the field
+     */
+    private final MethodHandle handlerSetter;
+    private final MethodHandle targetSetter;
+    private final MethodHandle enterHookSetter;
+    private final MethodHandle exitHookSetter;
+
+    public _ProxyInstantiator(@NonNull Class<?> pProxyType)
     {
-      Field[] fields = clsType.getDeclaredFields();
-      for (Field field : fields)
+      proxyType = pProxyType;
+      instantiator = objenesis.getInstantiatorOf(pProxyType);
+      handlerSetter = _getSetter(_HANDLER_FIELD);
+      targetSetter = _getSetter(_TARGET_FIELD);
+      enterHookSetter = _getSetter(_ENTER_FIELD);
+      exitHookSetter = _getSetter(_EXIT_FIELD);
+    }
+
+    /**
+     * Creates a new instance of an interceptable proxy type
+     *
+     * @param pHandler Handler of the new instance
+     * @return the new instance
+     */
+    @NonNull
+    public Object newInstance(@NonNull InvocationHandler pHandler)
+    {
+      Object instance = instantiator.newInstance();
+      _set(handlerSetter, _HANDLER_FIELD, instance, pHandler);
+      return instance;
+    }
+
+    /**
+     * Creates a new instance of a delegating proxy type
+     *
+     * @param pTarget    Original object, that the calls get delegated to
+     * @param pEnterHook Hook, that gets called before each method
+     * @param pExitHook  Hook, that gets called after each method
+     * @return the new instance
+     */
+    @NonNull
+    public Object newInstance(@NonNull Object pTarget, @NonNull MethodHandle pEnterHook, @NonNull MethodHandle pExitHook)
+    {
+      Object instance = instantiator.newInstance();
+      _set(targetSetter, _TARGET_FIELD, instance, pTarget);
+      _set(enterHookSetter, _ENTER_FIELD, instance, pEnterHook);
+      _set(exitHookSetter, _EXIT_FIELD, instance, pExitHook);
+      return instance;
+    }
+
+    /**
+     * Sets a field, that the proxy type defines itself
+     *
+     * @param pSetter   Setter of the field, NULL if the proxy type does not define it
+     * @param pName     Name of the field
+     * @param pInstance Proxy instance to set the field on
+     * @param pValue    Value to set
+     */
+    private void _set(@Nullable MethodHandle pSetter, @NonNull String pName, @NonNull Object pInstance, @NonNull Object pValue)
+    {
+      if (pSetter == null)
+        throw new IllegalStateException("Proxy type " + proxyType.getName() + " does not contain the field " + pName);
+
+      try
       {
-        // ignore static fields, because they are not bound to the object itself
-        if (!Modifier.isStatic(field.getModifiers()))
-        {
-          try
-          {
-            field.setAccessible(true);
-            field.set(pDestination, field.get(pOriginal));
-          }
-          catch (Throwable e) //NOSONAR catch everything, including NoSuchMethodError
-          {
-            _LOGGER.log(Level.WARNING, "", e);
-          }
-        }
+        pSetter.invokeExact(pInstance, pValue);
+      }
+      catch (Throwable e) //NOSONAR catch everything, the setters are typed with Object
+      {
+        throw new IllegalStateException("Failed to set the field " + pName + " of proxy type " + proxyType.getName(), e);
       }
-      clsType = clsType.getSuperclass();
     }
 
-    return pDestination;
+    /**
+     * Creates the setter of a field, that was defined by the proxy type itself
+     *
+     * @param pName Name of the field
+     * @return the setter of type (proxy, value)void, NULL if the proxy type does not define the field
+     */
+    @Nullable
+    private MethodHandle _getSetter(@NonNull String pName)
+    {
+      try
+      {
+        Field field = proxyType.getDeclaredField(pName);
+        field.setAccessible(true);
+        return MethodHandles.lookup().unreflectSetter(field).asType(MethodType.methodType(void.class, Object.class, Object.class));
+      }
+      catch (NoSuchFieldException e)
+      {
+        return null;
+      }
+      catch (IllegalAccessException e)
+      {
+        throw new IllegalStateException("Field " + pName + " of proxy type " + proxyType.getName() + " is not accessible", e);
+      }
+    }
+  }
+
+  /**
+   * Advice that gets inlined into the delegating proxy types around each method, whose handlers need the arguments and the return value.
+   * It must only use JDK classes, because the proxy type is defined in the classloader of the proxied type.
+   */
+  @SuppressWarnings("unused")
+  private static class _DelegationAdvice
+  {
+    /**
+     * Calls the enter hook of the proxy
+     *
+     * @param pProxy             Proxy, whose method got called
+     * @param pMethod            Name and descriptor of the method that got called
+     * @param pArguments         Arguments of the method
+     * @param pCapturedArguments Local variable, that passes the arguments to the exit advice
+     * @param pEnterHook         Hook to call
+     * @return the hints to pass to the exit hook
+     */
+    @SneakyThrows // will be suppressed by byte-buddy
+    @Advice.OnMethodEnter(suppress = Throwable.class)
+    public static Object onMethodEnter(@Advice.This Object pProxy, @Advice.Origin("#m#d") String pMethod, @Advice.AllArguments Object[] pArguments,
+                                       @Advice.Local(_ARGUMENTS_LOCAL) Object[] pCapturedArguments,
+                                       @Advice.FieldValue(_ENTER_FIELD) MethodHandle pEnterHook)
+    {
+      pCapturedArguments = pArguments;
+      return (Object) pEnterHook.invokeExact(pProxy, pMethod, pArguments);
+    }
+
+    /**
+     * Calls the exit hook of the proxy
+     *
+     * @param pProxy       Proxy, whose method got called
+     * @param pMethod      Name and descriptor of the method that got called
+     * @param pArguments   Arguments of the method, that were captured by the enter advice
+     * @param pHints       Hints that were returned by the enter hook
+     * @param pReturnValue Object that the method returned. NULL if an exception occured
+     * @param pThrowable   Exception that the method throwed. NULL if no exception was thrown during execution.
+     * @param pExitHook    Hook to call
+     */
+    @SneakyThrows // will be suppressed by byte-buddy
+    @Advice.OnMethodExit(suppress = Throwable.class, onThrowable = Throwable.class)
+    public static void onMethodExit(@Advice.This Object pProxy, @Advice.Origin("#m#d") String pMethod, @Advice.Local(_ARGUMENTS_LOCAL) Object[] pArguments,
+                                    @Advice.Enter Object pHints, @Advice.Return(typing = Assigner.Typing.DYNAMIC) Object pReturnValue,
+                                    @Advice.Thrown Throwable pThrowable, @Advice.FieldValue(_EXIT_FIELD) MethodHandle pExitHook)
+    {
+      pExitHook.invokeExact(pProxy, pMethod, pArguments, pHints, pReturnValue, pThrowable);
+    }
+  }
+
+  /**
+   * Same as {@link _DelegationAdvice}, but without capturing the return value.
+   * Used for methods, whose handlers do not need the return value, so that primitive return values do not get boxed.
+   */
+  @SuppressWarnings("unused")
+  private static class _ArgumentsDelegationAdvice
+  {
+    @SneakyThrows // will be suppressed by byte-buddy
+    @Advice.OnMethodEnter(suppress = Throwable.class)
+    public static Object onMethodEnter(@Advice.This Object pProxy, @Advice.Origin("#m#d") String pMethod, @Advice.AllArguments Object[] pArguments,
+                                       @Advice.Local(_ARGUMENTS_LOCAL) Object[] pCapturedArguments,
+                                       @Advice.FieldValue(_ENTER_FIELD) MethodHandle pEnterHook)
+    {
+      pCapturedArguments = pArguments;
+      return (Object) pEnterHook.invokeExact(pProxy, pMethod, pArguments);
+    }
+
+    @SneakyThrows // will be suppressed by byte-buddy
+    @Advice.OnMethodExit(suppress = Throwable.class, onThrowable = Throwable.class)
+    public static void onMethodExit(@Advice.This Object pProxy, @Advice.Origin("#m#d") String pMethod, @Advice.Local(_ARGUMENTS_LOCAL) Object[] pArguments,
+                                    @Advice.Enter Object pHints, @Advice.Thrown Throwable pThrowable,
+                                    @Advice.FieldValue(_EXIT_FIELD) MethodHandle pExitHook)
+    {
+      pExitHook.invokeExact(pProxy, pMethod, pArguments, pHints, (Object) null, pThrowable);
+    }
+  }
+
+  /**
+   * Same as {@link _DelegationAdvice}, but without capturing the arguments.
+   * Used for methods, whose handlers do not need the arguments, so that no argument array has to be allocated.
+   */
+  @SuppressWarnings("unused")
+  private static class _ReturnValueDelegationAdvice
+  {
+    @SneakyThrows // will be suppressed by byte-buddy
+    @Advice.OnMethodEnter(suppress = Throwable.class)
+    public static Object onMethodEnter(@Advice.This Object pProxy, @Advice.Origin("#m#d") String pMethod,
+                                       @Advice.FieldValue(_ENTER_FIELD) MethodHandle pEnterHook)
+    {
+      return (Object) pEnterHook.invokeExact(pProxy, pMethod, (Object[]) null);
+    }
+
+    @SneakyThrows // will be suppressed by byte-buddy
+    @Advice.OnMethodExit(suppress = Throwable.class, onThrowable = Throwable.class)
+    public static void onMethodExit(@Advice.This Object pProxy, @Advice.Origin("#m#d") String pMethod, @Advice.Enter Object pHints,
+                                    @Advice.Return(typing = Assigner.Typing.DYNAMIC) Object pReturnValue, @Advice.Thrown Throwable pThrowable,
+                                    @Advice.FieldValue(_EXIT_FIELD) MethodHandle pExitHook)
+    {
+      pExitHook.invokeExact(pProxy, pMethod, (Object[]) null, pHints, pReturnValue, pThrowable);
+    }
+  }
+
+  /**
+   * Same as {@link _DelegationAdvice}, but without capturing the arguments and the return value.
+   * Used for methods, whose handlers only need the call itself, so that the call does not allocate anything.
+   */
+  @SuppressWarnings("unused")
+  private static class _MinimalDelegationAdvice
+  {
+    @SneakyThrows // will be suppressed by byte-buddy
+    @Advice.OnMethodEnter(suppress = Throwable.class)
+    public static Object onMethodEnter(@Advice.This Object pProxy, @Advice.Origin("#m#d") String pMethod,
+                                       @Advice.FieldValue(_ENTER_FIELD) MethodHandle pEnterHook)
+    {
+      return (Object) pEnterHook.invokeExact(pProxy, pMethod, (Object[]) null);
+    }
+
+    @SneakyThrows // will be suppressed by byte-buddy
+    @Advice.OnMethodExit(suppress = Throwable.class, onThrowable = Throwable.class)
+    public static void onMethodExit(@Advice.This Object pProxy, @Advice.Origin("#m#d") String pMethod, @Advice.Enter Object pHints,
+                                    @Advice.Thrown Throwable pThrowable, @Advice.FieldValue(_EXIT_FIELD) MethodHandle pExitHook)
+    {
+      pExitHook.invokeExact(pProxy, pMethod, (Object[]) null, pHints, (Object) null, pThrowable);
+    }
   }
 
 }
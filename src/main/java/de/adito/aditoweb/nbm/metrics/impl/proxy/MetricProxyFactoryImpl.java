@@ -1,14 +1,16 @@
 package de.adito.aditoweb.nbm.metrics.impl.proxy;
 
+import com.google.common.cache.*;
 import de.adito.aditoweb.nbm.metrics.api.IMetricProxyFactory;
-import de.adito.aditoweb.nbm.metrics.impl.handlers.IMetricHandler;
+import de.adito.aditoweb.nbm.metrics.impl.handlers.*;
 import lombok.NonNull;
 import org.jetbrains.annotations.Nullable;
 import org.openide.util.lookup.ServiceProvider;
 
+import java.lang.invoke.*;
 import java.lang.reflect.*;
 import java.util.*;
-import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.*;
 
 /**
@@ -18,33 +20,254 @@ import java.util.logging.*;
 public class MetricProxyFactoryImpl implements IMetricProxyFactory
 {
 
+  /**
+   * System property to switch the way the proxies invoke the original methods, see {@link ProxyMode}
+   */
+  static final String PROXY_MODE_PROPERTY = "adito.analytics.proxy.mode";
+
   private static final Logger _LOGGER = Logger.getLogger(MetricProxyFactoryImpl.class.getName());
+  private static final IMetricHandler.Accessor _ACCESSOR = new IMetricHandler.Accessor();
+  private static final MethodHandle _ENTER_HOOK;
+  private static final MethodHandle _EXIT_HOOK;
+
+  static
+  {
+    try
+    {
+      MethodHandles.Lookup lookup = MethodHandles.lookup();
+      _ENTER_HOOK = lookup.findStatic(MetricProxyFactoryImpl.class, "_onMethodEnter",
+                                      MethodType.methodType(Object.class, Object.class, String.class, Object[].class));
+      _EXIT_HOOK = lookup.findStatic(MetricProxyFactoryImpl.class, "_onMethodExit",
+                                     MethodType.methodType(void.class, Object.class, String.class, Object[].class, Object.class,
+                                                           Object.class, Throwable.class));
+    }
+    catch (ReflectiveOperationException e)
+    {
+      throw new ExceptionInInitializerError(e);
+    }
+  }
+
+  /**
+   * Resolved methods of the delegating proxy types, keyed by name and descriptor
+   */
+  private static final ClassValue<Map<String, ResolvedMethod>> _METHODS = new ClassValue<>()
+  {
+    @Override
+    protected Map<String, ResolvedMethod> computeValue(Class<?> pProxyType)
+    {
+      return new ConcurrentHashMap<>();
+    }
+  };
+
+  /**
+   * Reason, why a type can not be proxied at all - empty, if it can be proxied
+   */
+  private static final ClassValue<Optional<String>> _UNPROXYABLE_TYPES = new ClassValue<>()
+  {
+    @Override
+    protected Optional<String> computeValue(Class<?> pType)
+    {
+      return Optional.ofNullable(_checkProxyable(pType));
+    }
+  };
+
+  /**
+   * Types, whose proxy creation failed once. They will not be tried again, so that a failing type
+   * does not cost a class generation and a logged stack trace on every call.
+   * Only a marker is stored, because the exception could strongly reference the type and its classloader.
+   */
+  private static final Cache<Class<?>, Boolean> _FAILED_TYPES = CacheBuilder.newBuilder()
+      .weakKeys()
+      .build();
+
   private final IInterceptableObjectFactory objectFactory = new InterceptableObjectFactory();
+  private final ProxyMode mode;
+
+  public MetricProxyFactoryImpl()
+  {
+    this(_getConfiguredMode());
+  }
+
+  MetricProxyFactoryImpl(@NonNull ProxyMode pMode)
+  {
+    mode = pMode;
+  }
 
   @Override
   public boolean canCreateProxy(@NonNull Object pObject)
   {
-    // proxy everything, if enabled
-    return true;
+    Class<?> type = pObject.getClass();
+    return _UNPROXYABLE_TYPES.get(type).isEmpty() && _FAILED_TYPES.getIfPresent(type) == null;
   }
 
   @NonNull
   @Override
   public <T> T createProxy(@NonNull T pObject)
   {
+    // return the original value immediately, if we already know that it can not be proxied
+    if (!canCreateProxy(pObject))
+      return pObject;
+
     try
     {
-      return objectFactory.createInterceptableProxy(pObject, new _MetricInvocationHandler<>(pObject));
+      if (mode == ProxyMode.INVOCATION_HANDLER)
+        return objectFactory.createInterceptableProxy(pObject, new _MetricInvocationHandler<>(pObject));
+      if (mode == ProxyMode.FORWARDING)
+        return objectFactory.createForwardingProxy(pObject, _ENTER_HOOK, _EXIT_HOOK);
+      return objectFactory.createDelegatingProxy(pObject, _ENTER_HOOK, _EXIT_HOOK);
     }
     catch (Throwable e) //NOSONAR catch everything, including NoSuchMethodError
     {
-      _LOGGER.log(Level.WARNING, "Failed to create a metric proxy for object " + pObject, e);
+      // log only once per type, all further proxy creations of this type will be skipped
+      _FAILED_TYPES.put(pObject.getClass(), Boolean.TRUE);
+      _LOGGER.log(Level.WARNING, "Failed to create a metric proxy for type " + pObject.getClass().getName() +
+          ", objects of this type will not be proxied", e);
 
       // return the original value, if an error happens..
       return pObject;
     }
   }
 
+  /**
+   * Reads the mode, that was configured via {@link #PROXY_MODE_PROPERTY}
+   *
+   * @return the configured mode, or {@link ProxyMode#INVOCATION_HANDLER} if no valid mode was configured
+   */
+  @NonNull
+  private static ProxyMode _getConfiguredMode()
+  {
+    String value = System.getProperty(PROXY_MODE_PROPERTY);
+    if (value == null || value.isBlank())
+      return ProxyMode.INVOCATION_HANDLER;
+
+    try
+    {
+      return ProxyMode.valueOf(value.trim().toUpperCase(Locale.ROOT));
+    }
+    catch (IllegalArgumentException e)
+    {
+      _LOGGER.log(Level.WARNING, () -> "Invalid metric proxy mode '" + value + "' in system property " + PROXY_MODE_PROPERTY +
+          ", valid values are " + Arrays.toString(ProxyMode.values()) + ". Falling back to " + ProxyMode.INVOCATION_HANDLER);
+      return ProxyMode.INVOCATION_HANDLER;
+    }
+  }
+
+  /**
+   * Checks, if the given type can be proxied by subclassing it
+   *
+   * @param pType Type to check
+   * @return the reason why it can not be proxied, or NULL if it can be proxied
+   */
+  @Nullable
+  private static String _checkProxyable(@NonNull Class<?> pType)
+  {
+    if (Modifier.isFinal(pType.getModifiers()))
+      return "final type";
+    if (pType.isArray() || pType.isPrimitive())
+      return "no class";
+    if (pType.isEnum() || (pType.getSuperclass() != null && pType.getSuperclass().isEnum()))
+      return "enum";
+    if (pType.isSynthetic() || pType.isHidden())
+      return "synthetic or hidden type";
+
+    try
+    {
+      // the proxy type gets defined in the package of the proxied type
+      MethodHandles.privateLookupIn(pType, MethodHandles.lookup());
+    }
+    catch (IllegalAccessException | RuntimeException e)
+    {
+      return "no access to the package of the type";
+    }
+    return null;
+  }
+
+  /**
+   * Gets called by the delegating proxies before the original method gets invoked
+   *
+   * @param pProxy     Proxy, whose method got called
+   * @param pSignature Name and descriptor of the method
+   * @param pArguments Arguments of the method, NULL if no handler needs them
+   * @return the hints of the handlers
+   */
+  @Nullable
+  private static Object _onMethodEnter(@NonNull Object pProxy, @NonNull String pSignature, Object @Nullable [] pArguments)
+  {
+    // nothing has to be resolved, while no handler should be triggered
+    if (!MetricGate.isOpen())
+      return null;
+
+    ResolvedMethod method = _resolveMethod(pProxy.getClass(), pSignature);
+    return _ACCESSOR.beforeMethodCall(pProxy, method.method, method.chain, pArguments == null ? IMetricHandler.Accessor.NO_ARGUMENTS : pArguments);
+  }
+
+  /**
+   * Gets called by the delegating proxies after the original method was invoked
+   *
+   * @param pProxy       Proxy, whose method got called
+   * @param pSignature   Name and descriptor of the method
+   * @param pArguments   Arguments of the method, NULL if no handler needs them
+   * @param pHints       Hints, that were returned by {@link #_onMethodEnter(Object, String, Object[])}
+   * @param pReturnValue Object that the method returned. NULL if an exception occured
+   * @param pThrowable   Exception that the method throwed. NULL if no exception was thrown during execution.
+   */
+  private static void _onMethodExit(@NonNull Object pProxy, @NonNull String pSignature, Object @Nullable [] pArguments, @Nullable Object pHints,
+                                    @Nullable Object pReturnValue, @Nullable Throwable pThrowable)
+  {
+    // if the gate got closed during the call, the handlers that stored a hint still have to finish
+    if (pHints == null && !MetricGate.isOpen())
+      return;
+
+    ResolvedMethod method = _resolveMethod(pProxy.getClass(), pSignature);
+    _ACCESSOR.afterMethodCall(pProxy, method.method, method.chain, pArguments == null ? IMetricHandler.Accessor.NO_ARGUMENTS : pArguments, pHints,
+                              pReturnValue, pThrowable);
+  }
+
+  /**
+   * Resolves the original method, that got called on the given proxy type
+   *
+   * @param pProxyType Type of the proxy
+   * @param pSignature Name and descriptor of the method
+   * @return the method and its handlers
+   */
+  @NonNull
+  private static ResolvedMethod _resolveMethod(@NonNull Class<?> pProxyType, @NonNull String pSignature)
+  {
+    Map<String, ResolvedMethod> methods = _METHODS.get(pProxyType);
+    ResolvedMethod method = methods.get(pSignature);
+    if (method == null)
+      method = methods.computeIfAbsent(pSignature, pSig -> {
+        Method original = ResolvedMethod.findMethod(InterceptableObjectFactory.getProxiedType(pProxyType), pSig);
+        return new ResolvedMethod(original, _ACCESSOR.getChain(original));
+      });
+    return method;
+  }
+
+  /**
+   * Describes, how the proxies invoke the original methods
+   */
+  enum ProxyMode
+  {
+    /**
+     * The proxy calls the original method directly via generated bytecode.
+     * Exceptions of the original method are passed through unwrapped.
+     */
+    DIRECT,
+
+    /**
+     * Like {@link #DIRECT}, but the state of the original object does not get copied into the proxy.
+     * The proxy forwards every call to the original object, so no state is duplicated or split between both.
+     * Types with methods that can not be forwarded (e.g. final ones) are proxied like {@link #DIRECT}.
+     */
+    FORWARDING,
+
+    /**
+     * The proxy delegates every call to an {@link InvocationHandler}, which invokes the original method reflectively.
+     * This is the default mode.
+     */
+    INVOCATION_HANDLER
+  }
+
   /**
    * Invocation-Handler that delegates all method calls to the appropriate handlers
    * and invokes the original method afterwards
@@ -62,30 +285,30 @@ public class MetricProxyFactoryImpl implements IMetricProxyFactory
     @Override
     public Object invoke(Object pProxy, Method pMethod, @Nullable Object[] pArgs) throws Throwable
     {
-      Map<String, Object> hints = new HashMap<>();
-      AtomicReference<Object> methodResult = new AtomicReference<>();
-      AtomicReference<Throwable> methodException = new AtomicReference<>();
-      Object[] arguments = pArgs == null ? new Object[0] : pArgs;
+      Object[] arguments = pArgs == null ? IMetricHandler.Accessor.NO_ARGUMENTS : pArgs;
+      MetricHandlerChain chain = metricHandlerAccessor.getChain(pMethod);
+      Object methodResult = null;
+      Throwable methodException = null;
+
+      // trigger handlers
+      Object hints = metricHandlerAccessor.beforeMethodCall(pProxy, pMethod, chain, arguments);
 
       try
       {
-        // trigger handlers
-        metricHandlerAccessor.beforeMethodCall(pProxy, pMethod, pMethod, arguments, hints);
-
         // call method itself and track exception, if any occured
         pMethod.setAccessible(true);
-        methodResult.set(pMethod.invoke(object, pArgs));
-        return methodResult.get();
+        methodResult = pMethod.invoke(object, pArgs);
+        return methodResult;
       }
       catch (Throwable t)
       {
-        methodException.set(t);
+        methodException = t;
         throw t;
       }
       finally
       {
         // trigger handlers
-        metricHandlerAccessor.afterMethodCall(pProxy, pMethod, pMethod, arguments, hints, methodResult.get(), methodException.get());
+        metricHandlerAccessor.afterMethodCall(pProxy, pMethod, chain, arguments, hints, methodResult, methodException);
       }
     }
   }
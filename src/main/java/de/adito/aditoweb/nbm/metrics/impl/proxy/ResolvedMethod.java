@@ -0,0 +1,77 @@
+package de.adito.aditoweb.nbm.metrics.impl.proxy;
+
+import de.adito.aditoweb.nbm.metrics.impl.handlers.MetricHandlerChain;
+import lombok.*;
+import org.jetbrains.annotations.Nullable;
+
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+
+/**
+ * Method that gets intercepted, combined with its resolved handlers.
+ * Instances get cached by the interceptors, so that a method has to be resolved only once.
+ *
+ * @author agent, 17.10.2026
+ */
+@RequiredArgsConstructor
+final class ResolvedMethod
+{
+  /**
+   * Method that was intercepted
+   */
+  @NonNull
+  final Method method;
+
+  /**
+   * Handlers to trigger, if the method gets called
+   */
+  @NonNull
+  final MetricHandlerChain chain;
+
+  /**
+   * Searches the method with the given name and descriptor.
+   * The given type will be searched first, then its superclasses and then its interfaces.
+   *
+   * @param pType      Type to search the method in
+   * @param pSignature Name and descriptor of the method, e.g. "toString()Ljava/lang/String;"
+   * @return the method
+   * @throws IllegalStateException if the method was not found
+   */
+  @NonNull
+  static Method findMethod(@NonNull Class<?> pType, @NonNull String pSignature)
+  {
+    for (Class<?> type = pType; type != null; type = type.getSuperclass())
+    {
+      Method method = _findDeclaredMethod(type, pSignature);
+      if (method != null)
+        return method;
+    }
+
+    for (Class<?> type = pType; type != null; type = type.getSuperclass())
+      for (Class<?> iface : type.getInterfaces())
+      {
+        Method method = _findDeclaredMethod(iface, pSignature);
+        if (method != null)
+          return method;
+      }
+
+    throw new IllegalStateException("Method " + pSignature + " not found in " + pType.getName());
+  }
+
+  /**
+   * Searches the method with the given name and descriptor in the declared methods of the given type
+   *
+   * @param pType      Type to search the method in
+   * @param pSignature Name and descriptor of the method
+   * @return the method or null, if the type does not declare it
+   */
+  @Nullable
+  private static Method _findDeclaredMethod(@NonNull Class<?> pType, @NonNull String pSignature)
+  {
+    for (Method method : pType.getDeclaredMethods())
+      if (pSignature.equals(method.getName() + MethodType.methodType(method.getReturnType(), method.getParameterTypes()).toMethodDescriptorString()))
+        return method;
+    return null;
+  }
+
+}
@@ -0,0 +1,55 @@
+package de.adito.aditoweb.nbm.metrics.impl.proxy.bootstrap;
+
+import java.lang.invoke.*;
+
+/**
+ * Connects the dynamically instrumented methods with the analytics module.
+ * This class gets injected into the bootstrap classloader, so that every instrumented class
+ * is able to see it, regardless of its own classloader. Because of that it must only reference JDK classes
+ * and it must never be loaded by the classloader of the analytics module itself - use its name instead of its class literal.
+ * <p>
+ * The handles are backed by {@link MutableCallSite}s, so the JIT treats them as constants and
+ * is able to inline the call into the analytics module. The targets get bound once, if the dynamic proxy loader gets initialized.
+ *
+ * @author agent, 17.10.2026
+ */
+public final class DynamicMetricDispatcher
+{
+
+  /**
+   * Type of the enter handle: (target, declaring type, method name + descriptor, arguments) returns the entered call.
+   * The entered call is NULL, if nothing has to be done after the method.
+   */
+  public static final MethodType ENTER_TYPE = MethodType.methodType(Object.class, Object.class, Class.class, String.class, Object[].class);
+
+  /**
+   * Type of the exit handle: (target, arguments, entered call, return value, exception).
+   * The entered call already contains the resolved method, so that the method does not have to be resolved again.
+   */
+  public static final MethodType EXIT_TYPE = MethodType.methodType(void.class, Object.class, Object[].class, Object.class, Object.class, Throwable.class);
+
+  public static final MutableCallSite ENTER_SITE = new MutableCallSite(MethodHandles.empty(ENTER_TYPE));
+  public static final MutableCallSite EXIT_SITE = new MutableCallSite(MethodHandles.empty(EXIT_TYPE));
+
+  /**
+   * Mirrors the state of the metric gate of the analytics module, so that the instrumented methods are able to skip
+   * the dispatch (and the capturing of the arguments) with a single read, while no handler should be triggered.
+   * Stays closed, until the call sites got bound.
+   */
+  public static volatile boolean open;
+
+  /**
+   * Handle to invoke, if an instrumented method was entered
+   */
+  public static final MethodHandle ENTER = ENTER_SITE.dynamicInvoker();
+
+  /**
+   * Handle to invoke, if an instrumented method was exited
+   */
+  public static final MethodHandle EXIT = EXIT_SITE.dynamicInvoker();
+
+  private DynamicMetricDispatcher()
+  {
+  }
+
+}
@@ -0,0 +1,48 @@
+package de.adito.aditoweb.nbm.metrics.impl.proxy.dynamic;
+
+import lombok.*;
+import net.bytebuddy.description.method.MethodDescription;
+import net.bytebuddy.matcher.ElementMatcher;
+import org.jetbrains.annotations.Nullable;
+
+import java.lang.annotation.Annotation;
+import java.util.regex.Pattern;
+
+/**
+ * Rule, that injects a metric annotation into all methods of the classes with matching names.
+ * In contrast to {@link IDynamicMetricProxyLoader#loadDynamicProxy(Class, Annotation, ElementMatcher)},
+ * the classes do not have to be loaded already - they will be instrumented as soon as they get loaded.
+ *
+ * @author agent, 17.10.2026
+ * @see IDynamicMetricProxyLoader#setRules(java.util.List)
+ */
+@Getter
+@RequiredArgsConstructor
+public final class DynamicMetricRule
+{
+
+  /**
+   * Pattern for the fully qualified names of the classes, whose methods get the annotation
+   */
+  @NonNull
+  private final Pattern typePattern;
+
+  /**
+   * Matcher for the methods of the matching classes, NULL matches all methods
+   */
+  @Nullable
+  private final ElementMatcher<MethodDescription> methodMatcher;
+
+  /**
+   * Annotation to inject
+   */
+  @NonNull
+  private final Annotation annotation;
+
+  @Override
+  public String toString()
+  {
+    return typePattern + "#" + (methodMatcher == null ? "any" : methodMatcher) + " " + annotation;
+  }
+
+}
@@ -0,0 +1,366 @@
+package de.adito.aditoweb.nbm.metrics.impl.proxy.dynamic;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import de.adito.aditoweb.nbm.metrics.api.types.*;
+import de.adito.aditoweb.nbm.metrics.impl.util.AnalyticsOnStopHook;
+import io.reactivex.rxjava3.disposables.Disposable;
+import lombok.NonNull;
+import net.bytebuddy.description.annotation.AnnotationDescription;
+import net.bytebuddy.description.method.MethodDescription;
+import net.bytebuddy.matcher.*;
+import org.jetbrains.annotations.Nullable;
+import org.openide.filesystems.*;
+import org.openide.modules.Places;
+import org.openide.util.Lookup;
+import org.openide.windows.OnShowing;
+
+import java.io.*;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.logging.*;
+import java.util.regex.Pattern;
+
+/**
+ * Reads {@link DynamicMetricRule}s from a file in the user directory, so that methods can be metrified without changing any code.
+ * The file gets watched, so changes are applied without restarting the IDE.
+ * <p>
+ * The file contains one rule per line, "#" starts a comment:
+ * <pre>
+ * &lt;class pattern&gt;[#&lt;method pattern&gt;] &lt;metric&gt; [&lt;attribute&gt;=&lt;value&gt; ...]
+ *
+ * de.adito.designer.**.*Loader#load* Traced transaction="Load Project" startTransaction=true
+ * org.netbeans.core.windows.** Sampled
+ * de.adito.designer.**.*Service#* Timed
+ * </pre>
+ * In class patterns "**" matches any characters, "*" any characters except "." and "?" a single character except ".".
+ * "**." matches any packages, including none. Classes of the analytics module and of ByteBuddy are never matched.
+ * In method patterns "*" matches any characters and "?" a single character.
+ * The metric is either the simple name of a known metric annotation (Traced, Sampled, Counted, Timed) or the fully qualified name of any annotation.
+ *
+ * @author agent, 17.10.2026
+ */
+public final class DynamicMetricRules
+{
+
+  /**
+   * Path of the rules file, relative to the user directory
+   */
+  static final String RULES_FILE = "config/analytics/instrumentation.rules";
+
+  private static final Logger _LOGGER = Logger.getLogger(DynamicMetricRules.class.getName());
+  private static final Map<String, Class<? extends Annotation>> _METRICS = Map.of(Traced.class.getSimpleName(), Traced.class,
+                                                                                  Sampled.class.getSimpleName(), Sampled.class,
+                                                                                  Counted.class.getSimpleName(), Counted.class,
+                                                                                  Timed.class.getSimpleName(), Timed.class);
+
+  private DynamicMetricRules()
+  {
+  }
+
+  /**
+   * Parses the given lines of a rules file. Invalid rules will be logged and ignored.
+   *
+   * @param pLines Lines to parse
+   * @return the valid rules
+   */
+  @NonNull
+  static List<DynamicMetricRule> parse(@NonNull List<String> pLines)
+  {
+    List<DynamicMetricRule> rules = new ArrayList<>();
+    for (int i = 0; i < pLines.size(); i++)
+    {
+      String line = pLines.get(i).trim();
+      if (line.isEmpty() || line.startsWith("#"))
+        continue;
+
+      try
+      {
+        rules.add(parseRule(line));
+      }
+      catch (RuntimeException e)
+      {
+        _LOGGER.log(Level.WARNING, "Invalid dynamic metric rule in line " + (i + 1) + ": " + line + " (" + e.getMessage() + ")");
+      }
+    }
+    return rules;
+  }
+
+  /**
+   * Parses a single rule
+   *
+   * @param pLine Line that contains the rule
+   * @return the rule
+   * @throws IllegalArgumentException if the rule is invalid
+   */
+  @NonNull
+  static DynamicMetricRule parseRule(@NonNull String pLine)
+  {
+    List<String> tokens = _tokenize(pLine);
+    if (tokens.size() < 2)
+      throw new IllegalArgumentException("pattern and metric are required");
+
+    String target = tokens.get(0);
+    int methodSeparator = target.indexOf('#');
+    String classGlob = methodSeparator < 0 ? target : target.substring(0, methodSeparator);
+    String methodGlob = methodSeparator < 0 ? "*" : target.substring(methodSeparator + 1);
+
+    ElementMatcher<MethodDescription> methodMatcher = methodGlob.equals("*") ? null : ElementMatchers.nameMatches(globToRegex(methodGlob, false));
+    return new DynamicMetricRule(Pattern.compile(globToRegex(classGlob, true)), methodMatcher,
+                                 _createAnnotation(tokens.get(1), tokens.subList(2, tokens.size())));
+  }
+
+  /**
+   * Converts a glob pattern to a regular expression
+   *
+   * @param pGlob       Glob pattern
+   * @param pQualified  true, if the pattern matches qualified names - "*" and "?" do not match the package separator then
+   * @return the regular expression
+   */
+  @NonNull
+  static String globToRegex(@NonNull String pGlob, boolean pQualified)
+  {
+    StringBuilder regex = new StringBuilder();
+    for (int i = 0; i < pGlob.length(); i++)
+    {
+      char c = pGlob.charAt(i);
+      if (c == '*' && pQualified && pGlob.startsWith("**.", i))
+      {
+        // any packages, including none - so that "a.**.B" matches "a.B" too
+        regex.append("(?:.*\\.)?");
+        i += 2;
+      }
+      else if (c == '*' && i + 1 < pGlob.length() && pGlob.charAt(i + 1) == '*')
+      {
+        regex.append(".*");
+        i++;
+      }
+      else if (c == '*')
+        regex.append(pQualified ? "[^.]*" : ".*");
+      else if (c == '?')
+        regex.append(pQualified ? "[^.]" : ".");
+      else
+        regex.append(Pattern.quote(String.valueOf(c)));
+    }
+    return regex.toString();
+  }
+
+  /**
+   * Splits the given line by whitespaces. Whitespaces inside of double quotes do not split, the quotes get removed.
+   *
+   * @param pLine Line to split
+   * @return the tokens
+   */
+  @NonNull
+  private static List<String> _tokenize(@NonNull String pLine)
+  {
+    List<String> tokens = new ArrayList<>();
+    StringBuilder token = new StringBuilder();
+    boolean quoted = false;
+    boolean hasToken = false;
+    for (char c : pLine.toCharArray())
+    {
+      if (c == '"')
+      {
+        quoted = !quoted;
+        hasToken = true;
+      }
+      else if (Character.isWhitespace(c) && !quoted)
+      {
+        if (hasToken)
+          tokens.add(token.toString());
+        token.setLength(0);
+        hasToken = false;
+      }
+      else
+      {
+        token.append(c);
+        hasToken = true;
+      }
+    }
+
+    if (quoted)
+      throw new IllegalArgumentException("unclosed quote");
+    if (hasToken)
+      tokens.add(token.toString());
+    return tokens;
+  }
+
+  /**
+   * Creates an instance of the metric annotation with the given name
+   *
+   * @param pMetric     Simple name of a known metric, or the fully qualified name of an annotation
+   * @param pAttributes Attributes of the annotation, in the form "name=value"
+   * @return the annotation
+   */
+  @NonNull
+  private static Annotation _createAnnotation(@NonNull String pMetric, @NonNull List<String> pAttributes)
+  {
+    Class<? extends Annotation> type = _METRICS.get(pMetric);
+    if (type == null)
+    {
+      try
+      {
+        type = Class.forName(pMetric, false, DynamicMetricRules.class.getClassLoader()).asSubclass(Annotation.class);
+      }
+      catch (ClassNotFoundException | ClassCastException e)
+      {
+        throw new IllegalArgumentException("unknown metric " + pMetric, e);
+      }
+    }
+
+    AnnotationDescription.Builder builder = AnnotationDescription.Builder.ofType(type);
+    for (String attribute : pAttributes)
+    {
+      int separator = attribute.indexOf('=');
+      if (separator <= 0)
+        throw new IllegalArgumentException("attribute " + attribute + " has no value");
+      builder = _define(builder, type, attribute.substring(0, separator), attribute.substring(separator + 1));
+    }
+
+    try
+    {
+      return builder.build().prepare(type).load();
+    }
+    catch (Exception e)
+    {
+      throw new IllegalArgumentException(e.getMessage(), e);
+    }
+  }
+
+  /**
+   * Defines a single attribute of an annotation
+   *
+   * @param pBuilder Builder of the annotation
+   * @param pType    Type of the annotation
+   * @param pName    Name of the attribute
+   * @param pValue   Value of the attribute, as string
+   * @return the builder with the defined attribute
+   */
+  @NonNull
+  private static AnnotationDescription.Builder _define(@NonNull AnnotationDescription.Builder pBuilder, @NonNull Class<? extends Annotation> pType,
+                                                       @NonNull String pName, @NonNull String pValue)
+  {
+    Method attribute;
+    try
+    {
+      attribute = pType.getMethod(pName);
+    }
+    catch (NoSuchMethodException e)
+    {
+      throw new IllegalArgumentException("unknown attribute " + pName, e);
+    }
+
+    Class<?> valueType = attribute.getReturnType();
+    if (valueType == String.class)
+      return pBuilder.define(pName, pValue);
+    if (valueType == boolean.class)
+    {
+      if (!pValue.equals("true") && !pValue.equals("false"))
+        throw new IllegalArgumentException("attribute " + pName + " has to be true or false");
+      return pBuilder.define(pName, Boolean.parseBoolean(pValue));
+    }
+    if (valueType == int.class)
+      return pBuilder.define(pName, Integer.parseInt(pValue));
+    if (valueType == long.class)
+      return pBuilder.define(pName, Long.parseLong(pValue));
+    if (valueType == double.class)
+      return pBuilder.define(pName, Double.parseDouble(pValue));
+    if (valueType.isEnum())
+    {
+      //noinspection unchecked,rawtypes
+      return pBuilder.define(pName, Enum.valueOf((Class) valueType, pValue));
+    }
+    throw new IllegalArgumentException("attribute " + pName + " of type " + valueType.getSimpleName() + " is not supported");
+  }
+
+  /**
+   * Loads the rules file on startup and watches it for changes
+   */
+  @OnShowing
+  public static class Hook implements Runnable
+  {
+    private static final ExecutorService _EXECUTOR = Executors.newSingleThreadExecutor(new ThreadFactoryBuilder()
+                                                                                           .setNameFormat("tDynamicMetricRules-%d")
+                                                                                           .setDaemon(true)
+                                                                                           .build());
+    private static boolean rulesApplied;
+
+    @Override
+    public void run()
+    {
+      File userDirectory = Places.getUserDirectory();
+      if (userDirectory == null)
+        return;
+
+      File file = new File(userDirectory, RULES_FILE);
+      FileChangeListener listener = new FileChangeAdapter()
+      {
+        @Override
+        public void fileDataCreated(FileEvent pEvent)
+        {
+          _scheduleApply(file);
+        }
+
+        @Override
+        public void fileChanged(FileEvent pEvent)
+        {
+          _scheduleApply(file);
+        }
+
+        @Override
+        public void fileDeleted(FileEvent pEvent)
+        {
+          _scheduleApply(file);
+        }
+      };
+      FileUtil.addFileChangeListener(listener, file);
+      AnalyticsOnStopHook.addDisposable(Disposable.fromAction(() -> FileUtil.removeFileChangeListener(listener, file)));
+      _scheduleApply(file);
+    }
+
+    /**
+     * Reads the rules file and applies its rules in the background
+     *
+     * @param pFile Rules file
+     */
+    private static void _scheduleApply(@NonNull File pFile)
+    {
+      _EXECUTOR.execute(() -> {
+        try
+        {
+          _apply(pFile.isFile() ? Files.readAllLines(pFile.toPath(), StandardCharsets.UTF_8) : null);
+        }
+        catch (Exception e)
+        {
+          _LOGGER.log(Level.WARNING, "Failed to read the dynamic metric rules from " + pFile, e);
+        }
+      });
+    }
+
+    /**
+     * Applies the given lines of the rules file
+     *
+     * @param pLines Lines of the file, NULL if it does not exist
+     */
+    private static void _apply(@Nullable List<String> pLines)
+    {
+      // nothing to do, as long as nobody wrote any rules - so that the agent does not get installed needlessly
+      if (pLines == null && !rulesApplied)
+        return;
+
+      List<DynamicMetricRule> rules = pLines == null ? List.of() : parse(pLines);
+      IDynamicMetricProxyLoader loader = Lookup.getDefault().lookup(IDynamicMetricProxyLoader.class);
+      if (loader != null)
+      {
+        loader.setRules(rules);
+        rulesApplied = true;
+        _LOGGER.log(Level.INFO, () -> "Applied " + rules.size() + " dynamic metric rules");
+      }
+    }
+  }
+
+}
@@ -6,6 +6,7 @@ import net.bytebuddy.matcher.ElementMatcher;
 import org.jetbrains.annotations.*;
 
 import java.lang.annotation.Annotation;
+import java.util.List;
 
 /**
  * Injects dynamic metric annotations into already defined
@@ -19,6 +20,10 @@ public interface IDynamicMetricProxyLoader
   /**
    * Injects the given annotation into all methods (which are not abstract) of the given class.
    * All inner classes of the given one will be touched too.
+   * <p>
+   * Classes that get loaded afterwards are instrumented as soon as they get loaded. An already loaded class keeps its
+   * current bytecode for a short delay (250 ms) after the last registration, so calls during that delay are not recorded yet.
+   * Call {@link #flush()} afterwards, if the annotation has to be active immediately.
    *
    * @param pClass      Class to inject the annotations to
    * @param pAnnotation Annotation to be injected
@@ -26,4 +31,20 @@ public interface IDynamicMetricProxyLoader
    */
   void loadDynamicProxy(@NonNull Class<?> pClass, @NonNull Annotation pAnnotation, @Nullable ElementMatcher<MethodDescription> pMatcher);
 
+  /**
+   * Already loaded classes will not be changed immediately by {@link #loadDynamicProxy(Class, Annotation, ElementMatcher)}.
+   * They will be retransformed together after a short delay, so that multiple registrations only need a single retransformation.
+   * This method retransforms all pending classes immediately and returns after the retransformation has finished.
+   */
+  void flush();
+
+  /**
+   * Replaces the rules, that were set by the previous call of this method.
+   * All loaded classes, that match the previous or the new rules, get retransformed immediately.
+   * The registrations of {@link #loadDynamicProxy(Class, Annotation, ElementMatcher)} are not affected.
+   *
+   * @param pRules Rules to apply
+   */
+  void setRules(@NonNull List<DynamicMetricRule> pRules);
+
 }
@@ -0,0 +1,93 @@
+package de.adito.aditoweb.nbm.metrics.impl.eventlogger.sentry;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test for {@link ExceptionDeduplicator}
+ *
+ * @author agent, 17.10.2026
+ */
+class ExceptionDeduplicatorTest
+{
+
+  @Test
+  void shouldOnlySendFirstOccurrence()
+  {
+    ExceptionDeduplicator deduplicator = new ExceptionDeduplicator(10);
+    assertTrue(deduplicator.offer(_create("first message", 10)));
+    assertFalse(deduplicator.offer(_create("second message", 20)));
+    assertFalse(deduplicator.offer(_create("third message", 30)));
+
+    // another type is another fingerprint
+    assertTrue(deduplicator.offer(new IllegalArgumentException()));
+  }
+
+  @Test
+  void shouldSummarizeFurtherOccurrences()
+  {
+    ExceptionDeduplicator deduplicator = new ExceptionDeduplicator(10);
+    deduplicator.offer(_create("message", 10));
+    deduplicator.offer(_create("message", 10));
+    RuntimeException latest = _create("latest", 10);
+    deduplicator.offer(latest);
+
+    List<ExceptionDeduplicator.Summary> summaries = deduplicator.drainSummaries();
+    assertEquals(1, summaries.size());
+    assertEquals(2, summaries.get(0).count);
+    assertSame(latest, summaries.get(0).exception);
+
+    // counts are reset, but the fingerprint stays known
+    assertTrue(deduplicator.drainSummaries().isEmpty());
+    assertFalse(deduplicator.offer(_create("message", 10)));
+    assertEquals(1, deduplicator.drainSummaries().get(0).count);
+  }
+
+  @Test
+  void shouldForgetLeastRecentlyUsedFingerprints()
+  {
+    ExceptionDeduplicator deduplicator = new ExceptionDeduplicator(2);
+    assertTrue(deduplicator.offer(new IllegalStateException()));
+    assertTrue(deduplicator.offer(new IllegalArgumentException()));
+    assertFalse(deduplicator.offer(new IllegalStateException()));
+    assertTrue(deduplicator.offer(new UnsupportedOperationException()));
+
+    // IllegalArgumentException was evicted, IllegalStateException was used more recently
+    assertTrue(deduplicator.offer(new IllegalArgumentException()));
+    assertFalse(deduplicator.offer(new UnsupportedOperationException()));
+  }
+
+  @Test
+  void shouldUseInAppFramesForFingerprint()
+  {
+    RuntimeException exception = new RuntimeException();
+    exception.setStackTrace(new StackTraceElement[]{
+        new StackTraceElement("java.awt.Component", "paint", "Component.java", 10),
+        new StackTraceElement("de.adito.Painter$$Lambda$123/0x0000000800c0b040", "run", null, -1),
+        new StackTraceElement("de.adito.Painter$1", "paint", "Painter.java", 42),
+        });
+
+    assertEquals("java.lang.RuntimeException|de.adito.Painter$$Lambda#run|de.adito.Painter$#paint", ExceptionDeduplicator.fingerprint(exception));
+  }
+
+  /**
+   * Creates an exception with the given message and a stacktrace, that only differs in the line number
+   *
+   * @param pMessage Message of the exception
+   * @param pLine    Line number of the top frame
+   * @return the exception
+   */
+  private static RuntimeException _create(String pMessage, int pLine)
+  {
+    RuntimeException exception = new RuntimeException(pMessage);
+    exception.setStackTrace(new StackTraceElement[]{
+        new StackTraceElement("de.adito.Painter", "paint", "Painter.java", pLine),
+        new StackTraceElement("java.awt.Component", "paint", "Component.java", 10)
+    });
+    return exception;
+  }
+
+}
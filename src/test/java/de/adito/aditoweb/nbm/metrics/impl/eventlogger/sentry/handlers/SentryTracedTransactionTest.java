@@ -10,6 +10,7 @@ import org.mockito.invocation.InvocationOnMock;
 import org.mockito.stubbing.Answer;
 
 import java.util.*;
+import java.util.concurrent.*;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.mockito.Mockito.*;
@@ -119,6 +120,68 @@ class SentryTracedTransactionTest
     assertEquals(3, mockedSpans.size());
   }
 
+  /**
+   * Checks, that the spans of different threads are not nested into each other
+   */
+  @Test
+  void shouldNestSpansPerThread() throws Exception
+  {
+    SentryTracedTransaction transaction = new SentryTracedTransaction("myName");
+    SpanID operation1 = transaction.startSpan("operation1", null);
+
+    // another thread, while operation1 is still running
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try
+    {
+      executor.submit(() -> transaction.startSpan("operation2", null)).get(10, TimeUnit.SECONDS);
+    }
+    finally
+    {
+      executor.shutdownNow();
+    }
+
+    // nested call on the first thread
+    transaction.startSpan("operation3", null);
+
+    assertEquals(3, mockedSpans.size());
+    verify(mockedSpans.get(0), times(1)).startChild(any(), any());
+    assertEquals("operation3", mockedSpans.get(2).getOperation());
+    transaction.scheduleSpanFinish(operation1, null);
+  }
+
+  /**
+   * Checks, that spans which were kept open for reuse get finished with the transaction
+   */
+  @Test
+  void shouldFinishReusableSpansWithTransaction()
+  {
+    SentryTracedTransaction transaction = new SentryTracedTransaction("myName");
+    transaction.scheduleSpanFinish(transaction.startSpan("operation1", null), null);
+    verify(mockedSpans.get(0), never()).finish(any(SpanStatus.class));
+
+    transaction.finish(null);
+    verify(mockedSpans.get(0), times(1)).finish(eq(SpanStatus.OK), any(SentryDate.class));
+  }
+
+  /**
+   * Checks, that spans which are still in use when the transaction finishes are finished by their own thread
+   */
+  @Test
+  void shouldFinishSpansInUseAfterTransaction()
+  {
+    SentryTracedTransaction transaction = new SentryTracedTransaction("myName");
+    SpanID operation1 = transaction.startSpan("operation1", null);
+
+    // the span is still in use, so the transaction must not finish it
+    transaction.finish(null);
+    verify(mockedSpans.get(0), never()).finish(any(SpanStatus.class));
+    verify(mockedSpans.get(0), never()).finish(any(SpanStatus.class), any(SentryDate.class));
+
+    // it must not be kept open for reuse anymore
+    transaction.scheduleSpanFinish(operation1, null);
+    verify(mockedSpans.get(0), times(1)).finish(SpanStatus.OK);
+  }
+
   /**
    * Close all static mocks and clear the spans to release memory
    */
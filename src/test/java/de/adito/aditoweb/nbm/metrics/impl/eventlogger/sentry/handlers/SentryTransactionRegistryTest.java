@@ -0,0 +1,109 @@
+package de.adito.aditoweb.nbm.metrics.impl.eventlogger.sentry.handlers;
+
+import io.sentry.*;
+import org.junit.jupiter.api.*;
+import org.mockito.MockedStatic;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+/**
+ * Test for {@link SentryTransactionRegistry}
+ *
+ * @author agent, 17.10.2026
+ */
+class SentryTransactionRegistryTest
+{
+
+  private final List<ITransaction> transactions = new ArrayList<>();
+  private MockedStatic<Sentry> sentryMockedStatic;
+
+  @BeforeEach
+  void setUp()
+  {
+    sentryMockedStatic = mockStatic(Sentry.class);
+    sentryMockedStatic.when(() -> Sentry.startTransaction(any(String.class), any(String.class)))
+        .thenAnswer(pInv -> {
+          ITransaction transaction = mock(ITransaction.class);
+          transactions.add(transaction);
+          return transaction;
+        });
+  }
+
+  @AfterEach
+  void tearDown()
+  {
+    transactions.clear();
+    sentryMockedStatic.close();
+  }
+
+  @Test
+  void shouldShareCombinedTransactions() throws Exception
+  {
+    SentryTransactionRegistry registry = new SentryTransactionRegistry();
+    assertNull(registry.get("transaction", false));
+    SentryTracedTransaction transaction = registry.start("transaction", false);
+
+    // visible on other threads too
+    assertSame(transaction, registry.get("transaction", false));
+    assertSame(transaction, _onOtherThread(() -> registry.get("transaction", false)));
+    assertEquals(Map.of("transaction", 1), registry.getLiveTransactions());
+  }
+
+  @Test
+  void shouldSeparateTransactionsPerThread() throws Exception
+  {
+    SentryTransactionRegistry registry = new SentryTransactionRegistry();
+    SentryTracedTransaction transaction = registry.start("transaction", true);
+    assertSame(transaction, registry.get("transaction", true));
+    assertNull(registry.get("transaction", false));
+
+    // not visible on other threads
+    assertNull(_onOtherThread(() -> registry.get("transaction", true)));
+    assertEquals(Map.of("transaction", 1), registry.getLiveTransactions());
+  }
+
+  @Test
+  void shouldEvictFinishedTransactions()
+  {
+    SentryTransactionRegistry registry = new SentryTransactionRegistry();
+
+    // removed explicitly by the call that started it
+    SentryTracedTransaction first = registry.start("first", true);
+    registry.remove("first", true, first);
+    assertNull(registry.get("first", true));
+
+    // finished without the call that started it
+    registry.start("second", false);
+    when(transactions.get(1).isFinished()).thenReturn(true);
+    assertNull(registry.get("second", false));
+
+    assertEquals(Map.of(), registry.getLiveTransactions());
+    assertEquals(2, registry.getStartedTransactions());
+    assertEquals(2, registry.getEvictedTransactions());
+  }
+
+  /**
+   * Executes the given callable on another thread and waits for its result
+   *
+   * @param pCallable Callable to execute
+   * @return the result
+   */
+  private static <T> T _onOtherThread(Callable<T> pCallable) throws Exception
+  {
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try
+    {
+      return executor.submit(pCallable).get(10, TimeUnit.SECONDS);
+    }
+    finally
+    {
+      executor.shutdownNow();
+    }
+  }
+
+}
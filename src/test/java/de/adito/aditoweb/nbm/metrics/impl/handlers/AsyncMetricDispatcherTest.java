@@ -0,0 +1,47 @@
+package de.adito.aditoweb.nbm.metrics.impl.handlers;
+
+import org.junit.jupiter.api.Test;
+
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Method;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.mock;
+
+/**
+ * Test for {@link AsyncMetricDispatcher}
+ *
+ * @author agent, 17.10.2026
+ */
+class AsyncMetricDispatcherTest
+{
+
+  @Test
+  void shouldReuseIdOfSameHandlerAndMethod() throws Exception
+  {
+    IAsyncMetricHandler<?> handler = mock(IAsyncMetricHandler.class);
+    Method method = AsyncMetricDispatcherTest.class.getDeclaredMethod("shouldReuseIdOfSameHandlerAndMethod");
+    Method otherMethod = AsyncMetricDispatcherTest.class.getDeclaredMethod("shouldSeparateHandlers");
+
+    int id = AsyncMetricDispatcher.register(handler, mock(Annotation.class), method);
+    assertEquals(id, AsyncMetricDispatcher.register(handler, mock(Annotation.class), method));
+    assertNotEquals(id, AsyncMetricDispatcher.register(handler, mock(Annotation.class), otherMethod));
+  }
+
+  @Test
+  void shouldSeparateHandlers() throws Exception
+  {
+    Method method = AsyncMetricDispatcherTest.class.getDeclaredMethod("shouldSeparateHandlers");
+    int id = AsyncMetricDispatcher.register(mock(IAsyncMetricHandler.class), mock(Annotation.class), method);
+    assertNotEquals(id, AsyncMetricDispatcher.register(mock(IAsyncMetricHandler.class), mock(Annotation.class), method));
+  }
+
+  @Test
+  void shouldParseDropPolicyLeniently()
+  {
+    assertEquals(MetricRecordRing.DropPolicy.RETRY_BRIEFLY, AsyncMetricDispatcher.parseDropPolicy(" retry_briefly "));
+    assertEquals(MetricRecordRing.DropPolicy.DROP_NEWEST, AsyncMetricDispatcher.parseDropPolicy(null));
+    assertEquals(MetricRecordRing.DropPolicy.DROP_NEWEST, AsyncMetricDispatcher.parseDropPolicy("unknown"));
+  }
+
+}
@@ -0,0 +1,105 @@
+package de.adito.aditoweb.nbm.metrics.impl.handlers;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test for {@link ConcurrentHistogram}
+ *
+ * @author agent, 17.10.2026
+ */
+class ConcurrentHistogramTest
+{
+
+  @Test
+  void shouldMapValuesToContinuousBuckets()
+  {
+    for (int i = 0; i < ConcurrentHistogram.BUCKET_COUNT; i++)
+    {
+      long lowest = ConcurrentHistogram.lowestValue(i);
+      long highest = ConcurrentHistogram.highestValue(i);
+      assertEquals(i, ConcurrentHistogram.bucketIndex(lowest));
+      assertEquals(i, ConcurrentHistogram.bucketIndex(highest));
+      if (i > 0)
+        assertEquals(ConcurrentHistogram.highestValue(i - 1) + 1, lowest);
+    }
+    assertEquals(ConcurrentHistogram.BUCKET_COUNT - 1, ConcurrentHistogram.bucketIndex(Long.MAX_VALUE));
+  }
+
+  @Test
+  void shouldRecordSmallValuesExactly()
+  {
+    ConcurrentHistogram histogram = new ConcurrentHistogram(1);
+    for (int i = 1; i <= 10; i++)
+      histogram.record(i, 1);
+
+    HistogramSnapshot snapshot = histogram.snapshot(histogram.newSnapshotState());
+    assertEquals(10, snapshot.getCount());
+    assertEquals(55, snapshot.getSum());
+    assertEquals(1, snapshot.getMin());
+    assertEquals(10, snapshot.getMax());
+    assertEquals(5, snapshot.getValueAtPercentile(50));
+    assertEquals(9, snapshot.getValueAtPercentile(90));
+    assertEquals(5.5, snapshot.getMean());
+  }
+
+  @Test
+  void shouldKeepRelativeErrorOfLargeValues()
+  {
+    ConcurrentHistogram histogram = new ConcurrentHistogram(1);
+    histogram.record(1_000_000, 3);
+
+    HistogramSnapshot snapshot = histogram.snapshot(histogram.newSnapshotState());
+    assertEquals(3, snapshot.getCount());
+    assertEquals(3_000_000, snapshot.getSum());
+    assertEquals(1_000_000, snapshot.getValueAtPercentile(99), 1_000_000d / ConcurrentHistogram.SUB_BUCKET_COUNT);
+  }
+
+  @Test
+  void shouldOnlyContainValuesSincePreviousSnapshot()
+  {
+    ConcurrentHistogram histogram = new ConcurrentHistogram(1);
+    long[] state = histogram.newSnapshotState();
+    histogram.record(5, 1);
+    assertEquals(1, histogram.snapshot(state).getCount());
+
+    assertEquals(0, histogram.snapshot(state).getCount());
+
+    histogram.record(7, 2);
+    HistogramSnapshot snapshot = histogram.snapshot(state);
+    assertEquals(2, snapshot.getCount());
+    assertEquals(14, snapshot.getSum());
+    assertEquals(7, snapshot.getMin());
+  }
+
+  @Test
+  void shouldRecordConcurrently() throws Exception
+  {
+    ConcurrentHistogram histogram = new ConcurrentHistogram(4);
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    try
+    {
+      CountDownLatch latch = new CountDownLatch(4);
+      for (int t = 0; t < 4; t++)
+        executor.execute(() -> {
+          for (int i = 0; i < 10_000; i++)
+            histogram.record(i % 100, 1);
+          latch.countDown();
+        });
+      assertTrue(latch.await(10, TimeUnit.SECONDS));
+    }
+    finally
+    {
+      executor.shutdownNow();
+    }
+
+    HistogramSnapshot snapshot = histogram.snapshot(histogram.newSnapshotState());
+    assertEquals(40_000, snapshot.getCount());
+    assertEquals(4 * 100 * 4950, snapshot.getSum());
+    assertEquals(0, snapshot.getMin());
+  }
+
+}
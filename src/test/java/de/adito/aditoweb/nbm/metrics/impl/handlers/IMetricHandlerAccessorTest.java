@@ -0,0 +1,110 @@
+package de.adito.aditoweb.nbm.metrics.impl.handlers;
+
+import org.junit.jupiter.api.*;
+
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Method;
+import java.util.concurrent.atomic.LongAdder;
+
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * Test for {@link IMetricHandler.Accessor}
+ *
+ * @author agent, 17.10.2026
+ */
+class IMetricHandlerAccessorTest
+{
+
+  private final IMetricHandler.Accessor accessor = new IMetricHandler.Accessor();
+  private IMetricHandler<Annotation> sampledHandler;
+  private IMetricHandler<Annotation> handler;
+  private MethodSampler sampler;
+  private Method method;
+
+  @BeforeEach
+  @SuppressWarnings("unchecked")
+  void setUp() throws Exception
+  {
+    sampledHandler = mock(IMetricHandler.class);
+    handler = mock(IMetricHandler.class);
+    method = Object.class.getMethod("toString");
+
+    // sampler, that skips every call
+    sampler = new MethodSampler(0, 1_000_000_000);
+    sampler.demote();
+    sampler.demote();
+  }
+
+  @Test
+  void shouldSkipSampledHandlers() throws Exception
+  {
+    MetricHandlerChain chain = _createChain(new IMetricHandler<?>[]{sampledHandler}, new boolean[]{true});
+    _call(chain, "hint");
+
+    verifyNoInteractions(sampledHandler);
+  }
+
+  @Test
+  void shouldNotSkipHandlersThatAreNotSampled() throws Exception
+  {
+    when(handler.beforeMethod(any(), any(), any(), any(), anyInt())).thenReturn("hint");
+    MetricHandlerChain chain = _createChain(new IMetricHandler<?>[]{handler, sampledHandler}, new boolean[]{false, true});
+    _call(chain, "result");
+
+    verify(handler).beforeMethod(any(), any(), eq(method), any(), eq(1));
+    verify(handler).afterMethod(any(), any(), eq(method), any(), eq("result"), isNull(), eq("hint"), eq(1));
+    verifyNoInteractions(sampledHandler);
+  }
+
+  @Test
+  void shouldSkipAllHandlersOfDemotedChain() throws Exception
+  {
+    MetricHandlerChain chain = _createChain(new IMetricHandler<?>[]{handler}, new boolean[]{false});
+    chain.demote();
+    _call(chain, "result");
+
+    verifyNoInteractions(handler);
+  }
+
+  @Test
+  void shouldHandleEveryCallWithoutSampling() throws Exception
+  {
+    MethodSampler everyCall = new MethodSampler(0, 1_000_000_000);
+    MetricHandlerChain chain = new MetricHandlerChain(new Annotation[]{mock(Annotation.class)}, new IMetricHandler<?>[]{sampledHandler}, new int[]{-1},
+                                                      new boolean[]{true}, new LongAdder[]{new LongAdder()}, everyCall,
+                                                      new MethodOverhead("test", 0));
+    _call(chain, null);
+
+    verify(sampledHandler).beforeMethod(any(), any(), eq(method), any(), eq(1));
+    verify(sampledHandler).afterMethod(any(), any(), eq(method), any(), isNull(), isNull(), isNull(), eq(1));
+  }
+
+  /**
+   * Creates a chain with the skipping sampler
+   */
+  private MetricHandlerChain _createChain(IMetricHandler<?>[] pHandlers, boolean[] pSampled)
+  {
+    Annotation[] annotations = new Annotation[pHandlers.length];
+    int[] asyncTargets = new int[pHandlers.length];
+    LongAdder[] nanos = new LongAdder[pHandlers.length];
+    for (int i = 0; i < pHandlers.length; i++)
+    {
+      annotations[i] = mock(Annotation.class);
+      asyncTargets[i] = -1;
+      nanos[i] = new LongAdder();
+    }
+    return new MetricHandlerChain(annotations, pHandlers, asyncTargets, pSampled, nanos, sampler, new MethodOverhead("test", 0));
+  }
+
+  /**
+   * Simulates a call of the method, that returns the given result
+   */
+  private void _call(MetricHandlerChain pChain, Object pResult)
+  {
+    Object hints = accessor.beforeMethodCall(this, method, pChain, IMetricHandler.Accessor.NO_ARGUMENTS);
+    accessor.afterMethodCall(this, method, pChain, IMetricHandler.Accessor.NO_ARGUMENTS, hints, pResult, null);
+  }
+
+}
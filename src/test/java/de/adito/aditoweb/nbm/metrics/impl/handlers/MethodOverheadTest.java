@@ -0,0 +1,91 @@
+package de.adito.aditoweb.nbm.metrics.impl.handlers;
+
+import org.junit.jupiter.api.Test;
+
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Method;
+import java.util.concurrent.atomic.LongAdder;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.mock;
+
+/**
+ * Test for {@link MethodOverhead}
+ *
+ * @author agent, 17.10.2026
+ */
+class MethodOverheadTest
+{
+
+  @Test
+  void shouldAccountTime()
+  {
+    MethodOverhead overhead = new MethodOverhead("test", 0);
+    overhead.record(100, 0);
+    overhead.record(50, 1);
+
+    assertEquals(150, overhead.getNanos());
+    assertEquals(1, overhead.getCalls());
+  }
+
+  @Test
+  void shouldContinueTotalsOfReplacedRegistration() throws Exception
+  {
+    Method method = MethodOverheadTest.class.getDeclaredMethod("shouldContinueTotalsOfReplacedRegistration");
+    MethodOverhead first = MethodOverhead.register(method);
+    first.record(100, 1);
+
+    // e.g. the handlers of the method got resolved again
+    MethodOverhead second = MethodOverhead.register(method);
+    second.record(50, 1);
+    MethodOverhead.unregister(method, second);
+
+    assertEquals(150, second.getNanos());
+    assertEquals(2, second.getCalls());
+    assertEquals(100, first.getNanos()); // keeps the replaced registration reachable, it is only referenced weakly
+  }
+
+  @Test
+  void shouldDemoteExpensiveMethods()
+  {
+    MethodSampler sampler = new MethodSampler(0, 1_000_000_000);
+    MethodOverhead overhead = new MethodOverhead("test", 1_000);
+    MetricHandlerChain chain = _createChain(sampler, overhead);
+
+    // first demotion -> sampled
+    for (int i = 0; i < 1024; i++)
+      overhead.record(10_000, 1);
+    assertTrue(chain.demoted);
+    assertEquals(1, sampler.sample());
+
+    // second demotion -> disabled
+    for (int i = 0; i < 1024; i++)
+      overhead.record(10_000, 1);
+    assertEquals(0, sampler.sample());
+
+    // nothing left to demote
+    assertNull(chain.demote());
+  }
+
+  @Test
+  void shouldNotDemoteCheapMethods()
+  {
+    MethodSampler sampler = new MethodSampler(0, 1_000_000_000);
+    MethodOverhead overhead = new MethodOverhead("test", 1_000);
+    MetricHandlerChain chain = _createChain(sampler, overhead);
+    for (int i = 0; i < 4096; i++)
+      overhead.record(10, 1);
+    assertFalse(chain.demoted);
+    assertEquals(1, sampler.sample());
+  }
+
+  /**
+   * Creates a chain with a single handler, that is not sampled
+   */
+  private MetricHandlerChain _createChain(MethodSampler pSampler, MethodOverhead pOverhead)
+  {
+    return new MetricHandlerChain(new Annotation[]{mock(Annotation.class)}, new IMetricHandler<?>[]{mock(IMetricHandler.class)}, new int[]{-1},
+                                  new boolean[]{false}, new LongAdder[]{new LongAdder()}, pSampler, pOverhead);
+  }
+
+}
@@ -0,0 +1,60 @@
+package de.adito.aditoweb.nbm.metrics.impl.handlers;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test for {@link MethodSampler}
+ *
+ * @author agent, 17.10.2026
+ */
+class MethodSamplerTest
+{
+
+  @Test
+  void shouldHandleAllCallsIfDisabled()
+  {
+    MethodSampler sampler = new MethodSampler(0, TimeUnit.MILLISECONDS.toNanos(1));
+    for (int i = 0; i < 10_000; i++)
+      assertEquals(1, sampler.sample());
+    assertEquals(1, sampler.getWeight());
+  }
+
+  @Test
+  void shouldSampleFrequentCalls()
+  {
+    MethodSampler sampler = new MethodSampler(10, TimeUnit.MILLISECONDS.toNanos(1));
+    long end = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(50);
+    while (System.nanoTime() < end)
+      sampler.sample();
+
+    // many more calls than 10 per second -> every handled call represents a lot of calls
+    assertTrue(sampler.getWeight() > 1);
+  }
+
+  @Test
+  void shouldReturnWeightOfSampledWindow() throws Exception
+  {
+    MethodSampler sampler = new MethodSampler(1, TimeUnit.MILLISECONDS.toNanos(200));
+    assertEquals(1, sampler.sample());
+    assertEquals(1, sampler.sample());
+    Thread.sleep(250);
+
+    // this call starts a new window with a higher interval, but it was sampled with the old one
+    assertEquals(1, sampler.sample());
+    assertTrue(sampler.getWeight() > 1);
+  }
+
+  @Test
+  void shouldHandleRareCalls()
+  {
+    MethodSampler sampler = new MethodSampler(1000, TimeUnit.SECONDS.toNanos(1));
+    for (int i = 0; i < 100; i++)
+      assertEquals(1, sampler.sample());
+    assertEquals(1, sampler.getWeight());
+  }
+
+}
@@ -0,0 +1,111 @@
+package de.adito.aditoweb.nbm.metrics.impl.handlers;
+
+import de.adito.aditoweb.nbm.metrics.api.types.Timed;
+import org.junit.jupiter.api.Test;
+
+import java.lang.reflect.Method;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.mock;
+
+/**
+ * Test for {@link MethodStatisticsRegistry}
+ *
+ * @author agent, 17.10.2026
+ */
+class MethodStatisticsRegistryTest
+{
+
+  @Test
+  void shouldCountCalls() throws Exception
+  {
+    MethodStatisticsRegistry.Entry entry = new MethodStatisticsRegistry.Entry(_getMethod());
+    entry.count(false, 1);
+    entry.count(false, 3);
+    entry.count(true, 1);
+
+    MethodStatistics statistics = entry.snapshot();
+    assertNotNull(statistics);
+    assertEquals(MethodStatisticsRegistryTest.class.getName() + "#method(String,int)", statistics.getMethod());
+    assertEquals(5, statistics.getCalls());
+    assertEquals(1, statistics.getFailures());
+    assertNull(statistics.getLatencyNanos());
+  }
+
+  @Test
+  void shouldRecordLatencies() throws Exception
+  {
+    MethodStatisticsRegistry.Entry entry = new MethodStatisticsRegistry.Entry(_getMethod());
+    for (int i = 1; i <= 100; i++)
+      entry.time(i * 1_000_000L, 1);
+
+    MethodStatistics statistics = entry.snapshot();
+    assertNotNull(statistics);
+    assertEquals(0, statistics.getCalls());
+
+    HistogramSnapshot latency = statistics.getLatencyNanos();
+    assertNotNull(latency);
+    assertEquals(100, latency.getCount());
+    assertEquals(50_000_000, latency.getValueAtPercentile(50), 50_000_000d / ConcurrentHistogram.SUB_BUCKET_COUNT);
+    assertEquals(95_000_000, latency.getValueAtPercentile(95), 95_000_000d / ConcurrentHistogram.SUB_BUCKET_COUNT);
+    assertEquals(99_000_000, latency.getValueAtPercentile(99), 99_000_000d / ConcurrentHistogram.SUB_BUCKET_COUNT);
+    assertEquals(100_000_000, latency.getMax(), 100_000_000d / ConcurrentHistogram.SUB_BUCKET_COUNT);
+  }
+
+  @Test
+  void shouldOnlyContainCallsOfInterval() throws Exception
+  {
+    MethodStatisticsRegistry.Entry entry = new MethodStatisticsRegistry.Entry(_getMethod());
+    entry.count(false, 2);
+    entry.time(10, 2);
+    assertNotNull(entry.snapshot());
+
+    // nothing happened in the second interval
+    assertNull(entry.snapshot());
+
+    entry.count(true, 1);
+    MethodStatistics statistics = entry.snapshot();
+    assertNotNull(statistics);
+    assertEquals(1, statistics.getCalls());
+    assertEquals(1, statistics.getFailures());
+    assertNotNull(statistics.getLatencyNanos());
+    assertEquals(0, statistics.getLatencyNanos().getCount());
+  }
+
+  @Test
+  void shouldReuseEntryOfSameMethod() throws Exception
+  {
+    MethodStatisticsRegistry.Entry entry = MethodStatisticsRegistry.get(_getMethod());
+    assertSame(entry, MethodStatisticsRegistry.get(_getMethod()));
+    assertEquals(MethodStatisticsRegistryTest.class.getName() + "#method(java.lang.String,int)", MethodStatisticsRegistry.signature(_getMethod()));
+  }
+
+  @Test
+  void shouldNotTimeCallsWithUnknownStart() throws Exception
+  {
+    Method method = MethodStatisticsRegistryTest.class.getDeclaredMethod("untimedMethod");
+    MetricRecord record = new MetricRecord();
+    record.startNanos = -1;
+    record.endNanos = 10;
+    record.weight = 1;
+
+    new TimerMetricHandler().handleRecord(mock(Timed.class), method, record);
+    assertNull(MethodStatisticsRegistry.get(method).snapshot());
+  }
+
+  private static Method _getMethod() throws NoSuchMethodException
+  {
+    return MethodStatisticsRegistryTest.class.getDeclaredMethod("method", String.class, int.class);
+  }
+
+  @SuppressWarnings("unused") // only used for its signature
+  private static void method(String pFirst, int pSecond)
+  {
+  }
+
+  @SuppressWarnings("unused") // only used for its signature
+  private static void untimedMethod()
+  {
+  }
+
+}
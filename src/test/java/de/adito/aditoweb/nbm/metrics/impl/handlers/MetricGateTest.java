@@ -0,0 +1,51 @@
+package de.adito.aditoweb.nbm.metrics.impl.handlers;
+
+import org.junit.jupiter.api.*;
+
+import java.util.*;
+import java.util.function.Consumer;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test for {@link MetricGate}
+ *
+ * @author agent, 17.10.2026
+ */
+class MetricGateTest
+{
+
+  private final List<Boolean> states = new ArrayList<>();
+  private final Consumer<Boolean> listener = states::add;
+
+  @AfterEach
+  void tearDown()
+  {
+    MetricGate.removeListener(listener);
+    MetricGate.setClosedManually(false);
+  }
+
+  @Test
+  void shouldNotifyListeners()
+  {
+    MetricGate.addListener(listener);
+    assertEquals(List.of(true), states);
+
+    MetricGate.setClosedManually(true);
+    assertFalse(MetricGate.isOpen());
+    assertTrue(MetricGate.isClosedManually());
+    MetricGate.setClosedManually(true);
+    MetricGate.setClosedManually(false);
+    assertTrue(MetricGate.isOpen());
+
+    // only changes of the state are notified
+    assertEquals(List.of(true, false, true), states);
+  }
+
+  @Test
+  void shouldEnableHandlersByDefault()
+  {
+    assertTrue(MetricGate.isHandlerEnabled(CounterMetricHandler.class));
+  }
+
+}
@@ -0,0 +1,113 @@
+package de.adito.aditoweb.nbm.metrics.impl.handlers;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test for {@link MetricRecordRing}
+ *
+ * @author agent, 17.10.2026
+ */
+class MetricRecordRingTest
+{
+
+  @Test
+  void shouldRoundCapacityToPowerOfTwo()
+  {
+    assertEquals(8, new MetricRecordRing(5, MetricRecordRing.DropPolicy.DROP_NEWEST).getCapacity());
+    assertEquals(8192, new MetricRecordRing(8192, MetricRecordRing.DropPolicy.DROP_NEWEST).getCapacity());
+  }
+
+  @Test
+  void shouldConsumeInOrder()
+  {
+    MetricRecordRing ring = new MetricRecordRing(8, MetricRecordRing.DropPolicy.DROP_NEWEST);
+    for (int i = 0; i < 5; i++)
+      assertTrue(ring.offer(i, i % 2 == 1, i, 1, null, "detail" + i, 1));
+
+    List<Integer> targets = new ArrayList<>();
+    List<Object> details = new ArrayList<>();
+    assertEquals(5, ring.drain(pRecord -> {
+      targets.add(pRecord.target);
+      details.add(pRecord.getDetail());
+    }, 100));
+
+    assertEquals(List.of(0, 1, 2, 3, 4), targets);
+    assertEquals(List.of("detail0", "detail1", "detail2", "detail3", "detail4"), details);
+    assertEquals(0, ring.getPending());
+  }
+
+  @Test
+  void shouldDropIfFull()
+  {
+    MetricRecordRing ring = new MetricRecordRing(4, MetricRecordRing.DropPolicy.DROP_NEWEST);
+    for (int i = 0; i < 4; i++)
+      assertTrue(ring.offer(i, true, i, 1, null, null, 1));
+
+    assertFalse(ring.offer(4, true, 4, 1, null, null, 1));
+    assertEquals(1, ring.getDropped());
+
+    // consumed slots can be reused
+    assertEquals(2, ring.drain(pRecord -> {}, 2));
+    assertTrue(ring.offer(5, true, 5, 1, null, null, 1));
+    assertEquals(3, ring.getPending());
+  }
+
+  @Test
+  void shouldReleaseReferencesAfterConsume()
+  {
+    MetricRecordRing ring = new MetricRecordRing(2, MetricRecordRing.DropPolicy.DROP_NEWEST);
+    ring.offer(0, true, 0, 1, new IllegalStateException(), "detail", 1);
+
+    MetricRecord[] consumed = new MetricRecord[1];
+    ring.drain(pRecord -> consumed[0] = pRecord, 1);
+
+    assertNull(consumed[0].getException());
+    assertNull(consumed[0].getDetail());
+  }
+
+  @Test
+  void shouldNotLoseRecordsOfConcurrentProducers() throws Exception
+  {
+    int producers = 4;
+    int recordsPerProducer = 10_000;
+    MetricRecordRing ring = new MetricRecordRing(1024, MetricRecordRing.DropPolicy.RETRY_BRIEFLY);
+    ExecutorService executor = Executors.newFixedThreadPool(producers);
+    try
+    {
+      List<Future<?>> futures = new ArrayList<>();
+      for (int p = 0; p < producers; p++)
+      {
+        int producer = p;
+        futures.add(executor.submit(() -> {
+          for (int i = 0; i < recordsPerProducer; i++)
+            ring.offer(producer, true, i, producer, null, null, 1);
+        }));
+      }
+
+      // consume concurrently, records of a single producer have to stay in order
+      long[] lastValues = new long[producers];
+      Arrays.fill(lastValues, -1);
+      long[] consumed = new long[1];
+      while (!futures.stream().allMatch(Future::isDone) || ring.getPending() > 0)
+        ring.drain(pRecord -> {
+          assertTrue(pRecord.getEndNanos() > lastValues[pRecord.target]);
+          lastValues[pRecord.target] = pRecord.getEndNanos();
+          consumed[0]++;
+        }, 128);
+
+      for (Future<?> future : futures)
+        future.get();
+      assertEquals((long) producers * recordsPerProducer, consumed[0] + ring.getDropped());
+    }
+    finally
+    {
+      executor.shutdownNow();
+    }
+  }
+
+}
@@ -0,0 +1,104 @@
+package de.adito.aditoweb.nbm.metrics.impl.proxy;
+
+import net.bytebuddy.agent.builder.ResettableClassFileTransformer;
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * Test for {@link CachingClassFileTransformer}
+ *
+ * @author agent, 17.10.2026
+ */
+class CachingClassFileTransformerTest
+{
+
+  private static final byte[] _ORIGINAL_BYTES = {1, 2, 3};
+  private static final byte[] _TRANSFORMED_BYTES = {4, 5, 6};
+
+  @TempDir
+  Path directory;
+
+  private ResettableClassFileTransformer delegate;
+  private ClassFileCache cache;
+
+  @BeforeEach
+  void setUp() throws Exception
+  {
+    delegate = mock(ResettableClassFileTransformer.class);
+    when(delegate.transform(any(), any(), any(), any(), any())).thenReturn(_TRANSFORMED_BYTES);
+    when(delegate.transform(any(Module.class), any(), any(), any(), any(), any())).thenReturn(_TRANSFORMED_BYTES);
+    cache = new ClassFileCache(directory);
+  }
+
+  @Test
+  void shouldReadTransformedBytesFromCache() throws Exception
+  {
+    CachingClassFileTransformer transformer = new CachingClassFileTransformer(delegate, cache, pName -> true, pName -> "a.B".equals(pName) ? "fingerprint" : null);
+
+    assertArrayEquals(_TRANSFORMED_BYTES, transformer.transform(null, "a/B", null, null, _ORIGINAL_BYTES));
+    assertArrayEquals(_TRANSFORMED_BYTES, transformer.transform(null, "a/B", null, null, _ORIGINAL_BYTES));
+    assertArrayEquals(_TRANSFORMED_BYTES, transformer.transform(getClass().getModule(), null, "a/B", null, null, _ORIGINAL_BYTES));
+
+    // only the first call has to transform the class
+    verify(delegate, times(1)).transform(any(), any(), any(), any(), any());
+    verify(delegate, never()).transform(any(Module.class), any(), any(), any(), any(), any());
+  }
+
+  @Test
+  void shouldTransformChangedClassAgain() throws Exception
+  {
+    CachingClassFileTransformer transformer = new CachingClassFileTransformer(delegate, cache, pName -> true, pName -> "fingerprint");
+
+    transformer.transform(null, "a/B", null, null, _ORIGINAL_BYTES);
+    transformer.transform(null, "a/B", null, null, new byte[]{1, 2, 4});
+
+    verify(delegate, times(2)).transform(any(), any(), any(), any(), any());
+  }
+
+  @Test
+  void shouldNotCacheClassesWithoutFingerprint() throws Exception
+  {
+    CachingClassFileTransformer transformer = new CachingClassFileTransformer(delegate, cache, pName -> true, pName -> null);
+
+    assertArrayEquals(_TRANSFORMED_BYTES, transformer.transform(null, "a/B", null, null, _ORIGINAL_BYTES));
+    assertArrayEquals(_TRANSFORMED_BYTES, transformer.transform(null, "a/B", null, null, _ORIGINAL_BYTES));
+
+    verify(delegate, times(2)).transform(any(), any(), any(), any(), any());
+  }
+
+  @Test
+  void shouldSkipClassesThatAreNotInstrumented() throws Exception
+  {
+    List<String> fingerprinted = new ArrayList<>();
+    CachingClassFileTransformer transformer = new CachingClassFileTransformer(delegate, cache, "a.B"::equals, pName -> {
+      fingerprinted.add(pName);
+      return "fingerprint";
+    });
+
+    assertNull(transformer.transform(null, "a/C", null, null, _ORIGINAL_BYTES));
+    assertArrayEquals(_TRANSFORMED_BYTES, transformer.transform(null, "a/B", null, null, _ORIGINAL_BYTES));
+
+    assertEquals(List.of("a.B"), fingerprinted);
+    verify(delegate, times(1)).transform(any(), any(), any(), any(), any());
+  }
+
+  @Test
+  void shouldNotCacheUnchangedClasses() throws Exception
+  {
+    when(delegate.transform(any(), any(), any(), any(), any())).thenReturn(null);
+    CachingClassFileTransformer transformer = new CachingClassFileTransformer(delegate, cache, pName -> true, pName -> "fingerprint");
+
+    assertNull(transformer.transform(null, "a/B", null, null, _ORIGINAL_BYTES));
+    assertNull(transformer.transform(null, "a/B", null, null, _ORIGINAL_BYTES));
+
+    verify(delegate, times(2)).transform(any(), any(), any(), any(), any());
+  }
+
+}
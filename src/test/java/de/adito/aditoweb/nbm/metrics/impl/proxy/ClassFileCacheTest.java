@@ -0,0 +1,90 @@
+package de.adito.aditoweb.nbm.metrics.impl.proxy;
+
+import de.adito.aditoweb.nbm.metrics.impl.handlers.MetricCache;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.*;
+import java.util.List;
+import java.util.function.Supplier;
+import java.util.stream.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test for {@link ClassFileCache}
+ *
+ * @author agent, 17.10.2026
+ */
+class ClassFileCacheTest
+{
+
+  @TempDir
+  Path directory;
+
+  @Test
+  void shouldReadWrittenEntry()
+  {
+    long hits = MetricCache.CLASS_FILES.getHits();
+    long misses = MetricCache.CLASS_FILES.getMisses();
+
+    ClassFileCache cache = new ClassFileCache(directory);
+    String key = cache.key(new byte[][]{{1, 2, 3}}, "part");
+    assertNotNull(key);
+    assertNull(cache.read(key));
+
+    cache.write(key, "a.B", new byte[]{4, 5, 6});
+    ClassFileCache.Entry entry = cache.read(key);
+    assertNotNull(entry);
+    assertEquals("a.B", entry.className);
+    assertArrayEquals(new byte[]{4, 5, 6}, entry.bytes);
+    assertEquals(hits + 1, MetricCache.CLASS_FILES.getHits());
+    assertEquals(misses + 1, MetricCache.CLASS_FILES.getMisses());
+  }
+
+  @Test
+  void shouldNotLeaveTemporaryFiles() throws Exception
+  {
+    ClassFileCache cache = new ClassFileCache(directory);
+    String key = cache.key(new byte[][]{{1, 2, 3}}, "part");
+    assertNotNull(key);
+
+    // the entry can not be moved into place, because a non-empty directory blocks its name
+    Files.createDirectories(directory.resolve(key).resolve("blocker"));
+    cache.write(key, "a.B", new byte[]{4, 5, 6});
+
+    try (Stream<Path> files = Files.list(directory))
+    {
+      assertEquals(List.of(directory.resolve(key)), files.collect(Collectors.toList()));
+    }
+  }
+
+  @Test
+  void shouldChangeKeyWithOriginalBytes()
+  {
+    ClassFileCache cache = new ClassFileCache(directory);
+    assertEquals(cache.key(new byte[][]{{1, 2, 3}}, "part"), cache.key(new byte[][]{{1, 2, 3}}, "part"));
+    assertNotEquals(cache.key(new byte[][]{{1, 2, 3}}, "part"), cache.key(new byte[][]{{1, 2, 4}}, "part"));
+    assertNotEquals(cache.key(new byte[][]{{1, 2, 3}}, "part"), cache.key(new byte[][]{{1, 2, 3}}, "other"));
+    assertNotEquals(cache.key(new byte[][]{{1}, {2}}), cache.key(new byte[][]{{1, 2}}));
+  }
+
+  @Test
+  void shouldDoNothingIfDisabled()
+  {
+    ClassFileCache cache = new ClassFileCache(null);
+    assertNull(cache.key(new byte[][]{{1, 2, 3}}, "part"));
+    cache.write("key", "a.B", new byte[]{4, 5, 6});
+    assertNull(cache.read("key"));
+  }
+
+  @Test
+  void shouldOnlyAcceptStableStrings()
+  {
+    Supplier<String> lambda = () -> "";
+    assertNull(ClassFileCache.stableString(lambda));
+    assertNull(ClassFileCache.stableString(new Object()));
+    assertEquals("value", ClassFileCache.stableString("value"));
+  }
+
+}
@@ -2,7 +2,12 @@ package de.adito.aditoweb.nbm.metrics.impl.proxy;
 
 import de.adito.aditoweb.nbm.metrics.api.types.MetricType;
 import de.adito.aditoweb.nbm.metrics.impl.handlers.*;
+import de.adito.aditoweb.nbm.metrics.impl.proxy.dynamic.DynamicMetricRule;
 import lombok.*;
+import net.bytebuddy.ByteBuddy;
+import net.bytebuddy.description.modifier.Visibility;
+import net.bytebuddy.dynamic.loading.ClassLoadingStrategy;
+import net.bytebuddy.implementation.StubMethod;
 import org.jetbrains.annotations.Nullable;
 import org.junit.jupiter.api.*;
 import org.mockito.*;
@@ -10,7 +15,8 @@ import org.openide.modules.*;
 
 import java.lang.annotation.*;
 import java.lang.reflect.Method;
-import java.util.Map;
+import java.util.List;
+import java.util.regex.Pattern;
 
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.mockito.Mockito.*;
@@ -56,6 +62,7 @@ class DynamicMetricProxyLoaderImplTest
     void setUp()
     {
       proxyLoader.loadDynamicProxy(MyTestClass.class, new MyTestMethod.Instance(), null);
+      proxyLoader.flush();
 
       // Handler to spy on
       methodHandler = mock(MyTestMethodHandler.class);
@@ -75,8 +82,8 @@ class DynamicMetricProxyLoaderImplTest
 
       // verify handler call
       InOrder order = inOrder(methodHandler);
-      order.verify(methodHandler, times(1)).beforeMethod(notNull(), eq(object), notNull(), eq(new Object[]{}), eq(Map.of()));
-      order.verify(methodHandler, times(1)).afterMethod(notNull(), eq(object), notNull(), eq(new Object[]{}), isNull(), isNull(), eq(Map.of()));
+      order.verify(methodHandler, times(1)).beforeMethod(notNull(), eq(object), notNull(), eq(new Object[]{}));
+      order.verify(methodHandler, times(1)).afterMethod(notNull(), eq(object), notNull(), eq(new Object[]{}), isNull(), isNull(), isNull());
     }
 
     /**
@@ -92,8 +99,8 @@ class DynamicMetricProxyLoaderImplTest
 
       // verify handler call
       InOrder order = inOrder(methodHandler);
-      order.verify(methodHandler, times(1)).beforeMethod(notNull(), eq(object), notNull(), eq(new Object[]{true}), eq(Map.of()));
-      order.verify(methodHandler, times(1)).afterMethod(notNull(), eq(object), notNull(), eq(new Object[]{true}), eq(false), isNull(), eq(Map.of()));
+      order.verify(methodHandler, times(1)).beforeMethod(notNull(), eq(object), notNull(), eq(new Object[]{true}));
+      order.verify(methodHandler, times(1)).afterMethod(notNull(), eq(object), notNull(), eq(new Object[]{true}), eq(false), isNull(), isNull());
     }
 
     /**
@@ -109,8 +116,30 @@ class DynamicMetricProxyLoaderImplTest
 
       // verify handler call
       InOrder order = inOrder(methodHandler);
-      order.verify(methodHandler, times(1)).beforeMethod(notNull(), eq(object), notNull(), eq(new Object[]{}), eq(Map.of()));
-      order.verify(methodHandler, times(1)).afterMethod(notNull(), eq(object), notNull(), eq(new Object[]{}), isNull(), isNotNull(), eq(Map.of()));
+      order.verify(methodHandler, times(1)).beforeMethod(notNull(), eq(object), notNull(), eq(new Object[]{}));
+      order.verify(methodHandler, times(1)).afterMethod(notNull(), eq(object), notNull(), eq(new Object[]{}), isNull(), isNotNull(), isNull());
+    }
+
+    /**
+     * ... on a method, whose resolved handlers get invalidated during the call
+     */
+    @Test
+    @SneakyThrows
+    void onInvalidationDuringCall()
+    {
+      // invalidate inside the call, so that the exit must not resolve the method again
+      when(methodHandler.beforeMethod(notNull(), any(), notNull(), any())).thenAnswer(pInv -> {
+        DynamicMetricProxyLoaderImpl.DynamicMetricInvocation.invalidate(MyTestClass.class);
+        return "hint";
+      });
+
+      MyTestClass object = new MyTestClass();
+      object.doDummyCall();
+
+      // verify that the hint of the entered call was passed
+      InOrder order = inOrder(methodHandler);
+      order.verify(methodHandler, times(1)).beforeMethod(notNull(), eq(object), notNull(), eq(new Object[]{}));
+      order.verify(methodHandler, times(1)).afterMethod(notNull(), eq(object), notNull(), eq(new Object[]{}), isNull(), isNull(), eq("hint"));
     }
 
     /**
@@ -125,8 +154,110 @@ class DynamicMetricProxyLoaderImplTest
 
       // verify handler call
       InOrder order = inOrder(methodHandler);
-      order.verify(methodHandler, times(1)).beforeMethod(notNull(), isNull(), notNull(), eq(new Object[]{}), eq(Map.of()));
-      order.verify(methodHandler, times(1)).afterMethod(notNull(), isNull(), notNull(), eq(new Object[]{}), isNull(), isNull(), eq(Map.of()));
+      order.verify(methodHandler, times(1)).beforeMethod(notNull(), isNull(), notNull(), eq(new Object[]{}));
+      order.verify(methodHandler, times(1)).afterMethod(notNull(), isNull(), notNull(), eq(new Object[]{}), isNull(), isNull(), isNull());
+    }
+  }
+
+  /**
+   * Checks, if the proxy only captures the values, that the handlers declared
+   */
+  @Nested
+  class ShouldCaptureDeclaredValues
+  {
+    private MyMinimalTestMethodHandler methodHandler;
+
+    @BeforeEach
+    void setUp()
+    {
+      proxyLoader.loadDynamicProxy(MyMinimalTestClass.class, new MyMinimalTestMethod.Instance(), null);
+      proxyLoader.flush();
+
+      // Handler to spy on
+      methodHandler = mock(MyMinimalTestMethodHandler.class);
+      MyMinimalTestMethodHandler.delegate = methodHandler;
+    }
+
+    /**
+     * Arguments and return value are not declared, so they must not be passed
+     */
+    @Test
+    @SneakyThrows
+    void onReturningMethod()
+    {
+      MyMinimalTestClass object = new MyMinimalTestClass();
+      object.doDummyCall(true);
+
+      InOrder order = inOrder(methodHandler);
+      order.verify(methodHandler, times(1)).beforeMethod(notNull(), eq(object), notNull(), eq(new Object[]{}));
+      order.verify(methodHandler, times(1)).afterMethod(notNull(), eq(object), notNull(), eq(new Object[]{}), isNull(), isNull(), isNull());
+    }
+
+    /**
+     * The exception is declared, so it has to be passed
+     */
+    @Test
+    @SneakyThrows
+    void onThrowingMethod()
+    {
+      MyMinimalTestClass object = new MyMinimalTestClass();
+      assertThrows(Exception.class, object::doDummyCallThrowing);
+
+      InOrder order = inOrder(methodHandler);
+      order.verify(methodHandler, times(1)).beforeMethod(notNull(), eq(object), notNull(), eq(new Object[]{}));
+      order.verify(methodHandler, times(1)).afterMethod(notNull(), eq(object), notNull(), eq(new Object[]{}), isNull(), isNotNull(), isNull());
+    }
+  }
+
+  /**
+   * Checks, if the rules inject the annotation into classes that get loaded afterwards
+   */
+  @Nested
+  class ShouldInstrumentByRules
+  {
+    private MyTestMethodHandler methodHandler;
+
+    @BeforeEach
+    void setUp()
+    {
+      // the classes of this module are never matched by rules, so the test type has to be in another package
+      proxyLoader.setRules(List.of(new DynamicMetricRule(Pattern.compile("de\\.adito\\.ruled\\..*"), null, new MyTestMethod.Instance())));
+
+      // Handler to spy on
+      methodHandler = mock(MyTestMethodHandler.class);
+      MyTestMethodHandler.delegate = methodHandler;
+    }
+
+    @AfterEach
+    void tearDown()
+    {
+      proxyLoader.setRules(List.of());
+    }
+
+    /**
+     * ... on a class, that was not loaded when the rules were set
+     */
+    @Test
+    @SneakyThrows
+    void onClassLoadedAfterwards()
+    {
+      Class<?> type = new ByteBuddy()
+          .subclass(Object.class)
+          .name("de.adito.ruled.MyRuledTestClass")
+          .defineMethod("doDummyCall", void.class, Visibility.PUBLIC)
+          .intercept(StubMethod.INSTANCE)
+          .make()
+          .load(getClass().getClassLoader(), ClassLoadingStrategy.Default.WRAPPER)
+          .getLoaded();
+
+      // create object and do a dummy call
+      Object object = type.getDeclaredConstructor().newInstance();
+      type.getMethod("doDummyCall").invoke(object);
+
+      // verify handler call
+      InOrder order = inOrder(methodHandler);
+      order.verify(methodHandler, times(1)).beforeMethod(notNull(), eq(object), notNull(), eq(new Object[]{}));
+      order.verify(methodHandler, times(1)).afterMethod(notNull(), eq(object), notNull(), eq(new Object[]{}), isNull(), isNull(), isNull());
     }
   }
 
@@ -184,20 +315,20 @@ class DynamicMetricProxyLoaderImplTest
   {
     private static IMetricHandler<MyTestMethod> delegate;
 
+    @Nullable
     @Override
-    public void beforeMethod(@NonNull MyTestMethod pAnnotation, @Nullable Object pObject, @NonNull Method pMethod,
-                             Object @NonNull [] pArgs, @NonNull Map<String, Object> pHints)
+    public Object beforeMethod(@NonNull MyTestMethod pAnnotation, @Nullable Object pObject, @NonNull Method pMethod, Object @NonNull [] pArgs)
         throws Exception
     {
-      delegate.beforeMethod(pAnnotation, pObject, pMethod, pArgs, pHints);
+      return delegate.beforeMethod(pAnnotation, pObject, pMethod, pArgs);
     }
 
     @Override
     public void afterMethod(@NonNull MyTestMethod pAnnotation, @Nullable Object pObject, @NonNull Method pMethod,
-                            Object @NonNull [] pArgs, @Nullable Object pResult, @Nullable Throwable pException, @NonNull Map<String, Object> pHints)
+                            Object @NonNull [] pArgs, @Nullable Object pResult, @Nullable Throwable pException, @Nullable Object pHint)
         throws Exception
     {
-      delegate.afterMethod(pAnnotation, pObject, pMethod, pArgs, pResult, pException, pHints);
+      delegate.afterMethod(pAnnotation, pObject, pMethod, pArgs, pResult, pException, pHint);
     }
   }
 
@@ -225,4 +356,76 @@ class DynamicMetricProxyLoaderImplTest
     }
   }
 
+  /**
+   * Demo object to verify {@link MyMinimalTestMethod} annotation and its handler
+   */
+  private static class MyMinimalTestClass
+  {
+    /**
+     * Simple method call, with an input and output value
+     */
+    @SuppressWarnings("UnusedReturnValue")
+    public boolean doDummyCall(boolean pInput)
+    {
+      return !pInput;
+    }
+
+    /**
+     * Simple method call, which always throws an exception
+     */
+    public void doDummyCallThrowing() throws Exception
+    {
+      throw new Exception();
+    }
+  }
+
+  /**
+   * Handler to react on {@link MyMinimalTestMethod} methods, that only needs the exception
+   */
+  @MetricHandler(metric = MyMinimalTestMethod.class, capabilities = MetricCapability.EXCEPTION)
+  public static class MyMinimalTestMethodHandler implements IMetricHandler<MyMinimalTestMethod>
+  {
+    private static IMetricHandler<MyMinimalTestMethod> delegate;
+
+    @Nullable
+    @Override
+    public Object beforeMethod(@NonNull MyMinimalTestMethod pAnnotation, @Nullable Object pObject, @NonNull Method pMethod, Object @NonNull [] pArgs)
+        throws Exception
+    {
+      return delegate.beforeMethod(pAnnotation, pObject, pMethod, pArgs);
+    }
+
+    @Override
+    public void afterMethod(@NonNull MyMinimalTestMethod pAnnotation, @Nullable Object pObject, @NonNull Method pMethod,
+                            Object @NonNull [] pArgs, @Nullable Object pResult, @Nullable Throwable pException, @Nullable Object pHint)
+        throws Exception
+    {
+      delegate.afterMethod(pAnnotation, pObject, pMethod, pArgs, pResult, pException, pHint);
+    }
+  }
+
+  /**
+   * Demo-Annotation to add to the {@link MyMinimalTestClass} class, interpreted by {@link MyMinimalTestMethodHandler}
+   */
+  @Retention(RetentionPolicy.RUNTIME)
+  @Target(ElementType.METHOD)
+  @MetricType
+  public static @interface MyMinimalTestMethod
+  {
+    /**
+     * Instance object for this annotation
+     */
+    @SuppressWarnings("ClassExplicitlyAnnotation")
+    @EqualsAndHashCode
+    static class Instance implements MyMinimalTestMethod
+    {
+      @EqualsAndHashCode.Include
+      @Override
+      public Class<? extends Annotation> annotationType()
+      {
+        return MyMinimalTestMethod.class;
+      }
+    }
+  }
+
 }
@@ -0,0 +1,117 @@
+package de.adito.aditoweb.nbm.metrics.impl.proxy;
+
+import de.adito.aditoweb.nbm.metrics.impl.proxy.dynamic.DynamicMetricRule;
+import org.junit.jupiter.api.Test;
+import org.openide.util.Pair;
+
+import java.lang.annotation.Annotation;
+import java.util.List;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.mock;
+
+/**
+ * Test for {@link DynamicMetricRegistry}
+ *
+ * @author agent, 17.10.2026
+ */
+class DynamicMetricRegistryTest
+{
+
+  private final DynamicMetricRegistry registry = new DynamicMetricRegistry();
+
+  @Test
+  void shouldRegisterOnlyOnce()
+  {
+    Annotation annotation = mock(Annotation.class);
+    assertTrue(registry.register("a.B", null, annotation));
+    assertFalse(registry.register("a.B", null, annotation));
+    assertEquals(1, registry.get("a.B").size());
+  }
+
+  @Test
+  void shouldNotChangePublishedSnapshot()
+  {
+    registry.register("a.B", null, mock(Annotation.class));
+    var snapshot = registry.get("a.B");
+
+    registry.register("a.B", null, mock(Annotation.class));
+
+    assertEquals(1, snapshot.size());
+    assertEquals(2, registry.get("a.B").size());
+    assertThrows(UnsupportedOperationException.class, snapshot::clear);
+  }
+
+  @Test
+  void shouldReturnEmptyForUnknownClass()
+  {
+    assertFalse(registry.contains("a.B"));
+    assertTrue(registry.get("a.B").isEmpty());
+  }
+
+  @Test
+  void shouldContainInnerClasses()
+  {
+    registry.register("a.B", null, mock(Annotation.class));
+    registry.setRules(List.of(new DynamicMetricRule(Pattern.compile("c\\.D"), null, mock(Annotation.class))));
+
+    assertTrue(registry.containsWithOuter("a.B"));
+    assertTrue(registry.containsWithOuter("a.B$C"));
+    assertTrue(registry.containsWithOuter("a.B$C$D"));
+    assertFalse(registry.containsWithOuter("a.BC"));
+    assertFalse(registry.containsWithOuter("a"));
+    assertTrue(registry.containsWithOuter("c.D"));
+    assertTrue(registry.containsWithOuter("c.D$1"));
+    assertFalse(registry.containsWithOuter("c.DE"));
+  }
+
+  @Test
+  void shouldNotMatchOwnClassesByRules()
+  {
+    registry.setRules(List.of(new DynamicMetricRule(Pattern.compile(".*"), null, mock(Annotation.class))));
+
+    assertTrue(registry.contains("de.adito.Other"));
+    assertFalse(registry.contains(DynamicMetricRegistry.class.getName()));
+    assertFalse(registry.containsWithOuter(DynamicMetricRegistry.class.getName() + "$1"));
+    assertFalse(registry.contains("net.bytebuddy.asm.Advice"));
+    assertFalse(registry.getRulesMatcher().test("net.bytebuddy.asm.Advice"));
+  }
+
+  @Test
+  void shouldNotMatchClassesUsedByDispatchingByRules()
+  {
+    registry.setRules(List.of(new DynamicMetricRule(Pattern.compile(".*"), null, mock(Annotation.class))));
+
+    assertFalse(registry.contains("java.util.HashMap"));
+    assertFalse(registry.contains("jdk.internal.misc.Unsafe"));
+    assertFalse(registry.contains("sun.misc.Signal"));
+    assertFalse(registry.contains("com.sun.proxy.$Proxy1"));
+    assertFalse(registry.contains("io.sentry.Sentry"));
+    assertFalse(registry.contains("com.google.common.cache.LocalCache"));
+    assertFalse(registry.contains("org.openide.util.Lookup"));
+    assertFalse(registry.contains("lombok.NonNull"));
+    assertTrue(registry.contains("javax.swing.JPanel"));
+  }
+
+  @Test
+  void shouldCombineRegistrationsAndRules()
+  {
+    Annotation registered = mock(Annotation.class);
+    Annotation ruled = mock(Annotation.class);
+    registry.register("a.B", null, registered);
+    registry.setRules(List.of(new DynamicMetricRule(Pattern.compile("a\\.[^.]*"), null, ruled)));
+
+    assertTrue(registry.contains("a.C"));
+    assertFalse(registry.contains("b.C"));
+    assertEquals(List.of(registered, ruled), registry.get("a.B").stream().map(Pair::second).collect(Collectors.toList()));
+    assertTrue(registry.getRulesMatcher().test("a.C"));
+
+    // replaced rules must not match anymore
+    registry.setRules(List.of());
+    assertFalse(registry.contains("a.C"));
+    assertEquals(1, registry.get("a.B").size());
+  }
+
+}
@@ -0,0 +1,69 @@
+package de.adito.aditoweb.nbm.metrics.impl.proxy;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test for {@link FieldCopier}
+ *
+ * @author agent, 17.10.2026
+ */
+class FieldCopierTest
+{
+
+  @Test
+  void shouldCopyAllInstanceFields()
+  {
+    _Child source = new _Child("parent", 42, "child", true);
+    _Child destination = new _Child(null, 0, null, false);
+
+    FieldCopier.of(_Child.class).copy(source, destination);
+
+    assertEquals("parent", destination.parentValue);
+    assertEquals(42, destination.primitiveValue);
+    assertEquals("child", destination.childValue);
+    assertTrue(destination.flag);
+  }
+
+  @Test
+  void shouldNotCopyStaticFields()
+  {
+    _Child.staticValue = "before";
+    FieldCopier.of(_Child.class).copy(new _Child("a", 1, "b", true), new _Child(null, 0, null, false));
+    assertEquals("before", _Child.staticValue);
+  }
+
+  @Test
+  void shouldReuseCopier()
+  {
+    assertSame(FieldCopier.of(_Child.class), FieldCopier.of(_Child.class));
+  }
+
+  private static class _Parent
+  {
+    private final String parentValue;
+    private final int primitiveValue;
+
+    public _Parent(String pParentValue, int pPrimitiveValue)
+    {
+      parentValue = pParentValue;
+      primitiveValue = pPrimitiveValue;
+    }
+  }
+
+  private static class _Child extends _Parent
+  {
+    private static String staticValue;
+    private final String childValue;
+    private boolean flag;
+
+    public _Child(String pParentValue, int pPrimitiveValue, String pChildValue, boolean pFlag)
+    {
+      super(pParentValue, pPrimitiveValue);
+      childValue = pChildValue;
+      flag = pFlag;
+    }
+  }
+
+}
@@ -1,9 +1,15 @@
 package de.adito.aditoweb.nbm.metrics.impl.proxy;
 
+import de.adito.aditoweb.nbm.metrics.impl.handlers.MetricCache;
 import lombok.NonNull;
 import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.io.TempDir;
 
+import java.io.*;
+import java.lang.invoke.*;
 import java.lang.reflect.*;
+import java.nio.file.Path;
+import java.util.*;
 import java.util.concurrent.Callable;
 
 import static org.junit.jupiter.api.Assertions.*;
@@ -149,6 +155,185 @@ class InterceptableObjectFactoryTest
     verify(object, times(1)).call();
   }
 
+  @Test
+  void shouldReuseProxyType() throws Throwable
+  {
+    InterceptableObjectFactory factory = new InterceptableObjectFactory();
+    InvocationHandler firstHandler = mock(InvocationHandler.class);
+    InvocationHandler secondHandler = mock(InvocationHandler.class);
+    long hits = MetricCache.PROXY_TYPES.getHits();
+    long misses = MetricCache.PROXY_TYPES.getMisses();
+
+    // Create two proxies of the same type
+    _MyProxyObject first = factory.createInterceptableProxy(new _MyProxyObject(), firstHandler);
+    _MyProxyObject second = factory.createInterceptableProxy(new _MyProxyObject(), secondHandler);
+    assertSame(first.getClass(), second.getClass());
+    assertEquals(misses + 1, MetricCache.PROXY_TYPES.getMisses());
+    assertEquals(hits + 1, MetricCache.PROXY_TYPES.getHits());
+
+    // Invoke method on proxy
+    first.test();
+
+    // Verify, that every proxy instance uses its own handler
+    verify(firstHandler, times(1)).invoke(first, _MyProxyObject.class.getDeclaredMethod("test"), null);
+    verifyNoInteractions(secondHandler);
+  }
+
+  @Test
+  void shouldCreateDelegatingProxy() throws Throwable
+  {
+    // Create hooks, that record the calls
+    List<String> calls = new ArrayList<>();
+    MethodHandles.Lookup lookup = MethodHandles.lookup();
+    MethodHandle enterHook = lookup.findStatic(InterceptableObjectFactoryTest.class, "_recordEnter",
+                                               MethodType.methodType(Object.class, List.class, Object.class, String.class, Object[].class))
+        .bindTo(calls);
+    MethodHandle exitHook = lookup.findStatic(InterceptableObjectFactoryTest.class, "_recordExit",
+                                              MethodType.methodType(void.class, List.class, Object.class, String.class, Object[].class,
+                                                                    Object.class, Object.class, Throwable.class))
+        .bindTo(calls);
+    _MyProxyObjectWithConstructor object = spy(new _MyProxyObjectWithConstructor("myValue"));
+
+    // Create object with factory
+    _MyProxyObjectWithConstructor proxyObject = objectFactory.createDelegatingProxy(object, enterHook, exitHook);
+    assertNotNull(proxyObject);
+
+    // Invoke method on proxy
+    assertEquals("myValue", proxyObject.getTest());
+
+    // Verify
+    assertEquals(List.of("enter getTest()Ljava/lang/String;", "exit getTest()Ljava/lang/String; hint=null"), calls);
+    verify(object, times(1)).getTest();
+  }
+
+  @Test
+  void shouldLoadCachedProxyType(@TempDir Path pDirectory) throws Throwable
+  {
+    ClassFileCache cache = new ClassFileCache(pDirectory);
+    List<String> calls = new ArrayList<>();
+
+    // the first factory generates the proxy type and writes it to the cache
+    Object first = new InterceptableObjectFactory(cache).createDelegatingProxy(_newIsolatedObject(), _createEnterHook(calls), _createExitHook(calls));
+
+    // the second one simulates a new session, that loads the same type again
+    long hits = MetricCache.CLASS_FILES.getHits();
+    Object second = new InterceptableObjectFactory(cache).createDelegatingProxy(_newIsolatedObject(), _createEnterHook(calls), _createExitHook(calls));
+    assertEquals(hits + 1, MetricCache.CLASS_FILES.getHits());
+    assertNotSame(first.getClass(), second.getClass());
+    assertEquals(first.getClass().getName(), second.getClass().getName());
+
+    // Invoke method on the cached proxy type
+    Method method = second.getClass().getMethod("getTest");
+    method.setAccessible(true);
+    assertEquals("cached", method.invoke(second));
+    assertEquals(List.of("enter getTest()Ljava/lang/String;", "exit getTest()Ljava/lang/String; hint=null"), calls);
+  }
+
+  @Test
+  void shouldCreateForwardingProxyWithoutCopyingState() throws Throwable
+  {
+    List<String> calls = new ArrayList<>();
+    _MyMutableProxyObject object = new _MyMutableProxyObject();
+
+    // Create object with factory
+    _MyMutableProxyObject proxyObject = objectFactory.createForwardingProxy(object, _createEnterHook(calls), _createExitHook(calls));
+    assertNotSame(object, proxyObject);
+
+    // The state stays in the original object only
+    Field field = _MyMutableProxyObject.class.getDeclaredField("value");
+    field.setAccessible(true);
+    assertNull(field.get(proxyObject));
+
+    // Changes are visible on both sides
+    proxyObject.setValue("changed");
+    assertEquals("changed", object.getValue());
+    assertEquals("changed", proxyObject.getValue());
+    assertEquals(List.of("enter setValue(Ljava/lang/String;)V", "exit setValue(Ljava/lang/String;)V hint=null",
+                         "enter getValue()Ljava/lang/String;", "exit getValue()Ljava/lang/String; hint=null"), calls);
+  }
+
+  @Test
+  void shouldCopyStateIfMethodsCanNotBeForwarded() throws Throwable
+  {
+    List<String> calls = new ArrayList<>();
+    _MyProxyObjectWithFinalMethod object = new _MyProxyObjectWithFinalMethod("myValue");
+
+    // the final method is executed on the proxy itself, so it needs the state
+    _MyProxyObjectWithFinalMethod proxyObject = objectFactory.createForwardingProxy(object, _createEnterHook(calls), _createExitHook(calls));
+    assertEquals("myValue", proxyObject.getFinalTest());
+    assertEquals(List.of(), calls);
+  }
+
+  @Test
+  void shouldCopyStateIfFieldsAreAccessible() throws Throwable
+  {
+    List<String> calls = new ArrayList<>();
+    _MyProxyObjectWithAccessibleField object = new _MyProxyObjectWithAccessibleField();
+    object.value = "myValue";
+
+    // the field may be read directly on the proxy, so it needs the state
+    _MyProxyObjectWithAccessibleField proxyObject = objectFactory.createForwardingProxy(object, _createEnterHook(calls), _createExitHook(calls));
+    assertEquals("myValue", proxyObject.value);
+  }
+
+  @Test
+  void shouldCaptureValuesOnlyIfHandlersNeedThem() throws Throwable
+  {
+    List<String> calls = new ArrayList<>();
+    _MyProxyObjectWithMetric proxyObject = objectFactory.createDelegatingProxy(new _MyProxyObjectWithMetric(), _createEnterHook(calls),
+                                                                                _createExitHook(calls));
+
+    // only the method with a metric, whose handler needs the arguments and the return value, captures them
+    assertEquals("a", proxyObject.withMetric("a"));
+    assertEquals("b", proxyObject.withoutMetric("b"));
+    assertEquals(List.of("enter withMetric(Ljava/lang/String;)Ljava/lang/String; [a]", "exit withMetric(Ljava/lang/String;)Ljava/lang/String; hint=a",
+                         "enter withoutMetric(Ljava/lang/String;)Ljava/lang/String;", "exit withoutMetric(Ljava/lang/String;)Ljava/lang/String; hint=null"),
+                 calls);
+  }
+
+  @NonNull
+  private static MethodHandle _createEnterHook(@NonNull List<String> pCalls) throws ReflectiveOperationException
+  {
+    return MethodHandles.lookup().findStatic(InterceptableObjectFactoryTest.class, "_recordEnter",
+                                             MethodType.methodType(Object.class, List.class, Object.class, String.class, Object[].class))
+        .bindTo(pCalls);
+  }
+
+  @NonNull
+  private static MethodHandle _createExitHook(@NonNull List<String> pCalls) throws ReflectiveOperationException
+  {
+    return MethodHandles.lookup().findStatic(InterceptableObjectFactoryTest.class, "_recordExit",
+                                             MethodType.methodType(void.class, List.class, Object.class, String.class, Object[].class,
+                                                                   Object.class, Object.class, Throwable.class))
+        .bindTo(pCalls);
+  }
+
+  /**
+   * Creates an instance of {@link _MyIsolatedProxyObject}, whose type is loaded by a new classloader.
+   * This way the same type can be proxied again, without conflicting with the proxy types that were loaded before.
+   */
+  @NonNull
+  private static Object _newIsolatedObject() throws ReflectiveOperationException
+  {
+    Constructor<?> constructor = new _IsolatingClassLoader().loadClass(_MyIsolatedProxyObject.class.getName()).getDeclaredConstructor();
+    constructor.setAccessible(true);
+    return constructor.newInstance();
+  }
+
+  @SuppressWarnings("unused") // called via method handle
+  private static Object _recordEnter(List<String> pCalls, Object pProxy, String pMethod, Object[] pArgs)
+  {
+    pCalls.add("enter " + pMethod + (pArgs == null ? "" : " " + Arrays.toString(pArgs)));
+    return "hint";
+  }
+
+  @SuppressWarnings("unused") // called via method handle
+  private static void _recordExit(List<String> pCalls, Object pProxy, String pMethod, Object[] pArgs, Object pHints, Object pResult,
+                                  Throwable pException)
+  {
+    pCalls.add("exit " + pMethod + " " + pHints + "=" + pResult);
+  }
+
   private static class _MyProxyObject
   {
     @NonNull
@@ -184,6 +369,102 @@ class InterceptableObjectFactoryTest
     }
   }
 
+  private static class _MyIsolatedProxyObject
+  {
+    @NonNull
+    public String getTest()
+    {
+      return "cached";
+    }
+  }
+
+  /**
+   * Loads {@link _MyIsolatedProxyObject} itself and delegates everything else to the classloader of the test
+   */
+  private static class _IsolatingClassLoader extends ClassLoader
+  {
+    _IsolatingClassLoader()
+    {
+      super(InterceptableObjectFactoryTest.class.getClassLoader());
+    }
+
+    @Override
+    protected Class<?> loadClass(String pName, boolean pResolve) throws ClassNotFoundException
+    {
+      if (!pName.equals(_MyIsolatedProxyObject.class.getName()))
+        return super.loadClass(pName, pResolve);
+
+      synchronized (getClassLoadingLock(pName))
+      {
+        Class<?> type = findLoadedClass(pName);
+        if (type != null)
+          return type;
+
+        try (InputStream input = getParent().getResourceAsStream(pName.replace('.', '/') + ".class"))
+        {
+          if (input == null)
+            throw new ClassNotFoundException(pName);
+          byte[] bytes = input.readAllBytes();
+          return defineClass(pName, bytes, 0, bytes.length);
+        }
+        catch (IOException e)
+        {
+          throw new ClassNotFoundException(pName, e);
+        }
+      }
+    }
+  }
+
+  private static class _MyProxyObjectWithMetric
+  {
+    @MetricProxyFactoryImplTest._MyProxyMethod
+    public String withMetric(String pValue)
+    {
+      return pValue;
+    }
+
+    public String withoutMetric(String pValue)
+    {
+      return pValue;
+    }
+  }
+
+  private static class _MyMutableProxyObject
+  {
+    private String value = "initial";
+
+    public String getValue()
+    {
+      return value;
+    }
+
+    public void setValue(String pValue)
+    {
+      value = pValue;
+    }
+  }
+
+  private static class _MyProxyObjectWithFinalMethod
+  {
+    private final String test;
+
+    public _MyProxyObjectWithFinalMethod(@NonNull String pTest)
+    {
+      test = pTest;
+    }
+
+    @NonNull
+    public final String getFinalTest()
+    {
+      return test;
+    }
+  }
+
+  private static class _MyProxyObjectWithAccessibleField
+  {
+    String value;
+  }
+
   private static class _MyProxyObjectWithInterface implements Runnable
   {
     @Override
@@ -0,0 +1,181 @@
+package de.adito.aditoweb.nbm.metrics.impl.proxy;
+
+import de.adito.aditoweb.nbm.metrics.api.types.MetricType;
+import de.adito.aditoweb.nbm.metrics.impl.handlers.*;
+import lombok.*;
+import org.jetbrains.annotations.Nullable;
+import org.junit.jupiter.api.*;
+import org.mockito.InOrder;
+
+import java.io.IOException;
+import java.lang.annotation.*;
+import java.lang.reflect.Method;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * Test for {@link MetricProxyFactoryImpl}
+ *
+ * @author agent, 17.10.2026
+ */
+class MetricProxyFactoryImplTest
+{
+
+  private final MetricProxyFactoryImpl factory = new MetricProxyFactoryImpl(MetricProxyFactoryImpl.ProxyMode.DIRECT);
+
+  @Test
+  void shouldNotProxyFinalTypes()
+  {
+    _FinalType object = new _FinalType();
+    assertFalse(factory.canCreateProxy(object));
+    assertSame(object, factory.createProxy(object));
+    assertSame(object, factory.createProxy(object));
+  }
+
+  @Test
+  void shouldNotProxyEnums()
+  {
+    assertFalse(factory.canCreateProxy(_Enum.VALUE));
+    assertFalse(factory.canCreateProxy(_Enum.BODY));
+    assertSame(_Enum.BODY, factory.createProxy(_Enum.BODY));
+  }
+
+  @Test
+  void shouldNotProxyLambdas()
+  {
+    Runnable lambda = () -> {};
+    assertFalse(factory.canCreateProxy(lambda));
+    assertSame(lambda, factory.createProxy(lambda));
+  }
+
+  @Test
+  void shouldProxyRegularTypes()
+  {
+    assertTrue(factory.canCreateProxy(new _RegularType()));
+  }
+
+  /**
+   * Checks, if the proxies of {@link MetricProxyFactoryImpl.ProxyMode#DIRECT} trigger the registered handlers
+   */
+  @Nested
+  class ShouldTriggerHandlersDirectly
+  {
+    private _MyProxyMethodHandler methodHandler;
+    private _MetrifiedType proxy;
+
+    @BeforeEach
+    void setUp()
+    {
+      // Handler to spy on
+      methodHandler = mock(_MyProxyMethodHandler.class);
+      _MyProxyMethodHandler.delegate = methodHandler;
+
+      proxy = factory.createProxy(new _MetrifiedType());
+      assertNotSame(_MetrifiedType.class, proxy.getClass());
+    }
+
+    /**
+     * ... on a value returning method
+     */
+    @Test
+    @SneakyThrows
+    void onReturningMethod()
+    {
+      assertEquals("value!", proxy.call("value"));
+
+      InOrder order = inOrder(methodHandler);
+      order.verify(methodHandler, times(1)).beforeMethod(notNull(), eq(proxy), notNull(), eq(new Object[]{"value"}));
+      order.verify(methodHandler, times(1)).afterMethod(notNull(), eq(proxy), notNull(), eq(new Object[]{"value"}), eq("value!"), isNull(), isNull());
+    }
+
+    /**
+     * ... on a method that throws an exception, which has to be passed through unwrapped
+     */
+    @Test
+    @SneakyThrows
+    void onThrowingMethod()
+    {
+      assertThrows(IOException.class, proxy::fail);
+
+      InOrder order = inOrder(methodHandler);
+      order.verify(methodHandler, times(1)).beforeMethod(notNull(), eq(proxy), notNull(), eq(new Object[]{}));
+      order.verify(methodHandler, times(1)).afterMethod(notNull(), eq(proxy), notNull(), eq(new Object[]{}), isNull(), isA(IOException.class), isNull());
+    }
+  }
+
+  public static final class _FinalType
+  {
+  }
+
+  /**
+   * Type, whose methods are annotated with {@link _MyProxyMethod}
+   */
+  public static class _MetrifiedType
+  {
+    @_MyProxyMethod
+    public String call(String pValue)
+    {
+      return pValue + "!";
+    }
+
+    @_MyProxyMethod
+    public void fail() throws IOException
+    {
+      throw new IOException();
+    }
+  }
+
+  /**
+   * Handler to react on {@link _MyProxyMethod} methods
+   */
+  @MetricHandler(metric = _MyProxyMethod.class)
+  public static class _MyProxyMethodHandler implements IMetricHandler<_MyProxyMethod>
+  {
+    private static IMetricHandler<_MyProxyMethod> delegate;
+
+    @Nullable
+    @Override
+    public Object beforeMethod(@NonNull _MyProxyMethod pAnnotation, @Nullable Object pObject, @NonNull Method pMethod, Object @NonNull [] pArgs)
+        throws Exception
+    {
+      return delegate.beforeMethod(pAnnotation, pObject, pMethod, pArgs);
+    }
+
+    @Override
+    public void afterMethod(@NonNull _MyProxyMethod pAnnotation, @Nullable Object pObject, @NonNull Method pMethod,
+                            Object @NonNull [] pArgs, @Nullable Object pResult, @Nullable Throwable pException, @Nullable Object pHint)
+        throws Exception
+    {
+      delegate.afterMethod(pAnnotation, pObject, pMethod, pArgs, pResult, pException, pHint);
+    }
+  }
+
+  /**
+   * Demo-Annotation to add to the {@link _MetrifiedType} class, interpreted by {@link _MyProxyMethodHandler}
+   */
+  @Retention(RetentionPolicy.RUNTIME)
+  @Target(ElementType.METHOD)
+  @MetricType
+  public @interface _MyProxyMethod
+  {
+  }
+
+  public static class _RegularType
+  {
+  }
+
+  public enum _Enum
+  {
+    VALUE,
+    BODY
+        {
+          @Override
+          public String toString()
+          {
+            return "body";
+          }
+        }
+  }
+
+}
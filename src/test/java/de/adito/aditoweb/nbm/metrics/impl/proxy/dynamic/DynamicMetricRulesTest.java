@@ -0,0 +1,91 @@
+package de.adito.aditoweb.nbm.metrics.impl.proxy.dynamic;
+
+import de.adito.aditoweb.nbm.metrics.api.types.Traced;
+import net.bytebuddy.description.method.MethodDescription;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Test for {@link DynamicMetricRules}
+ *
+ * @author agent, 17.10.2026
+ */
+class DynamicMetricRulesTest
+{
+
+  @Test
+  void shouldParseTracedRule() throws Exception
+  {
+    DynamicMetricRule rule = DynamicMetricRules.parseRule("de.adito.**.*Loader#load* Traced transaction=\"Load Project\" startTransaction=true");
+
+    assertTrue(rule.getTypePattern().matcher("de.adito.designer.project.ProjectLoader").matches());
+    assertTrue(rule.getTypePattern().matcher("de.adito.ProjectLoader").matches());
+    assertFalse(rule.getTypePattern().matcher("de.adito.designer.ProjectLoader.Other").matches());
+    assertFalse(rule.getTypePattern().matcher("org.adito.ProjectLoader").matches());
+
+    assertNotNull(rule.getMethodMatcher());
+    assertTrue(rule.getMethodMatcher().matches(new MethodDescription.ForLoadedMethod(_Loader.class.getMethod("loadProject"))));
+    assertFalse(rule.getMethodMatcher().matches(new MethodDescription.ForLoadedMethod(_Loader.class.getMethod("unload"))));
+
+    Traced traced = assertInstanceOf(Traced.class, rule.getAnnotation());
+    assertEquals("Load Project", traced.transaction());
+    assertTrue(traced.startTransaction());
+    assertTrue(traced.combineAsyncTransactions());
+  }
+
+  @Test
+  void shouldMatchAllMethodsWithoutMethodPattern()
+  {
+    DynamicMetricRule rule = DynamicMetricRules.parseRule("a.B Traced transaction=test");
+    assertTrue(rule.getTypePattern().matcher("a.B").matches());
+    assertFalse(rule.getTypePattern().matcher("a.Bc").matches());
+    assertNull(rule.getMethodMatcher());
+  }
+
+  @Test
+  void shouldIgnoreInvalidRules()
+  {
+    List<DynamicMetricRule> rules = DynamicMetricRules.parse(List.of(
+        "# comment",
+        "",
+        "a.B#c Traced transaction=valid",
+        "a.B#c Traced",                          // missing transaction
+        "a.B#c Unknown",                         // unknown metric
+        "a.B#c Traced transaction=x unknown=1",  // unknown attribute
+        "a.B#c Traced transaction=\"unclosed",   // unclosed quote
+        "a.B#c"                                  // missing metric
+    ));
+
+    assertEquals(1, rules.size());
+    assertEquals("valid", ((Traced) rules.get(0).getAnnotation()).transaction());
+  }
+
+  @Test
+  void shouldConvertGlobs()
+  {
+    assertEquals("[^.]*", DynamicMetricRules.globToRegex("*", true));
+    assertEquals(".*", DynamicMetricRules.globToRegex("**", true));
+    assertEquals("(?:.*\\.)?[^.]*", DynamicMetricRules.globToRegex("**.*", true));
+    assertTrue("a.B".matches(DynamicMetricRules.globToRegex("a.**.B", true)));
+    assertTrue("a.b.c.B".matches(DynamicMetricRules.globToRegex("a.**.B", true)));
+    assertFalse("a.cB".matches(DynamicMetricRules.globToRegex("a.**.B", true)));
+    assertEquals(".*", DynamicMetricRules.globToRegex("*", false));
+    assertTrue("getValue".matches(DynamicMetricRules.globToRegex("get?alue", false)));
+  }
+
+  @SuppressWarnings("unused")
+  public static class _Loader
+  {
+    public void loadProject()
+    {
+    }
+
+    public void unload()
+    {
+    }
+  }
+
+}